@@ -1,6 +1,9 @@
 package com.mpatric.mp3agic;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
 
 public abstract class AbstractID3v2Tag implements ID3v2 {
@@ -104,8 +107,11 @@ public abstract class AbstractID3v2Tag implements ID3v2 {
 	protected boolean footer = false;
 	protected boolean compression = false;
 	protected boolean padding = false;
+	private PaddingPolicy paddingPolicy;
+	private int previousPaddingLength;
 	protected String version = null;
 	private int dataLength = 0;
+	private int framesLength = 0;
 	private int extendedHeaderLength;
 	private byte[] extendedHeaderData;
 	private boolean obseleteFormat = false;
@@ -116,14 +122,26 @@ public abstract class AbstractID3v2Tag implements ID3v2 {
 		frameSets = new TreeMap<>();
 	}
 
+	/**
+	 * Reads the tag from a copy of the bytes, which its frames are packed from again until they are
+	 * changed, so the bytes may be changed or reused afterwards.
+	 */
 	public AbstractID3v2Tag(byte[] bytes) throws NoSuchTagException, UnsupportedTagException, InvalidDataException {
 		this(bytes, false);
 	}
 
 	public AbstractID3v2Tag(byte[] bytes, boolean obseleteFormat) throws NoSuchTagException, UnsupportedTagException, InvalidDataException {
+		this(bytes, obseleteFormat, true);
+	}
+
+	/**
+	 * @param copy false to read the tag from the bytes themselves rather than a copy, for a caller
+	 * handing over bytes it owns, which must then not be changed while the tag is in use
+	 */
+	AbstractID3v2Tag(byte[] bytes, boolean obseleteFormat, boolean copy) throws NoSuchTagException, UnsupportedTagException, InvalidDataException {
 		frameSets = new TreeMap<>();
 		this.obseleteFormat = obseleteFormat;
-		unpackTag(bytes);
+		unpackTag(copy ? bytes.clone() : bytes);
 	}
 
 	private void unpackTag(byte[] bytes) throws NoSuchTagException, UnsupportedTagException, InvalidDataException {
@@ -138,6 +156,8 @@ public abstract class AbstractID3v2Tag implements ID3v2 {
 			offset = unpackFrames(bytes, offset, framesLength);
 			if (footer) {
 				offset = unpackFooter(bytes, dataLength);
+			} else {
+				previousPaddingLength = Math.max(0, HEADER_LENGTH + dataLength - offset);
 			}
 		} catch (ArrayIndexOutOfBoundsException e) {
 			throw new InvalidDataException("Premature end of tag", e);
@@ -169,6 +189,10 @@ public abstract class AbstractID3v2Tag implements ID3v2 {
 	protected int unpackFrames(byte[] bytes, int offset, int framesLength) {
 		int currentOffset = offset;
 		while (currentOffset <= framesLength) {
+			// padding, junk or an invalid frame id ends the frames, keeping those before it, whereas a
+			// frame running past the end of the bytes throws ArrayIndexOutOfBoundsException out of this
+			// loop, which unpackTag turns into a failed tag
+			if (checkFrameHeader(bytes, currentOffset) == ID3v2Frame.FRAME_INVALID_ID) break;
 			ID3v2Frame frame;
 			try {
 				frame = createFrame(bytes, currentOffset);
@@ -188,16 +212,31 @@ public abstract class AbstractID3v2Tag implements ID3v2 {
 			frameSet.addFrame(frame);
 			frameSets.put(frame.getId(), frameSet);
 		} else if (replace) {
+			subtractFramesLength(frameSet);
 			frameSet.clear();
 			frameSet.addFrame(frame);
 		} else {
 			frameSet.addFrame(frame);
 		}
+		if (framesLength >= 0) framesLength += frame.getLength();
+	}
+
+	private void subtractFramesLength(ID3v2FrameSet frameSet) {
+		if (framesLength < 0) return;
+		for (ID3v2Frame frame : frameSet.getFrames()) {
+			framesLength -= frame.getLength();
+		}
+	}
+
+	protected int checkFrameHeader(byte[] bytes, int currentOffset) {
+		if (obseleteFormat) return ID3v2ObseleteFrame.checkFrameHeader(bytes, currentOffset);
+		return ID3v2Frame.checkFrameHeader(bytes, currentOffset);
 	}
 
 	protected ID3v2Frame createFrame(byte[] bytes, int currentOffset) throws InvalidDataException {
-		if (obseleteFormat) return new ID3v2ObseleteFrame(bytes, currentOffset);
-		return new ID3v2Frame(bytes, currentOffset);
+		// the tag owns its bytes, so its frames are kept in them rather than copied again
+		if (obseleteFormat) return new ID3v2ObseleteFrame(bytes, currentOffset, false);
+		return new ID3v2Frame(bytes, currentOffset, false);
 	}
 
 	protected ID3v2Frame createFrame(String id, byte[] data) {
@@ -220,13 +259,97 @@ public abstract class AbstractID3v2Tag implements ID3v2 {
 	}
 
 	public void packTag(byte[] bytes) throws NotSupportedException {
-		int offset = packHeader(bytes, 0);
-		if (extendedHeader) {
-			offset = packExtendedHeader(bytes, offset);
+		packTag(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * Packs the tag at the position of the buffer, which needs {@link #getLength()} bytes remaining,
+	 * moving the position past it. Each frame is packed straight into the buffer, with no copy of it
+	 * made along the way.
+	 */
+	public void packTag(ByteBuffer bytes) throws NotSupportedException {
+		int end = bytes.position() + getLength();
+		byte[] header = new byte[packedHeaderLength()];
+		packHeaders(header);
+		bytes.put(header);
+		packFrames(bytes);
+		// the bytes may be reused, so the padding is cleared rather than assumed to be zero
+		int paddingEnd = footer ? end - FOOTER_LENGTH : end;
+		while (bytes.position() < paddingEnd) {
+			bytes.put((byte) 0);
+		}
+		if (footer) {
+			byte[] footerBytes = new byte[FOOTER_LENGTH];
+			packFooter(footerBytes, 0);
+			bytes.put(footerBytes);
+		}
+	}
+
+	/**
+	 * Writes the tag to the channel, which is left open, in one gathering write where the channel
+	 * takes one. The data of the frames is written from the frames themselves rather than copied.
+	 */
+	public void packTag(WritableByteChannel channel) throws IOException, NotSupportedException {
+		BufferTools.writeFully(channel, toByteBuffers());
+	}
+
+	/**
+	 * @return the tag as buffers to be written in order, with the headers packed together into one
+	 * array, the data of each frame wrapped rather than copied, and the frames unchanged since they
+	 * were read wrapped whole as the bytes they were read from
+	 */
+	ByteBuffer[] toByteBuffers() throws NotSupportedException {
+		List<ID3v2Frame> frames = framesToPack();
+		ByteBuffer[] packedFrames = new ByteBuffer[frames.size()];
+		int headerLength = packedHeaderLength();
+		int framesLength = 0;
+		int frameHeadersLength = 0;
+		int dirtyFrameCount = 0;
+		for (int j = 0; j < frames.size(); j++) {
+			ID3v2Frame frame = frames.get(j);
+			framesLength += frame.getLength();
+			packedFrames[j] = frame.packedBytes();
+			if (packedFrames[j] == null) {
+				frameHeadersLength += frame.getLength() - frame.getDataLength();
+				dirtyFrameCount++;
+			}
+		}
+		int trailerLength = getLength() - headerLength - framesLength;
+		byte[] headers = new byte[headerLength + frameHeadersLength + trailerLength];
+		packHeaders(headers);
+		ByteBuffer[] buffers = new ByteBuffer[frames.size() + dirtyFrameCount + 2];
+		int i = 0;
+		buffers[i++] = ByteBuffer.wrap(headers, 0, headerLength);
+		int offset = headerLength;
+		for (int j = 0; j < frames.size(); j++) {
+			if (packedFrames[j] != null) {
+				buffers[i++] = packedFrames[j];
+				continue;
+			}
+			ID3v2Frame frame = frames.get(j);
+			int frameHeaderLength = frame.getLength() - frame.getDataLength();
+			ByteBuffer frameHeader = ByteBuffer.wrap(headers, offset, frameHeaderLength);
+			frame.packHeader(frameHeader);
+			frameHeader.position(offset);
+			buffers[i++] = frameHeader;
+			buffers[i++] = ByteBuffer.wrap(frame.getData(), 0, frame.getDataLength());
+			offset += frameHeaderLength;
 		}
-		offset = packFrames(bytes, offset);
 		if (footer) {
-			offset = packFooter(bytes, dataLength);
+			packFooter(headers, offset + trailerLength - FOOTER_LENGTH);
+		}
+		buffers[i] = ByteBuffer.wrap(headers, offset, trailerLength);
+		return buffers;
+	}
+
+	private int packedHeaderLength() {
+		return extendedHeader ? HEADER_LENGTH + 4 + extendedHeaderData.length : HEADER_LENGTH;
+	}
+
+	private void packHeaders(byte[] bytes) {
+		int offset = packHeader(bytes, 0);
+		if (extendedHeader) {
+			packExtendedHeader(bytes, offset);
 		}
 	}
 
@@ -258,24 +381,35 @@ public abstract class AbstractID3v2Tag implements ID3v2 {
 	}
 
 	public int packFrames(byte[] bytes, int offset) throws NotSupportedException {
-		int newOffset = packSpecifiedFrames(bytes, offset, null, "APIC");
-		newOffset = packSpecifiedFrames(bytes, newOffset, "APIC", null);
-		return newOffset;
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		buffer.position(offset);
+		packFrames(buffer);
+		return buffer.position();
 	}
 
-	private int packSpecifiedFrames(byte[] bytes, int offset, String onlyId, String notId) throws NotSupportedException {
+	private void packFrames(ByteBuffer bytes) throws NotSupportedException {
+		for (ID3v2Frame frame : framesToPack()) {
+			frame.packFrame(bytes);
+		}
+	}
+
+	/**
+	 * @return the frames with data, in the order they are packed, which has the pictures last
+	 */
+	private List<ID3v2Frame> framesToPack() {
+		List<ID3v2Frame> frames = new ArrayList<>();
 		for (ID3v2FrameSet frameSet : frameSets.values()) {
-			if ((onlyId == null || onlyId.equals(frameSet.getId())) && (notId == null || !notId.equals(frameSet.getId()))) {
-				for (ID3v2Frame frame : frameSet.getFrames()) {
-					if (frame.getDataLength() > 0) {
-						byte[] frameData = frame.toBytes();
-						BufferTools.copyIntoByteBuffer(frameData, 0, frameData.length, bytes, offset);
-						offset += frameData.length;
-					}
-				}
-			}
+			if (!ID_IMAGE.equals(frameSet.getId())) addFramesToPack(frameSet, frames);
+		}
+		ID3v2FrameSet imageFrameSet = frameSets.get(ID_IMAGE);
+		if (imageFrameSet != null) addFramesToPack(imageFrameSet, frames);
+		return frames;
+	}
+
+	private static void addFramesToPack(ID3v2FrameSet frameSet, List<ID3v2Frame> frames) {
+		for (ID3v2Frame frame : frameSet.getFrames()) {
+			if (frame.getDataLength() > 0) frames.add(frame);
 		}
-		return offset;
 	}
 
 	private int packFooter(byte[] bytes, int offset) {
@@ -298,16 +432,48 @@ public abstract class AbstractID3v2Tag implements ID3v2 {
 	}
 
 	private int calculateDataLength() {
+		int length = calculateUnpaddedDataLength();
+		if (!footer) length += paddingLength(HEADER_LENGTH + length);
+		return length;
+	}
+
+	private int calculateUnpaddedDataLength() {
 		int length = 0;
 		if (extendedHeader) length += extendedHeaderLength;
 		if (footer) length += FOOTER_LENGTH;
-		else if (padding) length += PADDING_LENGTH;
-		for (ID3v2FrameSet frameSet : frameSets.values()) {
-			for (ID3v2Frame frame : frameSet.getFrames()) {
-				length += frame.getLength();
+		return length + getFramesLength();
+	}
+
+	/**
+	 * @return the length of the frames, kept up to date as frames are added and removed through the
+	 * tag, and counted again only after the frame sets have been handed out to be changed directly
+	 */
+	private int getFramesLength() {
+		if (framesLength < 0) {
+			framesLength = 0;
+			for (ID3v2FrameSet frameSet : frameSets.values()) {
+				for (ID3v2Frame frame : frameSet.getFrames()) {
+					framesLength += frame.getLength();
+				}
 			}
 		}
-		return length;
+		return framesLength;
+	}
+
+	/**
+	 * @return the padding for a tag of the length, from the padding policy if there is one, or else
+	 * the fixed padding if padding is set
+	 */
+	private int paddingLength(int tagLength) {
+		if (paddingPolicy != null) return Math.max(0, paddingPolicy.paddingLength(tagLength, previousPaddingLength));
+		return padding ? PADDING_LENGTH : 0;
+	}
+
+	/**
+	 * @return the length the tag would be packed to with no padding
+	 */
+	int getUnpaddedLength() {
+		return calculateUnpaddedDataLength() + HEADER_LENGTH;
 	}
 
 	protected boolean useFrameUnsynchronisation() {
@@ -336,11 +502,20 @@ public abstract class AbstractID3v2Tag implements ID3v2 {
 		return getDataLength() + HEADER_LENGTH;
 	}
 
+	/**
+	 * @return the frame sets, which may be changed directly, at the cost of the length of the frames
+	 * being counted again from all of them the next time it is needed
+	 */
 	@Override
 	public Map<String, ID3v2FrameSet> getFrameSets() {
+		framesLength = -1;
 		return frameSets;
 	}
 
+	boolean hasFrames() {
+		return !frameSets.isEmpty();
+	}
+
 	@Override
 	public boolean getPadding() {
 		return padding;
@@ -354,6 +529,37 @@ public abstract class AbstractID3v2Tag implements ID3v2 {
 		}
 	}
 
+	public PaddingPolicy getPaddingPolicy() {
+		return paddingPolicy;
+	}
+
+	/**
+	 * Sets the policy for the padding the tag is packed with, which takes the place of
+	 * {@link #setPadding(boolean)}, or null for that to decide again.
+	 */
+	public void setPaddingPolicy(PaddingPolicy paddingPolicy) {
+		this.paddingPolicy = paddingPolicy;
+		invalidateDataLength();
+	}
+
+	/**
+	 * @return the length of the padding after the frames of the tag when it was read
+	 */
+	public int getPreviousPaddingLength() {
+		return previousPaddingLength;
+	}
+
+	/**
+	 * Called once the tag has been written with the given padding, which the padding policy then
+	 * works from as the padding the tag was read with.
+	 */
+	void setPreviousPaddingLength(int previousPaddingLength) {
+		if (this.previousPaddingLength != previousPaddingLength) {
+			invalidateDataLength();
+			this.previousPaddingLength = previousPaddingLength;
+		}
+	}
+
 	@Override
 	public boolean hasFooter() {
 		return footer;
@@ -716,7 +922,7 @@ public abstract class AbstractID3v2Tag implements ID3v2 {
 			for (ID3v2Frame frame : frameSet.getFrames()) {
 				ID3v2CommentFrameData frameData;
 				try {
-					frameData = new ID3v2CommentFrameData(useFrameUnsynchronisation(), frame.getData());
+					frameData = new ID3v2CommentFrameData(useFrameUnsynchronisation(), frame.peekData());
 					return frameData;
 				} catch (InvalidDataException e) {
 					// Do nothing
@@ -1061,7 +1267,9 @@ public abstract class AbstractID3v2Tag implements ID3v2 {
 
 	@Override
 	public void clearFrameSet(String id) {
-		if (frameSets.remove(id) != null) {
+		ID3v2FrameSet frameSet = frameSets.remove(id);
+		if (frameSet != null) {
+			subtractFramesLength(frameSet);
 			invalidateDataLength();
 		}
 	}
@@ -1095,7 +1303,7 @@ public abstract class AbstractID3v2Tag implements ID3v2 {
 				ID3v2ChapterFrameData frameData;
 				try {
 					frameData = new ID3v2ChapterFrameData(useFrameUnsynchronisation(),
-							frame.getData());
+							frame.peekData());
 					chapterData.add(frameData);
 				} catch (InvalidDataException e) {
 					// do nothing
@@ -1115,7 +1323,7 @@ public abstract class AbstractID3v2Tag implements ID3v2 {
 				ID3v2ChapterTOCFrameData frameData;
 				try {
 					frameData = new ID3v2ChapterTOCFrameData(useFrameUnsynchronisation(),
-							frame.getData());
+							frame.peekData());
 					chapterData.add(frameData);
 				} catch (InvalidDataException e) {
 					// do nothing
@@ -1132,7 +1340,7 @@ public abstract class AbstractID3v2Tag implements ID3v2 {
 			ID3v2Frame frame = frameSet.getFrames().get(0);
 			ID3v2TextFrameData frameData;
 			try {
-				frameData = new ID3v2TextFrameData(useFrameUnsynchronisation(), frame.getData());
+				frameData = new ID3v2TextFrameData(useFrameUnsynchronisation(), frame.peekData());
 				return frameData;
 			} catch (InvalidDataException e) {
 				// do nothing
@@ -1147,7 +1355,7 @@ public abstract class AbstractID3v2Tag implements ID3v2 {
 			ID3v2Frame frame = frameSet.getFrames().get(0);
 			ID3v2WWWFrameData frameData;
 			try {
-				frameData = new ID3v2WWWFrameData(useFrameUnsynchronisation(), frame.getData());
+				frameData = new ID3v2WWWFrameData(useFrameUnsynchronisation(), frame.peekData());
 				return frameData;
 			} catch (InvalidDataException e) {
 				// do nothing
@@ -1162,7 +1370,7 @@ public abstract class AbstractID3v2Tag implements ID3v2 {
 			ID3v2Frame frame = frameSet.getFrames().get(0);
 			ID3v2UrlFrameData frameData;
 			try {
-				frameData = new ID3v2UrlFrameData(useFrameUnsynchronisation(), frame.getData());
+				frameData = new ID3v2UrlFrameData(useFrameUnsynchronisation(), frame.peekData());
 				return frameData;
 			} catch (InvalidDataException e) {
 				// do nothing
@@ -1177,7 +1385,7 @@ public abstract class AbstractID3v2Tag implements ID3v2 {
 			for (ID3v2Frame frame : frameSet.getFrames()) {
 				ID3v2CommentFrameData frameData;
 				try {
-					frameData = new ID3v2CommentFrameData(useFrameUnsynchronisation(), frame.getData());
+					frameData = new ID3v2CommentFrameData(useFrameUnsynchronisation(), frame.peekData());
 					if (itunes && ITUNES_COMMENT_DESCRIPTION.equals(frameData.getDescription().toString())) {
 						return frameData;
 					} else if (!itunes) {
@@ -1198,8 +1406,8 @@ public abstract class AbstractID3v2Tag implements ID3v2 {
 			ID3v2PictureFrameData frameData;
 			try {
 				if (obseleteFormat)
-					frameData = new ID3v2ObseletePictureFrameData(useFrameUnsynchronisation(), frame.getData());
-				else frameData = new ID3v2PictureFrameData(useFrameUnsynchronisation(), frame.getData());
+					frameData = new ID3v2ObseletePictureFrameData(useFrameUnsynchronisation(), frame.peekData());
+				else frameData = new ID3v2PictureFrameData(useFrameUnsynchronisation(), frame.peekData());
 				return frameData;
 			} catch (InvalidDataException e) {
 				// do nothing
@@ -1214,7 +1422,7 @@ public abstract class AbstractID3v2Tag implements ID3v2 {
 			final ID3v2Frame frame = frameSet.getFrames().get(0);
 			ID3v2PopmFrameData frameData;
 			try {
-				frameData = new ID3v2PopmFrameData(useFrameUnsynchronisation(), frame.getData());
+				frameData = new ID3v2PopmFrameData(useFrameUnsynchronisation(), frame.peekData());
 				return frameData;
 			} catch (final InvalidDataException e) {
 				// do nothing
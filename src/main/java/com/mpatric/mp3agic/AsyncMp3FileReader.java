@@ -0,0 +1,231 @@
+package com.mpatric.mp3agic;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Drives the init of an {@link Mp3File} from reads on an {@link AsynchronousFileChannel}, for
+ * {@link Mp3File#openAsync(java.nio.file.Path, Mp3FileOptions)}. The tail and head are read first, then the frames
+ * are scanned from a window of the file while the block after the window is read ahead, so that the
+ * scan of one block overlaps the read of the next. No thread is ever blocked waiting for a read: each
+ * step carries on from the completion of the read it needs.
+ */
+final class AsyncMp3FileReader {
+
+	private final Mp3File mp3File;
+	private final AsynchronousFileChannel channel;
+	private final CompletableFuture<Mp3File> future = new CompletableFuture<>();
+	private final int bufferLength;
+
+	// the bytes of the file from windowStart to windowEnd, which the scan takes its blocks from
+	private ByteBuffer window;
+	private long windowStart;
+	private long windowEnd;
+
+	private final Object lock = new Object();
+	private ByteBuffer readAhead;
+	private long readAheadPosition;
+	private boolean readInFlight;
+	private boolean readReady;
+	private boolean waiting;
+
+	AsyncMp3FileReader(Mp3File mp3File, AsynchronousFileChannel channel) {
+		this.mp3File = mp3File;
+		this.channel = channel;
+		this.bufferLength = mp3File.bufferLength;
+	}
+
+	CompletableFuture<Mp3File> read() {
+		int tailLength = mp3File.tailLength();
+		readFully(ByteBuffer.allocate(tailLength), mp3File.getLength() - tailLength, tail -> {
+			if (tail.limit() < tailLength) throw new IOException("Not enough bytes read");
+			mp3File.initTail(tail);
+			readFully(ByteBuffer.allocate(mp3File.headLength()), 0, this::readLargerHead);
+		});
+		return future;
+	}
+
+	private void readLargerHead(ByteBuffer head) throws IOException, UnsupportedTagException, InvalidDataException {
+		int largerHeadLength = mp3File.largerHeadLength(head);
+		if (largerHeadLength > 0) {
+			ByteBuffer largerHead = ByteBuffer.allocate(largerHeadLength);
+			largerHead.put(head);
+			readFully(largerHead, 0, this::beginScan);
+		} else {
+			beginScan(head);
+		}
+	}
+
+	private void beginScan(ByteBuffer head) throws IOException, UnsupportedTagException, InvalidDataException {
+		mp3File.beginScan(head);
+		ByteBuffer headBlock = mp3File.takeScanHeadBlock();
+		if (headBlock != null) {
+			mp3File.scanStep(headBlock, null);
+		}
+		window = ByteBuffer.allocate(2 * bufferLength);
+		window.limit(0);
+		readAhead = ByteBuffer.allocate(bufferLength);
+		windowStart = windowEnd = mp3File.getScanOffset();
+		process();
+	}
+
+	/**
+	 * Scans every block already covered by the window, moving the window on with each read ahead as
+	 * it completes, until the scan is complete or it has to wait for a read still in flight.
+	 */
+	private void process() throws IOException, UnsupportedTagException, InvalidDataException {
+		while (!mp3File.isScanComplete()) {
+			long blockStart = mp3File.getScanOffset();
+			int blockLength = Math.max(0, mp3File.scanBlockLength());
+			boolean inWindow = blockStart >= windowStart && blockStart <= windowEnd;
+			if (inWindow) readAheadIfIdle();
+			if (inWindow && blockStart + blockLength <= windowEnd) {
+				window.position((int) (blockStart - windowStart));
+				ByteBuffer block = window.slice();
+				block.limit(blockLength);
+				mp3File.scanStep(block, null);
+				continue;
+			}
+			synchronized (lock) {
+				if (readReady) {
+					readReady = false;
+					if (inWindow && readAheadPosition == windowEnd) {
+						appendReadAhead(blockStart);
+						continue;
+					}
+				} else if (readInFlight) {
+					waiting = true;
+					return;
+				}
+			}
+			// the scan has moved outside the window, having skipped frames or gone back to look for
+			// another start frame, so the window starts again from the scan offset
+			window.clear().limit(0);
+			windowStart = windowEnd = blockStart;
+		}
+		finishScan();
+	}
+
+	private void appendReadAhead(long blockStart) {
+		window.position((int) (blockStart - windowStart));
+		window.compact();
+		window.put(readAhead);
+		window.flip();
+		windowStart = blockStart;
+		windowEnd += readAhead.limit();
+	}
+
+	private void readAheadIfIdle() {
+		long position = windowEnd;
+		if (position >= mp3File.getLength()) return;
+		synchronized (lock) {
+			if (readInFlight || readReady) return;
+			readInFlight = true;
+			readAheadPosition = position;
+		}
+		readAhead.clear();
+		readAhead.limit((int) Math.min(bufferLength, mp3File.getLength() - position));
+		readFully(readAhead, position, bytes -> {
+			boolean resume;
+			synchronized (lock) {
+				readInFlight = false;
+				readReady = true;
+				resume = waiting;
+				waiting = false;
+			}
+			if (resume) process();
+		});
+	}
+
+	private void finishScan() throws IOException, UnsupportedTagException, InvalidDataException {
+		mp3File.finishScan();
+		int id3v2TagReadLength = mp3File.id3v2TagReadLength();
+		if (id3v2TagReadLength < 0) {
+			readCustomTag();
+			return;
+		}
+		byte[] bytes = mp3File.id3v2TagBytesFromHead(id3v2TagReadLength);
+		if (bytes != null) {
+			mp3File.initId3v2Tag(bytes);
+			readCustomTag();
+			return;
+		}
+		readFully(ByteBuffer.allocate(id3v2TagReadLength), 0, tag -> {
+			if (tag.limit() < id3v2TagReadLength) throw new IOException("Not enough bytes read");
+			mp3File.initId3v2Tag(tag.array());
+			readCustomTag();
+		});
+	}
+
+	private void readCustomTag() throws IOException {
+		int customTagReadLength = mp3File.customTagReadLength();
+		if (customTagReadLength < 0) {
+			complete();
+			return;
+		}
+		byte[] bytes = mp3File.customTagBytesFromTail(customTagReadLength);
+		if (bytes != null) {
+			mp3File.initCustomTag(bytes);
+			complete();
+			return;
+		}
+		readFully(ByteBuffer.allocate(customTagReadLength), mp3File.getEndOffset() + 1, tag -> {
+			if (tag.limit() < customTagReadLength) throw new IOException("Not enough bytes read");
+			mp3File.initCustomTag(tag.array());
+			complete();
+		});
+	}
+
+	private void complete() throws IOException {
+		mp3File.finishInit();
+		channel.close();
+		future.complete(mp3File);
+	}
+
+	private void fail(Throwable e) {
+		try {
+			channel.close();
+		} catch (IOException closeException) {
+			e.addSuppressed(closeException);
+		}
+		future.completeExceptionally(e);
+	}
+
+	/**
+	 * Reads from the position until the buffer is full or the end of the file, then flips the buffer
+	 * and passes it on. Bytes already in the buffer are taken as read from the position.
+	 */
+	private void readFully(ByteBuffer bytes, long position, ReadCompletion then) {
+		try {
+			channel.read(bytes, position + bytes.position(), null, new CompletionHandler<Integer, Void>() {
+				@Override
+				public void completed(Integer bytesRead, Void attachment) {
+					try {
+						if (bytesRead > 0 && bytes.hasRemaining()) {
+							channel.read(bytes, position + bytes.position(), null, this);
+							return;
+						}
+						bytes.flip();
+						then.completed(bytes);
+					} catch (Exception e) {
+						fail(e);
+					}
+				}
+
+				@Override
+				public void failed(Throwable e, Void attachment) {
+					fail(e);
+				}
+			});
+		} catch (RuntimeException e) {
+			fail(e);
+		}
+	}
+
+	private interface ReadCompletion {
+		void completed(ByteBuffer bytes) throws Exception;
+	}
+}
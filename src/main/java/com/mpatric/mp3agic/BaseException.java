@@ -4,6 +4,8 @@ public class BaseException extends Exception {
 
 	private static final long serialVersionUID = 1L;
 
+	private static volatile boolean stackTraceEnabled = true;
+
 	public BaseException() {
 		super();
 	}
@@ -16,6 +18,24 @@ public class BaseException extends Exception {
 		super(message, cause);
 	}
 
+	public static boolean isStackTraceEnabled() {
+		return stackTraceEnabled;
+	}
+
+	/**
+	 * When disabled, exceptions created from then on do not capture a stack trace, which makes
+	 * throwing them much cheaper when many files are expected to fail parsing.
+	 */
+	public static void setStackTraceEnabled(boolean stackTraceEnabled) {
+		BaseException.stackTraceEnabled = stackTraceEnabled;
+	}
+
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		if (!stackTraceEnabled) return this;
+		return super.fillInStackTrace();
+	}
+
 	public String getDetailedMessage() {
 		Throwable t = this;
 		StringBuilder s = new StringBuilder();
@@ -1,6 +1,10 @@
 package com.mpatric.mp3agic;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 public final class BufferTools {
 
@@ -156,15 +160,17 @@ public final class BufferTools {
 
 	public static int sizeUnsynchronisationWouldAdd(byte[] bytes) {
 		int count = 0;
-		for (int i = 0; i < bytes.length - 1; i++) {
-			if (bytes[i] == (byte) 0xff && ((bytes[i + 1] & (byte) 0xe0) == (byte) 0xe0 || bytes[i + 1] == 0)) {
-				count++;
-			}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		for (int i = ByteSearch.indexOf(buffer, 0, bytes.length, (byte) 0xff); i >= 0; i = ByteSearch.indexOf(buffer, i + 1, bytes.length, (byte) 0xff)) {
+			if (unsynchronisationNeeded(bytes, i)) count++;
 		}
-		if (bytes.length > 0 && bytes[bytes.length - 1] == (byte) 0xff) count++;
 		return count;
 	}
 
+	private static boolean unsynchronisationNeeded(byte[] bytes, int i) {
+		return i == bytes.length - 1 || (bytes[i + 1] & (byte) 0xe0) == (byte) 0xe0 || bytes[i + 1] == 0;
+	}
+
 	public static byte[] unsynchroniseBuffer(byte[] bytes) {
 		// unsynchronisation is replacing instances of:
 		// 11111111 111xxxxx with 11111111 00000000 111xxxxx and
@@ -172,31 +178,35 @@ public final class BufferTools {
 		int count = sizeUnsynchronisationWouldAdd(bytes);
 		if (count == 0) return bytes;
 		byte[] newBuffer = new byte[bytes.length + count];
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		int copied = 0;
 		int j = 0;
-		for (int i = 0; i < bytes.length - 1; i++) {
-			newBuffer[j++] = bytes[i];
-			if (bytes[i] == (byte) 0xff && ((bytes[i + 1] & (byte) 0xe0) == (byte) 0xe0 || bytes[i + 1] == 0)) {
+		for (int i = ByteSearch.indexOf(buffer, 0, bytes.length, (byte) 0xff); i >= 0; i = ByteSearch.indexOf(buffer, i + 1, bytes.length, (byte) 0xff)) {
+			if (unsynchronisationNeeded(bytes, i)) {
+				System.arraycopy(bytes, copied, newBuffer, j, i + 1 - copied);
+				j += i + 1 - copied;
 				newBuffer[j++] = 0;
+				copied = i + 1;
 			}
 		}
-		newBuffer[j++] = bytes[bytes.length - 1];
-		if (bytes[bytes.length - 1] == (byte) 0xff) {
-			newBuffer[j++] = 0;
-		}
+		System.arraycopy(bytes, copied, newBuffer, j, bytes.length - copied);
 		return newBuffer;
 	}
 
 	public static int sizeSynchronisationWouldSubtract(byte[] bytes) {
 		int count = 0;
-		for (int i = 0; i < bytes.length - 2; i++) {
-			if (bytes[i] == (byte) 0xff && bytes[i + 1] == 0 && ((bytes[i + 2] & (byte) 0xe0) == (byte) 0xe0 || bytes[i + 2] == 0)) {
-				count++;
-			}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		for (int i = ByteSearch.indexOf(buffer, 0, bytes.length, (byte) 0xff); i >= 0; i = ByteSearch.indexOf(buffer, i + 1, bytes.length, (byte) 0xff)) {
+			if (synchronisationPossible(bytes, i)) count++;
 		}
-		if (bytes.length > 1 && bytes[bytes.length - 2] == (byte) 0xff && bytes[bytes.length - 1] == 0) count++;
 		return count;
 	}
 
+	private static boolean synchronisationPossible(byte[] bytes, int i) {
+		if (i > bytes.length - 2 || bytes[i + 1] != 0) return false;
+		return i == bytes.length - 2 || (bytes[i + 2] & (byte) 0xe0) == (byte) 0xe0 || bytes[i + 2] == 0;
+	}
+
 	public static byte[] synchroniseBuffer(byte[] bytes) {
 		// synchronisation is replacing instances of:
 		// 11111111 00000000 111xxxxx with 11111111 111xxxxx and
@@ -204,15 +214,17 @@ public final class BufferTools {
 		int count = sizeSynchronisationWouldSubtract(bytes);
 		if (count == 0) return bytes;
 		byte[] newBuffer = new byte[bytes.length - count];
-		int i = 0;
-		for (int j = 0; j < newBuffer.length - 1; j++) {
-			newBuffer[j] = bytes[i];
-			if (bytes[i] == (byte) 0xff && bytes[i + 1] == 0 && ((bytes[i + 2] & (byte) 0xe0) == (byte) 0xe0 || bytes[i + 2] == 0)) {
-				i++;
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		int copied = 0;
+		int j = 0;
+		for (int i = ByteSearch.indexOf(buffer, 0, bytes.length, (byte) 0xff); i >= 0; i = ByteSearch.indexOf(buffer, i + 1, bytes.length, (byte) 0xff)) {
+			if (synchronisationPossible(bytes, i)) {
+				System.arraycopy(bytes, copied, newBuffer, j, i + 1 - copied);
+				j += i + 1 - copied;
+				copied = i + 2;
 			}
-			i++;
 		}
-		newBuffer[newBuffer.length - 1] = bytes[i];
+		System.arraycopy(bytes, copied, newBuffer, j, bytes.length - copied);
 		return newBuffer;
 	}
 
@@ -261,24 +273,45 @@ public final class BufferTools {
 	}
 
 	public static int indexOfTerminator(byte[] bytes, int fromIndex, int terminatorLength) {
-		int marker = -1;
-		for (int i = fromIndex; i <= bytes.length - terminatorLength; i++) {
-			if ((i - fromIndex) % terminatorLength == 0) {
-				int matched;
-				for (matched = 0; matched < terminatorLength; matched++) {
-					if (bytes[i + matched] != 0) break;
-				}
-				if (matched == terminatorLength) {
-					marker = i;
-					break;
-				}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		int i = ByteSearch.indexOf(buffer, fromIndex, bytes.length, (byte) 0);
+		while (i >= 0) {
+			// the terminator has to start on a character boundary counted from fromIndex
+			int start = i - (i - fromIndex) % terminatorLength;
+			if (start + terminatorLength > bytes.length) break;
+			int matched;
+			for (matched = 0; matched < terminatorLength; matched++) {
+				if (bytes[start + matched] != 0) break;
 			}
+			if (matched == terminatorLength) return start;
+			i = ByteSearch.indexOf(buffer, start + terminatorLength, bytes.length, (byte) 0);
 		}
-		return marker;
+		return -1;
 	}
 
 	public static int indexOfTerminatorForEncoding(byte[] bytes, int fromIndex, int encoding) {
 		int terminatorLength = (encoding == EncodedText.TEXT_ENCODING_UTF_16 || encoding == EncodedText.TEXT_ENCODING_UTF_16BE) ? 2 : 1;
 		return indexOfTerminator(bytes, fromIndex, terminatorLength);
 	}
+
+	/**
+	 * Writes all of the buffers to the channel, in one gathering write where the channel takes one.
+	 */
+	static void writeFully(WritableByteChannel channel, ByteBuffer... byteBuffers) throws IOException {
+		if (channel instanceof GatheringByteChannel) {
+			long remaining = 0;
+			for (ByteBuffer byteBuffer : byteBuffers) {
+				remaining += byteBuffer.remaining();
+			}
+			while (remaining > 0) {
+				remaining -= ((GatheringByteChannel) channel).write(byteBuffers);
+			}
+			return;
+		}
+		for (ByteBuffer byteBuffer : byteBuffers) {
+			while (byteBuffer.hasRemaining()) {
+				channel.write(byteBuffer);
+			}
+		}
+	}
 }
@@ -0,0 +1,51 @@
+package com.mpatric.mp3agic;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Searches for a byte value eight bytes at a time. Each long read is XORed with the value repeated
+ * in every byte, and the bytes that come out as zero are then found without any carry between
+ * bytes, so the first match in the long is exact.
+ */
+public final class ByteSearch {
+
+	private static final long LOW_BITS = 0x0101010101010101L;
+	private static final long SEVEN_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+	private ByteSearch() {}
+
+	/**
+	 * @return the index of the first byte equal to value from fromIndex up to but not including
+	 * toIndex, or -1 if there is none
+	 */
+	public static int indexOf(byte[] bytes, int fromIndex, int toIndex, byte value) {
+		return indexOf(ByteBuffer.wrap(bytes), fromIndex, toIndex, value);
+	}
+
+	/**
+	 * @return the index of the first byte equal to value from fromIndex up to but not including
+	 * toIndex, using absolute gets so that the position of the buffer is not changed, or -1 if there
+	 * is none
+	 */
+	public static int indexOf(ByteBuffer bytes, int fromIndex, int toIndex, byte value) {
+		long pattern = (value & 0xFFL) * LOW_BITS;
+		boolean bigEndian = bytes.order() == ByteOrder.BIG_ENDIAN;
+		int i = fromIndex;
+		// matches close together are found sooner byte by byte than by setting up the long reads
+		for (int end = Math.min(toIndex, fromIndex + 8); i < end; i++) {
+			if (bytes.get(i) == value) return i;
+		}
+		for (; i <= toIndex - 8; i += 8) {
+			long x = bytes.getLong(i) ^ pattern;
+			long found = ~(((x & SEVEN_BITS) + SEVEN_BITS) | x | SEVEN_BITS);
+			if (found != 0) {
+				return i + ((bigEndian ? Long.numberOfLeadingZeros(found) : Long.numberOfTrailingZeros(found)) >>> 3);
+			}
+		}
+		for (; i < toIndex; i++) {
+			if (bytes.get(i) == value) return i;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,30 @@
+package com.mpatric.mp3agic;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A source of the bytes of an mp3 other than a file path, such as a network file system or an object
+ * store that serves range requests, for {@link Mp3File#Mp3File(ByteSource, Mp3FileOptions)}. Mp3File
+ * plans its reads so that a source is asked for few, large ranges rather than many small ones.
+ */
+public interface ByteSource extends Closeable {
+
+	long size() throws IOException;
+
+	/**
+	 * Reads bytes from the position into the buffer, without changing any position of the source,
+	 * which may be asked for reads from several threads.
+	 *
+	 * @return the number of bytes read, which is only less than the buffer has room for at the end
+	 * of the source, or -1 if the position is at or past the end
+	 */
+	int read(ByteBuffer bytes, long position) throws IOException;
+
+	/**
+	 * @return the bytes from the position mapped into memory, or null if the source cannot be
+	 * mapped
+	 */
+	ByteBuffer map(long position, int length) throws IOException;
+}
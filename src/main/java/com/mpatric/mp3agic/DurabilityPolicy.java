@@ -0,0 +1,98 @@
+package com.mpatric.mp3agic;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * How much {@link Mp3File#save(String, DurabilityPolicy)} and {@link Mp3File#update(DurabilityPolicy)}
+ * sync to disk. A save always writes to a temporary file in the same directory and moves it over
+ * the target in one atomic move, so a crash leaves either the old file or the new one, never part of
+ * one. What the policy decides is whether that holds across a power loss:
+ * <ul>
+ * <li>{@link #none()} syncs nothing, leaving it to the operating system, which is safe against the
+ * process dying but not against the power going</li>
+ * <li>{@link #sync()} syncs each file before it is moved and its directory after, so a save is on
+ * disk once it returns</li>
+ * <li>{@link #grouped(int)} syncs each file before it is moved but syncs the directories only once
+ * every so many files, or on {@link #commit()}, so a power loss can take the files saved since the
+ * last directory sync back to their old versions, though never to a file partly written</li>
+ * </ul>
+ * A grouped policy can be shared by the threads of a batch job.
+ */
+public final class DurabilityPolicy {
+
+	// Windows cannot open a directory as a file channel, so there is no directory to sync
+	static final boolean CAN_SYNC_DIRECTORIES = !System.getProperty("os.name", "").startsWith("Windows");
+
+	private final boolean syncFiles;
+	private final int groupFileCount;
+	private final Set<Path> pendingDirectories = new LinkedHashSet<>();
+	private int pendingFileCount;
+
+	private DurabilityPolicy(boolean syncFiles, int groupFileCount) {
+		this.syncFiles = syncFiles;
+		this.groupFileCount = groupFileCount;
+	}
+
+	public static DurabilityPolicy none() {
+		return new DurabilityPolicy(false, 0);
+	}
+
+	public static DurabilityPolicy sync() {
+		return new DurabilityPolicy(true, 1);
+	}
+
+	/**
+	 * @param fileCount the number of files moved between directory syncs
+	 */
+	public static DurabilityPolicy grouped(int fileCount) {
+		if (fileCount < 1) throw new IllegalArgumentException("File count must be at least 1");
+		return new DurabilityPolicy(true, fileCount);
+	}
+
+	/**
+	 * Called once the file has been written, before it is closed and moved.
+	 */
+	void written(FileChannel fileChannel) throws IOException {
+		if (syncFiles) fileChannel.force(true);
+	}
+
+	/**
+	 * Called once a file has been moved into the directory.
+	 */
+	synchronized void moved(Path directory) throws IOException {
+		if (groupFileCount == 0) return;
+		pendingDirectories.add(directory);
+		if (++pendingFileCount >= groupFileCount) commit();
+	}
+
+	/**
+	 * Syncs the directories of the files moved since the last sync, which makes those moves durable.
+	 * A batch job sharing a grouped policy calls this once it has saved its last file.
+	 */
+	public synchronized void commit() throws IOException {
+		for (Path directory : pendingDirectories) {
+			syncDirectory(directory);
+		}
+		pendingDirectories.clear();
+		pendingFileCount = 0;
+	}
+
+	/**
+	 * @return the number of files moved since the directories were last synced
+	 */
+	public synchronized int getPendingFileCount() {
+		return pendingFileCount;
+	}
+
+	private static void syncDirectory(Path directory) throws IOException {
+		if (!CAN_SYNC_DIRECTORIES) return;
+		try (FileChannel fileChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			fileChannel.force(true);
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package com.mpatric.mp3agic;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link ByteSource} over a file, which can be mapped when the file is on the default file system.
+ */
+public class FileByteSource implements ByteSource {
+
+	private final FileChannel fileChannel;
+
+	public FileByteSource(Path path) throws IOException {
+		this.fileChannel = FileChannel.open(path, StandardOpenOption.READ);
+	}
+
+	@Override
+	public long size() throws IOException {
+		return fileChannel.size();
+	}
+
+	@Override
+	public int read(ByteBuffer bytes, long position) throws IOException {
+		int bytesRead = 0;
+		while (bytes.hasRemaining()) {
+			int read = fileChannel.read(bytes, position + bytesRead);
+			if (read < 0) return bytesRead > 0 ? bytesRead : -1;
+			bytesRead += read;
+		}
+		return bytesRead;
+	}
+
+	@Override
+	public ByteBuffer map(long position, int length) throws IOException {
+		try {
+			return fileChannel.map(FileChannel.MapMode.READ_ONLY, position, length);
+		} catch (UnsupportedOperationException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		fileChannel.close();
+	}
+}
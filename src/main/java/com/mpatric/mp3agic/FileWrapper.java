@@ -42,7 +42,7 @@ public class FileWrapper {
 	}
 
 	public String getFilename() {
-		return path.toString();
+		return path != null ? path.toString() : null;
 	}
 
 	public long getLength() {
@@ -0,0 +1,201 @@
+package com.mpatric.mp3agic;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Scans the mpeg frames that start in one chunk of a file, for {@link Mp3File} to merge with the
+ * chunks either side of it. Unless the offset of its first frame is given, the chunk is entered at
+ * the first offset where several consecutive frames consistent with the reference header are found.
+ * The chain of frames is then followed frame by frame, exactly as the sequential scan does, until a
+ * frame starts at or after the end of the chunk, which is the offset the next chunk must have been
+ * entered at for the two to join up.
+ */
+final class FrameChunkScan extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int FRAME_HEADER_LENGTH = 4;
+	// frames that must follow each other for the chunk to be entered at the first of them
+	private static final int ENTRY_CHAIN_LENGTH = 4;
+	private static final int CHAIN_VALID = 0;
+	private static final int CHAIN_INVALID = 1;
+	private static final int CHAIN_INCOMPLETE = 2;
+
+	private final FileChannel fileChannel;
+	private final long chunkStart;
+	private final long chunkEnd;
+	private final boolean entryKnown;
+	private final int referenceFrameHeader;
+	private final long fileLength;
+	private final long maxEndOffset;
+	private final long scanLimit;
+	private final int bufferLength;
+
+	private long entryOffset = -1;
+	private long exitOffset = -1;
+	private boolean endOfFrames;
+	private int frameCount;
+	private long endOffset = -1;
+	private final int[] bitrateCounts;
+	private IOException exception;
+
+	/**
+	 * @param entryKnown whether a frame of the chain is known to start at chunkStart
+	 * @param maxEndOffset the offset that the last byte of a frame must be before
+	 * @param scanLimit the offset at or after which no frame is counted
+	 */
+	FrameChunkScan(FileChannel fileChannel, long chunkStart, long chunkEnd, boolean entryKnown, int referenceFrameHeader, long fileLength, long maxEndOffset, long scanLimit, int bufferLength, int maximumBitrate) {
+		this.fileChannel = fileChannel;
+		this.chunkStart = chunkStart;
+		this.chunkEnd = chunkEnd;
+		this.entryKnown = entryKnown;
+		this.referenceFrameHeader = referenceFrameHeader;
+		this.fileLength = fileLength;
+		this.maxEndOffset = maxEndOffset;
+		this.scanLimit = scanLimit;
+		this.bufferLength = bufferLength;
+		this.bitrateCounts = new int[maximumBitrate + 1];
+	}
+
+	@Override
+	protected void compute() {
+		try {
+			scan();
+		} catch (IOException e) {
+			exception = e;
+		}
+	}
+
+	void scan() throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(bufferLength);
+		long position = chunkStart;
+		long frameOffset = entryKnown ? chunkStart : -1;
+		while (true) {
+			int bytesRead = read(bytes, position);
+			int offset;
+			if (frameOffset >= 0) {
+				offset = (int) (frameOffset - position);
+			} else {
+				offset = findEntry(bytes, bytesRead, position);
+				if (offset < 0) {
+					int searched = bytesRead - FRAME_HEADER_LENGTH + 1;
+					// no frame of the chain starts in the chunk if there is no entry before its end
+					if (chunkEnd - position <= searched || position + bytesRead >= fileLength) return;
+					position += searched;
+					continue;
+				}
+				if (offset > 0 && checkEntryChain(bytes, bytesRead, offset, position + offset) == CHAIN_INCOMPLETE && position + bytesRead < fileLength) {
+					// read again from the candidate so that the frames after it are in the buffer
+					position += offset;
+					continue;
+				}
+				frameOffset = position + offset;
+			}
+			if (entryOffset < 0) entryOffset = frameOffset;
+			while (true) {
+				if (frameOffset >= chunkEnd) {
+					exitOffset = frameOffset;
+					return;
+				}
+				if (frameOffset >= scanLimit) {
+					exitOffset = frameOffset;
+					endOfFrames = true;
+					return;
+				}
+				if (offset + FRAME_HEADER_LENGTH > bytesRead) break;
+				int frameHeader = bytes.getInt(offset);
+				int frameLength = MpegFrame.lengthInBytes(frameHeader);
+				if (!isValidFrame(frameHeader, frameLength, frameOffset) || frameOffset + frameLength - 1 >= maxEndOffset) {
+					exitOffset = frameOffset;
+					endOfFrames = true;
+					return;
+				}
+				frameCount++;
+				bitrateCounts[MpegFrame.bitrate(frameHeader)]++;
+				endOffset = frameOffset + frameLength - 1;
+				frameOffset += frameLength;
+				offset += frameLength;
+			}
+			position = frameOffset;
+		}
+	}
+
+	private int read(ByteBuffer bytes, long position) throws IOException {
+		bytes.clear();
+		while (bytes.hasRemaining() && fileChannel.read(bytes, position + bytes.position()) > 0) {
+			// keep reading until the buffer is full or the end of the file
+		}
+		bytes.flip();
+		return bytes.limit();
+	}
+
+	/**
+	 * @return the offset in the buffer of the first frame before the end of the chunk whose following
+	 * frames are consistent with it as far as the buffer goes, or -1 if there is none in the buffer
+	 */
+	private int findEntry(ByteBuffer bytes, int bytesRead, long position) {
+		int end = (int) Math.min(bytesRead - FRAME_HEADER_LENGTH + 1, chunkEnd - position);
+		int offset = 0;
+		while (offset < end) {
+			offset = ByteSearch.indexOf(bytes, offset, end, (byte) 0xFF);
+			if (offset < 0) return -1;
+			if (checkEntryChain(bytes, bytesRead, offset, position + offset) != CHAIN_INVALID) return offset;
+			offset++;
+		}
+		return -1;
+	}
+
+	private int checkEntryChain(ByteBuffer bytes, int bytesRead, int offset, long frameOffset) {
+		for (int i = 0; i < ENTRY_CHAIN_LENGTH; i++) {
+			if (frameOffset >= scanLimit) return CHAIN_VALID;
+			if (offset + FRAME_HEADER_LENGTH > bytesRead) return CHAIN_INCOMPLETE;
+			int frameHeader = bytes.getInt(offset);
+			int frameLength = MpegFrame.lengthInBytes(frameHeader);
+			if (!isValidFrame(frameHeader, frameLength, frameOffset)) return CHAIN_INVALID;
+			frameOffset += frameLength;
+			offset += frameLength;
+		}
+		return CHAIN_VALID;
+	}
+
+	private boolean isValidFrame(int frameHeader, int frameLength, long frameOffset) {
+		return frameLength != 0
+				&& MpegFrame.isConsistentHeader(frameHeader, referenceFrameHeader)
+				&& frameOffset + frameLength <= fileLength;
+	}
+
+	long getChunkEnd() {
+		return chunkEnd;
+	}
+
+	long getEntryOffset() {
+		return entryOffset;
+	}
+
+	long getExitOffset() {
+		return exitOffset;
+	}
+
+	boolean isEndOfFrames() {
+		return endOfFrames;
+	}
+
+	int getFrameCount() {
+		return frameCount;
+	}
+
+	long getEndOffset() {
+		return endOffset;
+	}
+
+	int[] getBitrateCounts() {
+		return bitrateCounts;
+	}
+
+	IOException getIOException() {
+		return exception;
+	}
+}
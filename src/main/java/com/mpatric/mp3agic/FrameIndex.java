@@ -0,0 +1,170 @@
+package com.mpatric.mp3agic;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Offsets and sample positions of the mpeg frames of a file. Frame lengths are stored as deltas
+ * in a char array, with the absolute offset of every 64th frame kept as a checkpoint to binary
+ * search on. All frames in a file share the same layer, version and sample rate, so the sample
+ * position of a frame is its frame number times the samples per frame.
+ */
+public class FrameIndex implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int CHECKPOINT_SHIFT = 6;
+	private static final int CHECKPOINT_INTERVAL = 1 << CHECKPOINT_SHIFT;
+	private static final int MAXIMUM_FRAME_LENGTH = 0xFFFF;
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final long startOffset;
+	private final int samplesPerFrame;
+	private final int sampleRate;
+	private char[] frameLengths = new char[INITIAL_CAPACITY];
+	private long[] checkpoints = new long[INITIAL_CAPACITY >> CHECKPOINT_SHIFT];
+	private int frameCount = 0;
+	private long endOffset;
+
+	public FrameIndex(long startOffset, int samplesPerFrame, int sampleRate) {
+		if (samplesPerFrame <= 0 || sampleRate <= 0) throw new IllegalArgumentException("Invalid samples per frame or sample rate");
+		this.startOffset = startOffset;
+		this.samplesPerFrame = samplesPerFrame;
+		this.sampleRate = sampleRate;
+		this.endOffset = startOffset;
+	}
+
+	public void addFrame(int length) {
+		if (length <= 0 || length > MAXIMUM_FRAME_LENGTH) throw new IllegalArgumentException("Invalid frame length " + length);
+		if (frameCount == frameLengths.length) {
+			frameLengths = Arrays.copyOf(frameLengths, frameLengths.length * 2);
+		}
+		if ((frameCount & (CHECKPOINT_INTERVAL - 1)) == 0) {
+			int checkpoint = frameCount >> CHECKPOINT_SHIFT;
+			if (checkpoint == checkpoints.length) {
+				checkpoints = Arrays.copyOf(checkpoints, checkpoints.length * 2);
+			}
+			checkpoints[checkpoint] = endOffset;
+		}
+		frameLengths[frameCount++] = (char) length;
+		endOffset += length;
+	}
+
+	public void trimToSize() {
+		// never trimmed to nothing, so that adding a frame afterwards can still double the arrays
+		frameLengths = Arrays.copyOf(frameLengths, Math.max(frameCount, 1));
+		checkpoints = Arrays.copyOf(checkpoints, Math.max((frameCount + CHECKPOINT_INTERVAL - 1) >> CHECKPOINT_SHIFT, 1));
+	}
+
+	FrameIndex copy() {
+		FrameIndex copy = new FrameIndex(startOffset, samplesPerFrame, sampleRate);
+		copy.frameLengths = Arrays.copyOf(frameLengths, Math.max(frameCount, 1));
+		copy.checkpoints = Arrays.copyOf(checkpoints, Math.max(checkpoints.length, 1));
+		copy.frameCount = frameCount;
+		copy.endOffset = endOffset;
+		return copy;
+	}
+
+	/**
+	 * @return a copy of the index with every offset moved by delta, for frames moved in the file
+	 */
+	FrameIndex moved(long delta) {
+		FrameIndex moved = new FrameIndex(startOffset + delta, samplesPerFrame, sampleRate);
+		moved.frameLengths = Arrays.copyOf(frameLengths, frameLengths.length);
+		moved.checkpoints = Arrays.copyOf(checkpoints, checkpoints.length);
+		for (int i = 0; i < moved.checkpoints.length; i++) {
+			moved.checkpoints[i] += delta;
+		}
+		moved.frameCount = frameCount;
+		moved.endOffset = endOffset + delta;
+		return moved;
+	}
+
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	public long getStartOffset() {
+		return startOffset;
+	}
+
+	public long getEndOffset() {
+		return endOffset;
+	}
+
+	public int getSamplesPerFrame() {
+		return samplesPerFrame;
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public long getFrameOffset(int frame) {
+		checkFrame(frame);
+		int checkpoint = frame >> CHECKPOINT_SHIFT;
+		long offset = checkpoints[checkpoint];
+		for (int i = checkpoint << CHECKPOINT_SHIFT; i < frame; i++) {
+			offset += frameLengths[i];
+		}
+		return offset;
+	}
+
+	public int getFrameLength(int frame) {
+		checkFrame(frame);
+		return frameLengths[frame];
+	}
+
+	public long getFrameSamplePosition(int frame) {
+		checkFrame(frame);
+		return (long) frame * samplesPerFrame;
+	}
+
+	public long getFrameTimeMillis(int frame) {
+		return getFrameSamplePosition(frame) * 1000 / sampleRate;
+	}
+
+	public long getLengthInMilliseconds() {
+		return (long) frameCount * samplesPerFrame * 1000 / sampleRate;
+	}
+
+	public int getFrameForOffset(long offset) {
+		if (offset < startOffset || offset >= endOffset) return -1;
+		int low = 0;
+		int high = ((frameCount - 1) >> CHECKPOINT_SHIFT);
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (checkpoints[middle] <= offset) low = middle;
+			else high = middle - 1;
+		}
+		int frame = low << CHECKPOINT_SHIFT;
+		long frameEnd = checkpoints[low] + frameLengths[frame];
+		while (frameEnd <= offset) {
+			frameEnd += frameLengths[++frame];
+		}
+		return frame;
+	}
+
+	public int getFrameForTimeMillis(long timeMillis) {
+		if (timeMillis < 0) return -1;
+		long frame = timeMillis * sampleRate / (1000L * samplesPerFrame);
+		if (frame >= frameCount) return -1;
+		return (int) frame;
+	}
+
+	public long offsetForTimeMillis(long timeMillis) {
+		int frame = getFrameForTimeMillis(timeMillis);
+		if (frame < 0) return -1;
+		return getFrameOffset(frame);
+	}
+
+	public long timeForOffset(long offset) {
+		int frame = getFrameForOffset(offset);
+		if (frame < 0) return -1;
+		return getFrameTimeMillis(frame);
+	}
+
+	private void checkFrame(int frame) {
+		if (frame < 0 || frame >= frameCount) throw new IndexOutOfBoundsException("Frame " + frame + " not in index of " + frameCount + " frames");
+	}
+}
@@ -17,6 +17,10 @@ public class ID3v22Tag extends AbstractID3v2Tag {
 		super(buffer, obseleteFormat);
 	}
 
+	ID3v22Tag(byte[] buffer, boolean obseleteFormat, boolean copy) throws NoSuchTagException, UnsupportedTagException, InvalidDataException {
+		super(buffer, obseleteFormat, copy);
+	}
+
 	@Override
 	protected void unpackFlags(byte[] bytes) {
 		unsynchronisation = BufferTools.checkBit(bytes[FLAGS_OFFSET], UNSYNCHRONISATION_BIT);
@@ -13,6 +13,10 @@ public class ID3v23Tag extends AbstractID3v2Tag {
 		super(buffer);
 	}
 
+	ID3v23Tag(byte[] buffer, boolean copy) throws NoSuchTagException, UnsupportedTagException, InvalidDataException {
+		super(buffer, false, copy);
+	}
+
 	@Override
 	protected void unpackFlags(byte[] buffer) {
 		unsynchronisation = BufferTools.checkBit(buffer[FLAGS_OFFSET], UNSYNCHRONISATION_BIT);
@@ -1,11 +1,17 @@
 package com.mpatric.mp3agic;
 
+import java.nio.ByteBuffer;
+
 public class ID3v24Frame extends ID3v2Frame {
 
 	public ID3v24Frame(byte[] buffer, int offset) throws InvalidDataException {
 		super(buffer, offset);
 	}
 
+	ID3v24Frame(byte[] buffer, int offset, boolean copy) throws InvalidDataException {
+		super(buffer, offset, copy);
+	}
+
 	public ID3v24Frame(String id, byte[] data) {
 		super(id, data);
 	}
@@ -16,8 +22,11 @@ public class ID3v24Frame extends ID3v2Frame {
 	}
 
 	@Override
-	protected byte[] packDataLength() {
-		return BufferTools.packSynchsafeInteger(dataLength);
+	protected void packDataLength(ByteBuffer bytes) {
+		bytes.put((byte) ((dataLength >> 21) & 0x7f));
+		bytes.put((byte) ((dataLength >> 14) & 0x7f));
+		bytes.put((byte) ((dataLength >> 7) & 0x7f));
+		bytes.put((byte) (dataLength & 0x7f));
 	}
 
 	@Override
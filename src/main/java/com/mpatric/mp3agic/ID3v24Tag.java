@@ -15,6 +15,10 @@ public class ID3v24Tag extends AbstractID3v2Tag {
 		super(buffer);
 	}
 
+	ID3v24Tag(byte[] buffer, boolean copy) throws NoSuchTagException, UnsupportedTagException, InvalidDataException {
+		super(buffer, false, copy);
+	}
+
 	@Override
 	protected void unpackFlags(byte[] buffer) {
 		unsynchronisation = BufferTools.checkBit(buffer[FLAGS_OFFSET], UNSYNCHRONISATION_BIT);
@@ -38,7 +42,7 @@ public class ID3v24Tag extends AbstractID3v2Tag {
 
 	@Override
 	protected ID3v2Frame createFrame(byte[] buffer, int currentOffset) throws InvalidDataException {
-		return new ID3v24Frame(buffer, currentOffset);
+		return new ID3v24Frame(buffer, currentOffset, false);
 	}
 
 	@Override
@@ -49,12 +53,8 @@ public class ID3v24Tag extends AbstractID3v2Tag {
 	@Override
 	public void setGenreDescription(String text) {
 		ID3v2TextFrameData frameData = new ID3v2TextFrameData(useFrameUnsynchronisation(), new EncodedText(text));
-		ID3v2FrameSet frameSet = getFrameSets().get(ID_GENRE);
-		if (frameSet == null) {
-			getFrameSets().put(ID_GENRE, frameSet = new ID3v2FrameSet(ID_GENRE));
-		}
-		frameSet.clear();
-		frameSet.addFrame(createFrame(ID_GENRE, frameData.toBytes()));
+		invalidateDataLength();
+		addFrame(createFrame(ID_GENRE, frameData.toBytes()), true);
 	}
 
 
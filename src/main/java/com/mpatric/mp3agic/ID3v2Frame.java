@@ -1,11 +1,14 @@
 package com.mpatric.mp3agic;
 
-import java.io.UnsupportedEncodingException;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 public class ID3v2Frame {
 
+	public static final int FRAME_VALID = 0;
+	public static final int FRAME_TRUNCATED = 1;
+	public static final int FRAME_INVALID_ID = 2;
+
 	private static final int HEADER_LENGTH = 10;
 	private static final int ID_OFFSET = 0;
 	private static final int ID_LENGTH = 4;
@@ -24,6 +27,7 @@ public class ID3v2Frame {
 	protected String id;
 	protected int dataLength = 0;
 	protected byte[] data = null;
+	private ByteBuffer packed = null;
 	private boolean preserveTag = false;
 	private boolean preserveFile = false;
 	private boolean readOnly = false;
@@ -33,8 +37,20 @@ public class ID3v2Frame {
 	private boolean unsynchronisation = false;
 	private boolean dataLengthIndicator = false;
 
+	/**
+	 * Reads the frame at the offset of the buffer, copying its bytes so that the buffer may be changed
+	 * or reused afterwards.
+	 */
 	public ID3v2Frame(byte[] buffer, int offset) throws InvalidDataException {
-		unpackFrame(buffer, offset);
+		this(buffer, offset, true);
+	}
+
+	/**
+	 * @param copy false to keep the frame in the buffer rather than copy it, for a tag reading its
+	 * frames from bytes it owns, which must then not be changed while the frame is in use
+	 */
+	ID3v2Frame(byte[] buffer, int offset, boolean copy) throws InvalidDataException {
+		unpackFrame(buffer, offset, copy);
 	}
 
 	public ID3v2Frame(String id, byte[] data) {
@@ -43,10 +59,42 @@ public class ID3v2Frame {
 		dataLength = data.length;
 	}
 
+	/**
+	 * Validates the header of the frame at the given offset without constructing it or throwing.
+	 *
+	 * @return {@link #FRAME_VALID}, {@link #FRAME_TRUNCATED} if the header does not fit in the
+	 * buffer, or {@link #FRAME_INVALID_ID} if the frame id is not made up of A-Z and 0-9
+	 */
+	public static int checkFrameHeader(byte[] buffer, int offset) {
+		return checkFrameHeader(buffer, offset, ID_LENGTH, HEADER_LENGTH);
+	}
+
+	protected static int checkFrameHeader(byte[] buffer, int offset, int idLength, int headerLength) {
+		if (offset < 0 || offset + headerLength > buffer.length) return FRAME_TRUNCATED;
+		for (int i = 0; i < idLength; i++) {
+			if (!isValidIdCharacter(buffer[offset + ID_OFFSET + i])) return FRAME_INVALID_ID;
+		}
+		return FRAME_VALID;
+	}
+
+	private static boolean isValidIdCharacter(int c) {
+		return (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+	}
+
 	protected final void unpackFrame(byte[] buffer, int offset) throws InvalidDataException {
+		unpackFrame(buffer, offset, true);
+	}
+
+	private void unpackFrame(byte[] buffer, int offset, boolean copy) throws InvalidDataException {
 		int dataOffset = unpackHeader(buffer, offset);
 		sanityCheckUnpackedHeader();
-		data = BufferTools.copyBuffer(buffer, dataOffset, dataLength);
+		if (dataLength < 0 || (long) dataOffset + dataLength > buffer.length) {
+			throw new ArrayIndexOutOfBoundsException("Frame data out of bounds of buffer");
+		}
+		// the frame stays clean, packed as the bytes it was read from, until its data is handed out
+		int length = dataOffset - offset + dataLength;
+		if (copy) packed = ByteBuffer.wrap(BufferTools.copyBuffer(buffer, offset, length));
+		else packed = ByteBuffer.wrap(buffer, offset, length).slice();
 	}
 
 	protected int unpackHeader(byte[] buffer, int offset) {
@@ -73,7 +121,7 @@ public class ID3v2Frame {
 
 	protected void sanityCheckUnpackedHeader() throws InvalidDataException {
 		for (int i = 0; i < id.length(); i++) {
-			if (!((id.charAt(i) >= 'A' && id.charAt(i) <= 'Z') || (id.charAt(i) >= '0' && id.charAt(i) <= '9'))) {
+			if (!isValidIdCharacter(id.charAt(i))) {
 				throw new InvalidDataException("Not a valid frame - invalid tag " + id);
 			}
 		}
@@ -90,34 +138,67 @@ public class ID3v2Frame {
 	}
 
 	public void packFrame(byte[] bytes, int offset) throws NotSupportedException {
-		packHeader(bytes, offset);
-		BufferTools.copyIntoByteBuffer(data, 0, data.length, bytes, offset + HEADER_LENGTH);
+		packFrame(ByteBuffer.wrap(bytes, offset, getLength()));
 	}
 
-	private void packHeader(byte[] bytes, int i) {
-		try {
-			BufferTools.stringIntoByteBuffer(id, 0, id.length(), bytes, 0);
-		} catch (UnsupportedEncodingException e) {
+	/**
+	 * Packs the frame at the position of the buffer, moving the position past it, with the data put
+	 * straight into the buffer rather than through a copy of the frame.
+	 */
+	public void packFrame(ByteBuffer bytes) throws NotSupportedException {
+		ByteBuffer packedBytes = packedBytes();
+		if (packedBytes != null) {
+			bytes.put(packedBytes);
+			return;
 		}
-		BufferTools.copyIntoByteBuffer(packDataLength(), 0, 4, bytes, 4);
-		BufferTools.copyIntoByteBuffer(packFlags(), 0, 2, bytes, 8);
+		packHeader(bytes);
+		if (data != null) bytes.put(data);
 	}
 
-	protected byte[] packDataLength() {
-		return BufferTools.packInteger(dataLength);
+	/**
+	 * @return the header and data of the frame as they were read, wrapped rather than copied, or null
+	 * once the data has been handed out or set, after which the frame is packed from its fields
+	 */
+	ByteBuffer packedBytes() throws NotSupportedException {
+		if (data != null || packed == null) return null;
+		return packed.duplicate();
 	}
 
-	private byte[] packFlags() {
-		byte[] bytes = new byte[2];
-		bytes[0] = BufferTools.setBit(bytes[0], PRESERVE_TAG_BIT, preserveTag);
-		bytes[0] = BufferTools.setBit(bytes[0], PRESERVE_FILE_BIT, preserveFile);
-		bytes[0] = BufferTools.setBit(bytes[0], READ_ONLY_BIT, readOnly);
-		bytes[1] = BufferTools.setBit(bytes[1], GROUP_BIT, group);
-		bytes[1] = BufferTools.setBit(bytes[1], COMPRESSION_BIT, compression);
-		bytes[1] = BufferTools.setBit(bytes[1], ENCRYPTION_BIT, encryption);
-		bytes[1] = BufferTools.setBit(bytes[1], UNSYNCHRONISATION_BIT, unsynchronisation);
-		bytes[1] = BufferTools.setBit(bytes[1], DATA_LENGTH_INDICATOR_BIT, dataLengthIndicator);
-		return bytes;
+	/**
+	 * Packs the header of the frame, the bytes before its data, at the position of the buffer.
+	 */
+	public void packHeader(ByteBuffer bytes) throws NotSupportedException {
+		for (int i = 0; i < id.length(); i++) {
+			bytes.put((byte) id.charAt(i));
+		}
+		packDataLength(bytes);
+		bytes.put(packFlags1());
+		bytes.put(packFlags2());
+	}
+
+	protected void packDataLength(ByteBuffer bytes) {
+		bytes.put((byte) (dataLength >> 24));
+		bytes.put((byte) (dataLength >> 16));
+		bytes.put((byte) (dataLength >> 8));
+		bytes.put((byte) dataLength);
+	}
+
+	private byte packFlags1() {
+		byte flags = 0;
+		flags = BufferTools.setBit(flags, PRESERVE_TAG_BIT, preserveTag);
+		flags = BufferTools.setBit(flags, PRESERVE_FILE_BIT, preserveFile);
+		flags = BufferTools.setBit(flags, READ_ONLY_BIT, readOnly);
+		return flags;
+	}
+
+	private byte packFlags2() {
+		byte flags = 0;
+		flags = BufferTools.setBit(flags, GROUP_BIT, group);
+		flags = BufferTools.setBit(flags, COMPRESSION_BIT, compression);
+		flags = BufferTools.setBit(flags, ENCRYPTION_BIT, encryption);
+		flags = BufferTools.setBit(flags, UNSYNCHRONISATION_BIT, unsynchronisation);
+		flags = BufferTools.setBit(flags, DATA_LENGTH_INDICATOR_BIT, dataLengthIndicator);
+		return flags;
 	}
 
 	public String getId() {
@@ -133,10 +214,41 @@ public class ID3v2Frame {
 	}
 
 	public byte[] getData() {
+		if (data == null && packed != null) {
+			// the caller may change the array it is given, so from here on the frame is packed from it
+			ByteBuffer packedData = dataBytes();
+			data = new byte[packedData.remaining()];
+			packedData.get(data);
+			packed = null;
+		}
 		return data;
 	}
 
+	/**
+	 * @return the data for the tag to parse, copied out of the bytes the frame was read from while
+	 * the frame is still packed as it was read, so reading it does not make the frame dirty
+	 */
+	byte[] peekData() {
+		if (data != null || packed == null) return data;
+		ByteBuffer packedData = dataBytes();
+		byte[] bytes = new byte[packedData.remaining()];
+		packedData.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * @return the data, wrapped, without copying it out of the bytes the frame was read from
+	 */
+	private ByteBuffer dataBytes() {
+		if (data != null) return ByteBuffer.wrap(data);
+		if (packed == null) return null;
+		ByteBuffer packedData = packed.duplicate();
+		packedData.position(packedData.limit() - dataLength);
+		return packedData;
+	}
+
 	public void setData(byte[] data) {
+		packed = null;
 		this.data = data;
 		if (data == null) dataLength = 0;
 		else dataLength = data.length;
@@ -177,7 +289,7 @@ public class ID3v2Frame {
 	@Override
 	public int hashCode() {
 		return 31 * Objects.hash(compression, dataLength, dataLengthIndicator, encryption, group,
-				id, preserveFile, preserveTag, readOnly, unsynchronisation) + Arrays.hashCode(data);
+				id, preserveFile, preserveTag, readOnly, unsynchronisation) + Objects.hashCode(dataBytes());
 	}
 
 	@Override
@@ -190,7 +302,7 @@ public class ID3v2Frame {
 			return false;
 		final ID3v2Frame other = (ID3v2Frame) obj;
 		return
-				Arrays.equals(data, other.data) &&
+				Objects.equals(dataBytes(), other.dataBytes()) &&
 				Objects.equals(compression, other.compression) &&
 				Objects.equals(dataLength, other.dataLength) &&
 				Objects.equals(dataLengthIndicator, other.dataLengthIndicator) &&
@@ -1,5 +1,7 @@
 package com.mpatric.mp3agic;
 
+import java.nio.ByteBuffer;
+
 public class ID3v2ObseleteFrame extends ID3v2Frame {
 
 	private static final int HEADER_LENGTH = 6;
@@ -11,6 +13,14 @@ public class ID3v2ObseleteFrame extends ID3v2Frame {
 		super(buffer, offset);
 	}
 
+	ID3v2ObseleteFrame(byte[] buffer, int offset, boolean copy) throws InvalidDataException {
+		super(buffer, offset, copy);
+	}
+
+	public static int checkFrameHeader(byte[] buffer, int offset) {
+		return checkFrameHeader(buffer, offset, ID_LENGTH, HEADER_LENGTH);
+	}
+
 	public ID3v2ObseleteFrame(String id, byte[] data) {
 		super(id, data);
 	}
@@ -28,7 +38,12 @@ public class ID3v2ObseleteFrame extends ID3v2Frame {
 	}
 
 	@Override
-	public void packFrame(byte[] bytes, int offset) throws NotSupportedException {
+	public void packHeader(ByteBuffer bytes) throws NotSupportedException {
+		throw (new NotSupportedException("Packing Obselete frames is not supported"));
+	}
+
+	@Override
+	ByteBuffer packedBytes() throws NotSupportedException {
 		throw (new NotSupportedException("Packing Obselete frames is not supported"));
 	}
 
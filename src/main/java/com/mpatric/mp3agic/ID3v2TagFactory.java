@@ -1,41 +1,73 @@
 package com.mpatric.mp3agic;
 
 public final class ID3v2TagFactory {
+
+	public static final int TAG_VALID = 0;
+	public static final int TAG_BUFFER_TOO_SHORT = 1;
+	public static final int TAG_NOT_FOUND = 2;
+	public static final int TAG_UNSUPPORTED_VERSION = 3;
+
 	private ID3v2TagFactory() {}
 
+	/**
+	 * Reads the tag from a copy of the bytes, so the bytes may be changed or reused afterwards.
+	 */
 	public static AbstractID3v2Tag createTag(byte[] bytes) throws NoSuchTagException, UnsupportedTagException, InvalidDataException {
+		return createTag(bytes, true);
+	}
+
+	/**
+	 * @param copy false to read the tag from the bytes themselves, for a caller handing over bytes it
+	 * owns and will not change
+	 */
+	static AbstractID3v2Tag createTag(byte[] bytes, boolean copy) throws NoSuchTagException, UnsupportedTagException, InvalidDataException {
 		sanityCheckTag(bytes);
 		int majorVersion = bytes[AbstractID3v2Tag.MAJOR_VERSION_OFFSET];
 		switch (majorVersion) {
 			case 2:
-				return createID3v22Tag(bytes);
+				return createID3v22Tag(bytes, copy);
 			case 3:
-				return new ID3v23Tag(bytes);
+				return new ID3v23Tag(bytes, copy);
 			case 4:
-				return new ID3v24Tag(bytes);
+				return new ID3v24Tag(bytes, copy);
 		}
 		throw new UnsupportedTagException("Tag version not supported");
 	}
 
-	private static AbstractID3v2Tag createID3v22Tag(byte[] bytes) throws NoSuchTagException, UnsupportedTagException, InvalidDataException {
-		ID3v22Tag tag = new ID3v22Tag(bytes);
-		if (tag.getFrameSets().isEmpty()) {
-			tag = new ID3v22Tag(bytes, true);
+	private static AbstractID3v2Tag createID3v22Tag(byte[] bytes, boolean copy) throws NoSuchTagException, UnsupportedTagException, InvalidDataException {
+		ID3v22Tag tag = new ID3v22Tag(bytes, false, copy);
+		if (!tag.hasFrames()) {
+			tag = new ID3v22Tag(bytes, true, copy);
 		}
 		return tag;
 	}
 
 	public static void sanityCheckTag(byte[] bytes) throws NoSuchTagException, UnsupportedTagException {
-		if (bytes.length < AbstractID3v2Tag.HEADER_LENGTH) {
-			throw new NoSuchTagException("Buffer too short");
+		switch (checkTag(bytes)) {
+			case TAG_BUFFER_TOO_SHORT:
+				throw new NoSuchTagException("Buffer too short");
+			case TAG_NOT_FOUND:
+				throw new NoSuchTagException();
+			case TAG_UNSUPPORTED_VERSION:
+				int majorVersion = bytes[AbstractID3v2Tag.MAJOR_VERSION_OFFSET];
+				int minorVersion = bytes[AbstractID3v2Tag.MINOR_VERSION_OFFSET];
+				throw new UnsupportedTagException("Unsupported version 2." + majorVersion + "." + minorVersion);
 		}
-		if (!AbstractID3v2Tag.TAG.equals(BufferTools.byteBufferToStringIgnoringEncodingIssues(bytes, 0, AbstractID3v2Tag.TAG.length()))) {
-			throw new NoSuchTagException();
+	}
+
+	/**
+	 * Checks for an ID3v2 tag header at the start of the buffer without throwing.
+	 *
+	 * @return {@link #TAG_VALID}, {@link #TAG_BUFFER_TOO_SHORT}, {@link #TAG_NOT_FOUND} or
+	 * {@link #TAG_UNSUPPORTED_VERSION}
+	 */
+	public static int checkTag(byte[] bytes) {
+		if (bytes.length < AbstractID3v2Tag.HEADER_LENGTH) return TAG_BUFFER_TOO_SHORT;
+		for (int i = 0; i < AbstractID3v2Tag.TAG.length(); i++) {
+			if (bytes[i] != AbstractID3v2Tag.TAG.charAt(i)) return TAG_NOT_FOUND;
 		}
 		int majorVersion = bytes[AbstractID3v2Tag.MAJOR_VERSION_OFFSET];
-		if (majorVersion != 2 && majorVersion != 3 && majorVersion != 4) {
-			int minorVersion = bytes[AbstractID3v2Tag.MINOR_VERSION_OFFSET];
-			throw new UnsupportedTagException("Unsupported version 2." + majorVersion + "." + minorVersion);
-		}
+		if (majorVersion != 2 && majorVersion != 3 && majorVersion != 4) return TAG_UNSUPPORTED_VERSION;
+		return TAG_VALID;
 	}
 }
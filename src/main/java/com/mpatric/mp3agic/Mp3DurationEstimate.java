@@ -0,0 +1,281 @@
+package com.mpatric.mp3agic;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An estimate of the duration and bitrate of an mp3 made by reading a number of evenly spaced
+ * windows of the file rather than scanning every frame. Each window is resynchronised on a pair of
+ * consecutive frames and the frames wholly inside it are measured. The duration follows from the
+ * mean frame length across the windows, with a 95% confidence interval from how much the windows
+ * differ from each other. A Xing/Info or VBRI header that agrees with the file size gives the
+ * duration directly, with no interval, as does a file short enough to be scanned in one window.
+ */
+public class Mp3DurationEstimate extends FileWrapper {
+
+	public static final int DEFAULT_WINDOW_LENGTH = 32 * 1024;
+
+	private static final int MINIMUM_WINDOW_LENGTH = 4096;
+	private static final int FRAME_HEADER_LENGTH = 4;
+	private static final double Z_95 = 1.96;
+	private static final byte[] ID3V1_TAG = {'T', 'A', 'G'};
+
+	private int windowCount;
+	private int windowLength;
+	private int referenceFrameHeader;
+	private int samplesPerFrame;
+	private int sampleRate;
+	private long audioStart = -1;
+	private long vbrHeaderOffset;
+	private VbrHeader vbrHeader;
+	private int sampledWindowCount;
+	private long sampledFrameCount;
+	private long frameCount;
+	private long lengthInMilliseconds;
+	private long lowerLengthInMilliseconds;
+	private long upperLengthInMilliseconds;
+	private double bitrate;
+	private boolean fromVbrHeader;
+
+	public Mp3DurationEstimate(String filename, int windowCount) throws IOException, InvalidDataException {
+		this(filename, windowCount, DEFAULT_WINDOW_LENGTH);
+	}
+
+	public Mp3DurationEstimate(String filename, int windowCount, int windowLength) throws IOException, InvalidDataException {
+		super(filename);
+		init(windowCount, windowLength);
+	}
+
+	public Mp3DurationEstimate(File file, int windowCount) throws IOException, InvalidDataException {
+		this(file, windowCount, DEFAULT_WINDOW_LENGTH);
+	}
+
+	public Mp3DurationEstimate(File file, int windowCount, int windowLength) throws IOException, InvalidDataException {
+		super(file);
+		init(windowCount, windowLength);
+	}
+
+	public Mp3DurationEstimate(Path path, int windowCount) throws IOException, InvalidDataException {
+		this(path, windowCount, DEFAULT_WINDOW_LENGTH);
+	}
+
+	public Mp3DurationEstimate(Path path, int windowCount, int windowLength) throws IOException, InvalidDataException {
+		super(path);
+		init(windowCount, windowLength);
+	}
+
+	private void init(int windowCount, int windowLength) throws IOException, InvalidDataException {
+		if (windowCount < 1) throw new IllegalArgumentException("At least one window is needed");
+		if (windowLength < MINIMUM_WINDOW_LENGTH) throw new IllegalArgumentException("Window too small");
+		this.windowCount = windowCount;
+		this.windowLength = windowLength;
+		try (SeekableByteChannel seekableByteChannel = Files.newByteChannel(path, StandardOpenOption.READ)) {
+			estimate(seekableByteChannel);
+		}
+	}
+
+	private void estimate(SeekableByteChannel seekableByteChannel) throws IOException, InvalidDataException {
+		ByteBuffer window = ByteBuffer.allocate((int) Math.min(windowLength, getLength()));
+		readWindow(seekableByteChannel, window, 0);
+		long regionStart = window.limit() < AbstractID3v2Tag.HEADER_LENGTH ? 0 : Mp3File.id3v2TagLength(window.array());
+		long regionEnd = getLength();
+		if (regionEnd - regionStart > ID3v1Tag.TAG_LENGTH) {
+			ByteBuffer tail = ByteBuffer.allocate(ID3V1_TAG.length);
+			readWindow(seekableByteChannel, tail, getLength() - ID3v1Tag.TAG_LENGTH);
+			if (tail.limit() == ID3V1_TAG.length && tail.get(0) == ID3V1_TAG[0] && tail.get(1) == ID3V1_TAG[1] && tail.get(2) == ID3V1_TAG[2]) {
+				regionEnd -= ID3v1Tag.TAG_LENGTH;
+			}
+		}
+		long regionLength = regionEnd - regionStart;
+		// every window of a region that fits in one would read the same bytes, so it is scanned once
+		boolean wholeRegion = regionLength <= windowLength;
+		int windows = wholeRegion ? 1 : windowCount;
+		double[] meanFrameLengths = new double[windows];
+		long sampledByteCount = 0;
+		for (int i = 0; i < windows; i++) {
+			long position = regionStart;
+			if (windows > 1) {
+				position += (regionLength - windowLength) * i / (windows - 1);
+			}
+			readWindow(seekableByteChannel, window, position);
+			int windowEnd = (int) Math.min(window.limit(), regionEnd - position);
+			long[] sample = sampleWindow(window, windowEnd, position);
+			if (sample[0] > 0) {
+				meanFrameLengths[sampledWindowCount++] = (double) sample[1] / sample[0];
+				sampledFrameCount += sample[0];
+				sampledByteCount += sample[1];
+			}
+			if (i == 0 && applyVbrHeader(regionEnd)) return;
+		}
+		if (sampledFrameCount == 0) throw new InvalidDataException("No mpegs frames found");
+		if (wholeRegion) {
+			frameCount = sampledFrameCount;
+			lengthInMilliseconds = millisecondsFor(frameCount);
+			lowerLengthInMilliseconds = lengthInMilliseconds;
+			upperLengthInMilliseconds = lengthInMilliseconds;
+			bitrate = sampledByteCount * 8.0 / (frameCount * (double) samplesPerFrame * 1000.0 / sampleRate);
+			return;
+		}
+		long audioLength = regionEnd - audioStart;
+		double meanFrameLength = (double) sampledByteCount / sampledFrameCount;
+		double margin = 0;
+		if (sampledWindowCount > 1) {
+			double sumOfSquares = 0;
+			for (int i = 0; i < sampledWindowCount; i++) {
+				sumOfSquares += (meanFrameLengths[i] - meanFrameLength) * (meanFrameLengths[i] - meanFrameLength);
+			}
+			margin = Z_95 * Math.sqrt(sumOfSquares / (sampledWindowCount - 1) / sampledWindowCount);
+		}
+		frameCount = Math.round(audioLength / meanFrameLength);
+		lengthInMilliseconds = millisecondsFor(audioLength / meanFrameLength);
+		lowerLengthInMilliseconds = millisecondsFor(audioLength / (meanFrameLength + margin));
+		upperLengthInMilliseconds = meanFrameLength - margin < 1 ? Long.MAX_VALUE : millisecondsFor(audioLength / (meanFrameLength - margin));
+		bitrate = audioLength * 8.0 / (frameCount * (double) samplesPerFrame * 1000.0 / sampleRate);
+	}
+
+	private long millisecondsFor(double frames) {
+		return Math.round(frames * samplesPerFrame * 1000.0 / sampleRate);
+	}
+
+	private void readWindow(SeekableByteChannel seekableByteChannel, ByteBuffer window, long position) throws IOException {
+		seekableByteChannel.position(position);
+		window.clear();
+		while (window.hasRemaining() && seekableByteChannel.read(window) > 0) {
+			// keep reading until the window is full or the end of the file
+		}
+		window.flip();
+	}
+
+	/**
+	 * @return the number of frames wholly inside the window and their total length in bytes
+	 */
+	private long[] sampleWindow(ByteBuffer window, int windowEnd, long position) throws InvalidDataException {
+		long[] sample = new long[2];
+		int offset = findFrame(window, windowEnd, 0);
+		if (offset < 0) return sample;
+		if (audioStart < 0) {
+			int frameHeader = window.getInt(offset);
+			referenceFrameHeader = frameHeader;
+			MpegFrame frame = new MpegFrame(frameHeader);
+			samplesPerFrame = frame.getSamplesPerFrame();
+			sampleRate = frame.getSampleRate();
+			audioStart = position + offset;
+			if (VbrHeader.isVbrHeaderFrame(window, offset, windowEnd)) {
+				vbrHeaderOffset = audioStart;
+				vbrHeader = VbrHeader.parse(window, offset, windowEnd);
+				offset += MpegFrame.lengthInBytes(frameHeader);
+				audioStart = position + offset;
+			}
+		}
+		while (offset + FRAME_HEADER_LENGTH <= windowEnd) {
+			int frameHeader = window.getInt(offset);
+			int frameLength = MpegFrame.lengthInBytes(frameHeader);
+			if (frameLength == 0 || !MpegFrame.isConsistentHeader(frameHeader, referenceFrameHeader) || offset + frameLength > windowEnd) break;
+			sample[0]++;
+			sample[1] += frameLength;
+			offset += frameLength;
+		}
+		return sample;
+	}
+
+	/**
+	 * @return the offset of the first frame at or after offset that is followed by another frame
+	 * consistent with it, or -1 if there is none in the window
+	 */
+	private int findFrame(ByteBuffer window, int windowEnd, int offset) {
+		while (offset + FRAME_HEADER_LENGTH <= windowEnd) {
+			offset = ByteSearch.indexOf(window, offset, windowEnd - 1, (byte) 0xFF);
+			if (offset < 0 || offset + FRAME_HEADER_LENGTH > windowEnd) return -1;
+			int frameHeader = window.getInt(offset);
+			int frameLength = MpegFrame.lengthInBytes(frameHeader);
+			if (frameLength != 0 && (audioStart < 0 || MpegFrame.isConsistentHeader(frameHeader, referenceFrameHeader))) {
+				int next = offset + frameLength;
+				if (next + FRAME_HEADER_LENGTH <= windowEnd) {
+					int nextFrameHeader = window.getInt(next);
+					if (MpegFrame.lengthInBytes(nextFrameHeader) != 0 && MpegFrame.isConsistentHeader(nextFrameHeader, frameHeader)) return offset;
+				}
+			}
+			offset++;
+		}
+		return -1;
+	}
+
+	private boolean applyVbrHeader(long regionEnd) {
+		if (vbrHeader == null || !vbrHeader.hasFrameCount() || !vbrHeader.hasByteCount()) return false;
+		long audioLength = regionEnd - vbrHeaderOffset;
+		long byteCount = vbrHeader.getByteCount();
+		// same tolerance as Mp3File uses to decide whether the header and the file size agree
+		if (Math.abs(audioLength - byteCount) > byteCount / 100) return false;
+		frameCount = vbrHeader.getFrameCount();
+		lengthInMilliseconds = millisecondsFor(frameCount);
+		lowerLengthInMilliseconds = lengthInMilliseconds;
+		upperLengthInMilliseconds = lengthInMilliseconds;
+		bitrate = Math.min(byteCount, audioLength) * 8.0 / (frameCount * (double) samplesPerFrame * 1000.0 / sampleRate);
+		fromVbrHeader = true;
+		return true;
+	}
+
+	public int getWindowCount() {
+		return windowCount;
+	}
+
+	public int getWindowLength() {
+		return windowLength;
+	}
+
+	/**
+	 * @return the number of windows in which frames were found and measured
+	 */
+	public int getSampledWindowCount() {
+		return sampledWindowCount;
+	}
+
+	public long getSampledFrameCount() {
+		return sampledFrameCount;
+	}
+
+	public long getFrameCount() {
+		return frameCount;
+	}
+
+	public long getLengthInMilliseconds() {
+		return lengthInMilliseconds;
+	}
+
+	public long getLengthInSeconds() {
+		return ((getLengthInMilliseconds() + 500) / 1000);
+	}
+
+	/**
+	 * @return the lower bound of the 95% confidence interval for the length, which is the same as
+	 * the length if it came from a VBR header or fewer than two windows could be measured
+	 */
+	public long getLowerLengthInMilliseconds() {
+		return lowerLengthInMilliseconds;
+	}
+
+	/**
+	 * @return the upper bound of the 95% confidence interval for the length, which is the same as
+	 * the length if it came from a VBR header or fewer than two windows could be measured
+	 */
+	public long getUpperLengthInMilliseconds() {
+		return upperLengthInMilliseconds;
+	}
+
+	public int getBitrate() {
+		return (int) (bitrate + 0.5);
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public boolean isFromVbrHeader() {
+		return fromVbrHeader;
+	}
+}
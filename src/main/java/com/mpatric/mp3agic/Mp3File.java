@@ -2,34 +2,73 @@ package com.mpatric.mp3agic;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.*;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.EnumSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 
 public class Mp3File extends FileWrapper {
 
-	private static final int DEFAULT_BUFFER_LENGTH = 65536;
+	private static final int DEFAULT_BUFFER_LENGTH = Mp3FileOptions.DEFAULT_BUFFER_LENGTH;
 	private static final int MINIMUM_BUFFER_LENGTH = 40;
-	private static final int XING_MARKER_OFFSET_1 = 13;
-	private static final int XING_MARKER_OFFSET_2 = 21;
-	private static final int XING_MARKER_OFFSET_3 = 36;
+	private static final int END_OF_FRAMES = -1;
+	private static final int FRAME_HEADER_LENGTH = 4;
+	// a start frame is only accepted if the frame after it is valid and consistent with it
+	private static final int FRAME_CHAIN_LENGTH = 2;
+	private static final int CHAIN_VALID = 0;
+	private static final int CHAIN_INVALID = 1;
+	private static final int CHAIN_INCOMPLETE = 2;
+	// read from the end of the file in one go to cover an ID3v1 tag and any APE or Lyrics3 tag before it
+	static final int TAIL_LENGTH = 8192;
+	// bytes after the ID3v2 tag that the head read must also hold to serve as the first scan block
+	private static final int MINIMUM_HEAD_SCAN_LENGTH = 4096;
+	private static final int MAXIMUM_BITRATE = 448;
+	private static final int MAXIMUM_CUSTOM_TAG_LENGTH = Integer.MAX_VALUE - 8;
+	// the largest ID3v2 tag size a 28-bit synchsafe integer can hold
+	private static final int MAXIMUM_SYNCHSAFE_INTEGER = (1 << 28) - 1;
+	// frames of one bitrate that are scanned one by one before any are skipped, and the most skipped at once
+	private static final int CBR_MINIMUM_RUN_FRAMES = 16;
+	private static final int CBR_MAXIMUM_SKIP_FRAMES = 64;
+	// bytes either side of the predicted offset at which the frame after a skip is looked for
+	private static final int CBR_SKIP_TOLERANCE = 2;
+	// each chunk of a parallel scan is read through a buffer at least this long, enough for several frames
+	private static final int MINIMUM_CHUNK_BUFFER_LENGTH = 65536;
 
 	protected int bufferLength;
-	private int xingOffset = -1;
-	private int startOffset = -1;
-	private int endOffset = -1;
+	private int mappedWindowLength;
+	private long xingOffset = -1;
+	private long startOffset = -1;
+	private int startFrameHeader;
+	private long endOffset = -1;
 	private int frameCount = 0;
 	private Map<Integer, MutableInteger> bitrates = new HashMap<>();
+	private MutableInteger[] bitrateCounts = new MutableInteger[MAXIMUM_BITRATE + 1];
 	private int xingBitrate;
 	private double bitrate = 0;
+	private long bitrateTotal = 0;
 	private String channelMode;
 	private String emphasis;
 	private String layer;
 	private String modeExtension;
 	private int sampleRate;
+	private int samplesPerFrame;
 	private boolean copyright;
 	private boolean original;
 	private String version;
@@ -37,6 +76,30 @@ public class Mp3File extends FileWrapper {
 	private ID3v2 id3v2Tag;
 	private byte[] customTag;
 	private boolean scanFile;
+	private boolean useVbrHeader;
+	private VbrHeader vbrHeader;
+	private boolean vbrHeaderUsed;
+	private boolean buildFrameIndex;
+	private FrameIndex frameIndex;
+	private boolean skipConstantBitrateFrames;
+	private int cbrRunBitrate;
+	private int cbrRunFrames;
+	private long cbrRunLength;
+	private ForkJoinPool forkJoinPool;
+	private int parallelChunkLength;
+	private ByteBuffer head;
+	private ByteBuffer tail;
+	private long scanOffset;
+	private long scanRestartOffset;
+	private ByteBuffer scanHeadBlock;
+	// the whole file when it is held in memory rather than read from a path
+	private ByteBuffer source;
+	private ByteSource byteSource;
+	private int maximumReadAheadLength;
+	private LongSupplier nanoClock;
+	private ParseContext parseContext;
+	private long scannedByteCount;
+	private boolean scanComplete;
 
 	protected Mp3File() {
 	}
@@ -58,6 +121,16 @@ public class Mp3File extends FileWrapper {
 		init(bufferLength, scanFile);
 	}
 
+	public Mp3File(String filename, Mp3FileOptions options) throws IOException, UnsupportedTagException, InvalidDataException {
+		super(filename);
+		init(options);
+	}
+
+	public Mp3File(String filename, Mp3FileOptions options, ParseContext parseContext) throws IOException, UnsupportedTagException, InvalidDataException {
+		super(filename);
+		init(options, parseContext);
+	}
+
 	public Mp3File(File file) throws IOException, UnsupportedTagException, InvalidDataException {
 		this(file, DEFAULT_BUFFER_LENGTH, true);
 	}
@@ -71,6 +144,16 @@ public class Mp3File extends FileWrapper {
 		init(bufferLength, scanFile);
 	}
 
+	public Mp3File(File file, Mp3FileOptions options) throws IOException, UnsupportedTagException, InvalidDataException {
+		super(file);
+		init(options);
+	}
+
+	public Mp3File(File file, Mp3FileOptions options, ParseContext parseContext) throws IOException, UnsupportedTagException, InvalidDataException {
+		super(file);
+		init(options, parseContext);
+	}
+
 	public Mp3File(Path path) throws IOException, UnsupportedTagException, InvalidDataException {
 		this(path, DEFAULT_BUFFER_LENGTH, true);
 	}
@@ -84,25 +167,268 @@ public class Mp3File extends FileWrapper {
 		init(bufferLength, scanFile);
 	}
 
+	public Mp3File(Path path, Mp3FileOptions options) throws IOException, UnsupportedTagException, InvalidDataException {
+		super(path);
+		init(options);
+	}
+
+	public Mp3File(Path path, Mp3FileOptions options, ParseContext parseContext) throws IOException, UnsupportedTagException, InvalidDataException {
+		super(path);
+		init(options, parseContext);
+	}
+
 	private void init(int bufferLength, boolean scanFile) throws IOException, UnsupportedTagException, InvalidDataException {
-		if (bufferLength < MINIMUM_BUFFER_LENGTH + 1) throw new IllegalArgumentException("Buffer too small");
+		init(new Mp3FileOptions(bufferLength, scanFile));
+	}
 
-		this.bufferLength = bufferLength;
-		this.scanFile = scanFile;
+	/**
+	 * Parses an mp3 held in memory, from the position to the limit of the buffer, which can be heap,
+	 * direct or a read-only slice. The head, tail and scan blocks are slices of the buffer rather than
+	 * copies, so the buffer must not change while the Mp3File is in use, and {@link #save(String)}
+	 * copies the frames from it. Memory mapping and parallel scanning do not apply.
+	 */
+	public Mp3File(ByteBuffer bytes, Mp3FileOptions options) throws IOException, UnsupportedTagException, InvalidDataException {
+		setOptions(options);
+		initSource(bytes.slice());
+	}
 
-		try (SeekableByteChannel seekableByteChannel = Files.newByteChannel(path, StandardOpenOption.READ)) {
-			initId3v1Tag(seekableByteChannel);
-			scanFile(seekableByteChannel);
-			if (startOffset < 0) {
-				throw new InvalidDataException("No mpegs frames found");
+	/**
+	 * Parses an mp3 from a source other than a file path. Unless the source is mapped, its reads are
+	 * planned to ask the source for as few and as large ranges as possible, with the read-ahead
+	 * growing for as long as larger requests raise the throughput, up to
+	 * {@link Mp3FileOptions#getMaximumReadAheadLength()}. When the memory mapped option is set and the
+	 * source can be mapped, the whole source is mapped and parsed as a buffer. The source is not
+	 * closed, and {@link #save(String)} copies the frames from it, so it must stay open until then.
+	 * Parallel scanning does not apply.
+	 */
+	public Mp3File(ByteSource byteSource, Mp3FileOptions options) throws IOException, UnsupportedTagException, InvalidDataException {
+		setOptions(options);
+		forkJoinPool = null;
+		long size = byteSource.size();
+		ByteBuffer mapped = mappedWindowLength > 0 && size <= Integer.MAX_VALUE ? byteSource.map(0, (int) size) : null;
+		if (mapped != null) {
+			initSource(mapped);
+			return;
+		}
+		mappedWindowLength = 0;
+		length = size;
+		this.byteSource = byteSource;
+		this.maximumReadAheadLength = options.getMaximumReadAheadLength();
+		this.nanoClock = options.getNanoClock();
+		try (ReadPlanner readPlanner = newReadPlanner()) {
+			beginInit(readPlanner);
+			while (!scanStep(readPlanner)) {
+				// each step scans one block
 			}
-			initId3v2Tag(seekableByteChannel);
-			if (scanFile) {
-				initCustomTag(seekableByteChannel);
+			finishInit(readPlanner);
+		}
+	}
+
+	private void initSource(ByteBuffer bytes) throws IOException, UnsupportedTagException, InvalidDataException {
+		forkJoinPool = null;
+		mappedWindowLength = 0;
+		source = bytes;
+		length = source.remaining();
+		beginInit(null);
+		while (!scanStep(null)) {
+			// after the head, the rest of the file is scanned as one block
+		}
+		finishInit(null);
+	}
+
+	private ReadPlanner newReadPlanner() {
+		return new ReadPlanner(byteSource, getLength(), bufferLength, maximumReadAheadLength, nanoClock);
+	}
+
+	/**
+	 * Parses an mp3 from a stream in a single pass, with no file behind it. The stream is read to its
+	 * end but not closed. Skipping constant bitrate frames, using a VBR header in place of the scan,
+	 * memory mapping and parallel scanning all need the length or the file up front, so those options do
+	 * not apply, and there is no source for {@link #save(String)} to copy frames from. Only the last
+	 * 8 KB of the stream is kept once the frames end, so a custom tag is only kept if it fits in that
+	 * along with any ID3v1 tag.
+	 */
+	public Mp3File(InputStream inputStream, Mp3FileOptions options) throws IOException, UnsupportedTagException, InvalidDataException {
+		this(Channels.newChannel(inputStream), options);
+	}
+
+	/**
+	 * As {@link #Mp3File(InputStream, Mp3FileOptions)}, reading from a channel.
+	 */
+	public Mp3File(ReadableByteChannel readableByteChannel, Mp3FileOptions options) throws IOException, UnsupportedTagException, InvalidDataException {
+		setOptions(options);
+		useVbrHeader = false;
+		skipConstantBitrateFrames = false;
+		forkJoinPool = null;
+		mappedWindowLength = 0;
+		new StreamMp3FileReader(this, readableByteChannel).read();
+	}
+
+	/**
+	 * Reads the head and tail of the file, ready for its scan to be driven step by step by an
+	 * {@link Mp3FileScanner} from the start or from the checkpoint if there is one. With no channel,
+	 * reading the head and tail is left to the caller, as {@link #openAsync(Path, Mp3FileOptions)}
+	 * does.
+	 */
+	Mp3File(Path path, Mp3FileOptions options, SeekableByteChannel seekableByteChannel, ScanCheckpoint checkpoint) throws IOException, InvalidDataException {
+		super(path);
+		setOptions(options);
+		if (seekableByteChannel != null) {
+			beginInit(seekableByteChannel);
+			if (checkpoint != null) {
+				restoreCheckpoint(seekableByteChannel, checkpoint);
+			}
+		}
+	}
+
+	/**
+	 * Opens the file without blocking the calling thread, reading the tail, head and frames through
+	 * an {@link AsynchronousFileChannel} with the next block always read ahead while the current one
+	 * is scanned. Memory mapping and parallel scanning options do not apply.
+	 */
+	public static CompletableFuture<Mp3File> openAsync(Path path, Mp3FileOptions options) {
+		return openAsync(path, options, null);
+	}
+
+	/**
+	 * As {@link #openAsync(Path, Mp3FileOptions)}, with the reads completed and the blocks scanned on
+	 * the given executor, or on the default thread pool of AsynchronousFileChannel if it is null.
+	 */
+	public static CompletableFuture<Mp3File> openAsync(Path path, Mp3FileOptions options, ExecutorService executor) {
+		try {
+			Mp3File mp3File = new Mp3File(path, options, null, null);
+			AsynchronousFileChannel channel = executor == null
+					? AsynchronousFileChannel.open(path, StandardOpenOption.READ)
+					: AsynchronousFileChannel.open(path, EnumSet.of(StandardOpenOption.READ), executor);
+			return new AsyncMp3FileReader(mp3File, channel).read();
+		} catch (IOException | InvalidDataException | RuntimeException e) {
+			CompletableFuture<Mp3File> future = new CompletableFuture<>();
+			future.completeExceptionally(e);
+			return future;
+		}
+	}
+
+	/**
+	 * Parses the file with the buffers of the context, which is in use until this returns.
+	 */
+	private void init(Mp3FileOptions options, ParseContext parseContext) throws IOException, UnsupportedTagException, InvalidDataException {
+		if (parseContext == null) throw new IllegalArgumentException("Parse context required");
+		parseContext.acquire();
+		try {
+			this.parseContext = parseContext;
+			init(options);
+		} finally {
+			this.parseContext = null;
+			parseContext.release();
+		}
+	}
+
+	private void init(Mp3FileOptions options) throws IOException, UnsupportedTagException, InvalidDataException {
+		setOptions(options);
+		try (SeekableByteChannel seekableByteChannel = Files.newByteChannel(path, StandardOpenOption.READ)) {
+			beginInit(seekableByteChannel);
+			while (!scanStep(seekableByteChannel)) {
+				// each step scans one block
 			}
+			finishInit(seekableByteChannel);
 		}
 	}
 
+	private void setOptions(Mp3FileOptions options) {
+		if (options.getBufferLength() < MINIMUM_BUFFER_LENGTH + 1) throw new IllegalArgumentException("Buffer too small");
+
+		this.bufferLength = options.getBufferLength();
+		this.scanFile = options.getScanFile();
+		this.useVbrHeader = options.getUseVbrHeader();
+		this.buildFrameIndex = options.getBuildFrameIndex();
+		this.skipConstantBitrateFrames = options.getSkipConstantBitrateFrames() && !buildFrameIndex;
+		if (options.getForkJoinPool() != null && !buildFrameIndex) {
+			if (options.getParallelChunkLength() < MINIMUM_BUFFER_LENGTH + 1) throw new IllegalArgumentException("Parallel chunk too small");
+			this.forkJoinPool = options.getForkJoinPool();
+			this.parallelChunkLength = options.getParallelChunkLength();
+		}
+		if (options.getMemoryMapped()) {
+			if (options.getMappedWindowLength() < MINIMUM_BUFFER_LENGTH + 1) throw new IllegalArgumentException("Mapped window too small");
+			this.mappedWindowLength = options.getMappedWindowLength();
+		}
+	}
+
+	void beginInit(SeekableByteChannel seekableByteChannel) throws IOException {
+		initTail(readTail(seekableByteChannel));
+		beginScan(readHead(seekableByteChannel));
+	}
+
+	void initTail(ByteBuffer tail) {
+		this.tail = tail;
+		initId3v1Tag(tail);
+	}
+
+	void beginScan(ByteBuffer head) {
+		this.head = head;
+		scanOffset = id3v2TagLength(head);
+		if (scanOffset < head.limit()) {
+			head.position((int) scanOffset);
+			scanHeadBlock = head.slice();
+			head.rewind();
+		}
+		scanRestartOffset = scanOffset;
+	}
+
+	void finishInit(SeekableByteChannel seekableByteChannel) throws IOException, UnsupportedTagException, InvalidDataException {
+		finishScan();
+		int id3v2TagReadLength = id3v2TagReadLength();
+		if (id3v2TagReadLength >= 0) {
+			byte[] bytes = id3v2TagBytesFromHead(id3v2TagReadLength);
+			initId3v2Tag(bytes != null ? bytes : readBytes(seekableByteChannel, 0, id3v2TagReadLength));
+		}
+		int customTagReadLength = customTagReadLength();
+		if (customTagReadLength >= 0) {
+			byte[] bytes = customTagBytesFromTail(customTagReadLength);
+			initCustomTag(bytes != null ? bytes : readBytes(seekableByteChannel, getEndOffset() + 1, customTagReadLength));
+		}
+		finishInit();
+	}
+
+	void finishScan() throws InvalidDataException {
+		if (frameIndex != null) {
+			frameIndex.trimToSize();
+		}
+		if (startOffset < 0) {
+			throw new InvalidDataException("No mpegs frames found");
+		}
+	}
+
+	void finishInit() {
+		head = null;
+		tail = null;
+		scanHeadBlock = null;
+		parseContext = null;
+	}
+
+	/**
+	 * @return the context to read into, which is a new one for the file if none was passed
+	 */
+	private ParseContext parseContext() {
+		if (parseContext == null) parseContext = new ParseContext();
+		return parseContext;
+	}
+
+	private byte[] readBytes(SeekableByteChannel seekableByteChannel, long position, int length) throws IOException {
+		if (source != null) {
+			if (position + length > getLength()) throw new IOException("Not enough bytes read");
+			return copyBytes(source, (int) position, length);
+		}
+		ByteBuffer byteBuffer = readBlock(seekableByteChannel, ByteBuffer.allocate(length), position);
+		if (byteBuffer.limit() < length) throw new IOException("Not enough bytes read");
+		return byteBuffer.array();
+	}
+
+	/**
+	 * @return the length of the ID3v2 tag at the start of the channel, or 0 if there is none
+	 * @deprecated no longer called when parsing, which finds the tag in the head of the file read
+	 * once for every tag, and to be removed in a later release
+	 */
+	@Deprecated
 	protected int preScanFile(SeekableByteChannel seekableByteChannel) {
 		ByteBuffer byteBuffer = ByteBuffer.allocate(AbstractID3v2Tag.HEADER_LENGTH);
 		try {
@@ -110,13 +436,7 @@ public class Mp3File extends FileWrapper {
 			byteBuffer.clear();
 			int bytesRead = seekableByteChannel.read(byteBuffer);
 			if (bytesRead == AbstractID3v2Tag.HEADER_LENGTH) {
-				try {
-					byte[] bytes = byteBuffer.array();
-					ID3v2TagFactory.sanityCheckTag(bytes);
-					return AbstractID3v2Tag.HEADER_LENGTH + BufferTools.unpackSynchsafeInteger(bytes[AbstractID3v2Tag.DATA_LENGTH_OFFSET], bytes[AbstractID3v2Tag.DATA_LENGTH_OFFSET + 1], bytes[AbstractID3v2Tag.DATA_LENGTH_OFFSET + 2], bytes[AbstractID3v2Tag.DATA_LENGTH_OFFSET + 3]);
-				} catch (NoSuchTagException | UnsupportedTagException e) {
-					// do nothing
-				}
+				return id3v2TagLength(byteBuffer.array());
 			}
 		} catch (IOException e) {
 			// do nothing
@@ -124,78 +444,350 @@ public class Mp3File extends FileWrapper {
 		return 0;
 	}
 
-	private void scanFile(SeekableByteChannel seekableByteChannel) throws IOException, InvalidDataException {
-		ByteBuffer byteBuffer = ByteBuffer.allocate(bufferLength);
-		int fileOffset = preScanFile(seekableByteChannel);
-		seekableByteChannel.position(fileOffset);
-		boolean lastBlock = false;
-		int lastOffset = fileOffset;
-		while (!lastBlock) {
-			byteBuffer.clear();
-			int bytesRead = seekableByteChannel.read(byteBuffer);
-			byte[] bytes = byteBuffer.array();
-			if (bytesRead < bufferLength) lastBlock = true;
-			if (bytesRead >= MINIMUM_BUFFER_LENGTH) {
-				while (true) {
-					try {
-						int offset = 0;
-						if (startOffset < 0) {
-							offset = scanBlockForStart(bytes, bytesRead, fileOffset, offset);
-							if (startOffset >= 0 && !scanFile) {
-								return;
-							}
-							lastOffset = startOffset;
-						}
-						offset = scanBlock(bytes, bytesRead, fileOffset, offset);
-						fileOffset += offset;
-						seekableByteChannel.position(fileOffset);
-						break;
-					} catch (InvalidDataException e) {
-						if (frameCount < 2) {
-							startOffset = -1;
-							xingOffset = -1;
-							frameCount = 0;
-							bitrates.clear();
-							lastBlock = false;
-							fileOffset = lastOffset + 1;
-							if (fileOffset == 0)
-								throw new InvalidDataException("Valid start of mpeg frames not found", e);
-							seekableByteChannel.position(fileOffset);
-							break;
-						}
-						return;
-					}
+	static int id3v2TagLength(byte[] bytes) {
+		if (ID3v2TagFactory.checkTag(bytes) != ID3v2TagFactory.TAG_VALID) return 0;
+		return AbstractID3v2Tag.HEADER_LENGTH + BufferTools.unpackSynchsafeInteger(bytes[AbstractID3v2Tag.DATA_LENGTH_OFFSET], bytes[AbstractID3v2Tag.DATA_LENGTH_OFFSET + 1], bytes[AbstractID3v2Tag.DATA_LENGTH_OFFSET + 2], bytes[AbstractID3v2Tag.DATA_LENGTH_OFFSET + 3]);
+	}
+
+	private static int id3v2TagLength(ByteBuffer head) {
+		// the same checks as on an array of the header, made in place to save copying it out
+		if (head.limit() < AbstractID3v2Tag.HEADER_LENGTH) return 0;
+		for (int i = 0; i < AbstractID3v2Tag.TAG.length(); i++) {
+			if (head.get(i) != AbstractID3v2Tag.TAG.charAt(i)) return 0;
+		}
+		int majorVersion = head.get(AbstractID3v2Tag.MAJOR_VERSION_OFFSET);
+		if (majorVersion != 2 && majorVersion != 3 && majorVersion != 4) return 0;
+		return AbstractID3v2Tag.HEADER_LENGTH + BufferTools.unpackSynchsafeInteger(head.get(AbstractID3v2Tag.DATA_LENGTH_OFFSET), head.get(AbstractID3v2Tag.DATA_LENGTH_OFFSET + 1), head.get(AbstractID3v2Tag.DATA_LENGTH_OFFSET + 2), head.get(AbstractID3v2Tag.DATA_LENGTH_OFFSET + 3));
+	}
+
+	int tailLength() {
+		return (int) Math.min(TAIL_LENGTH, getLength());
+	}
+
+	int headLength() {
+		return (int) Math.min(bufferLength, getLength());
+	}
+
+	/**
+	 * @return the length the head must be read to, for the ID3v2 tag and enough of what follows it
+	 * for the first block of the scan, or 0 if the head already read is long enough
+	 */
+	int largerHeadLength(ByteBuffer head) {
+		int tagLength = id3v2TagLength(head);
+		long requiredLength = Math.min(getLength(), (long) tagLength + Math.min(bufferLength, MINIMUM_HEAD_SCAN_LENGTH));
+		if (head.limit() >= requiredLength) return 0;
+		return (int) Math.min(getLength(), (long) tagLength + bufferLength);
+	}
+
+	private ByteBuffer readTail(SeekableByteChannel seekableByteChannel) throws IOException {
+		int length = tailLength();
+		if (source != null) return slice(getLength() - length, length);
+		ByteBuffer tail = readBlock(seekableByteChannel, parseContext().tailBuffer(length), getLength() - length);
+		if (tail.limit() < length) throw new IOException("Not enough bytes read");
+		return tail;
+	}
+
+	/**
+	 * Reads the start of the file, which holds the ID3v2 tag if there is one, along with enough of
+	 * what follows it to serve as the first block of the scan. A tag too big for one buffer is read
+	 * in a second read sized from the tag length in its header.
+	 */
+	private ByteBuffer readHead(SeekableByteChannel seekableByteChannel) throws IOException {
+		if (source != null) {
+			ByteBuffer head = slice(0, headLength());
+			int largerHeadLength = largerHeadLength(head);
+			return largerHeadLength > 0 ? slice(0, largerHeadLength) : head;
+		}
+		ByteBuffer head = readBlock(seekableByteChannel, parseContext().headBuffer(headLength()), 0);
+		int largerHeadLength = largerHeadLength(head);
+		if (largerHeadLength > 0) {
+			ByteBuffer largerHead = parseContext().largerHeadBuffer(largerHeadLength);
+			largerHead.put(head);
+			seekableByteChannel.position(largerHead.position());
+			seekableByteChannel.read(largerHead);
+			largerHead.flip();
+			head = largerHead;
+		}
+		return head;
+	}
+
+	/**
+	 * Scans the next block of the file, which is the rest of the head read after the ID3v2 tag for
+	 * the first step.
+	 *
+	 * @return true once the scan is complete
+	 */
+	boolean scanStep(SeekableByteChannel seekableByteChannel) throws IOException, InvalidDataException {
+		if (scanComplete) return true;
+		boolean mapped = mappedWindowLength > 0 && seekableByteChannel instanceof FileChannel;
+		ByteBuffer bytes = takeScanHeadBlock();
+		if (bytes == null && source != null) {
+			bytes = slice(scanOffset, (int) Math.max(0, getLength() - scanOffset));
+		} else if (bytes == null && mapped) {
+			bytes = mapBlock((FileChannel) seekableByteChannel, scanOffset, mappedWindowLength);
+		} else if (bytes == null) {
+			bytes = readBlock(seekableByteChannel, parseContext().scanBuffer(bufferLength), scanOffset);
+		}
+		return scanStep(bytes, seekableByteChannel);
+	}
+
+	/**
+	 * @return the rest of the head after the ID3v2 tag, the first time only, to be scanned first
+	 */
+	ByteBuffer takeScanHeadBlock() {
+		ByteBuffer bytes = scanHeadBlock;
+		scanHeadBlock = null;
+		return bytes;
+	}
+
+	/**
+	 * @return the number of bytes from the scan offset that the next step is given when the scan is
+	 * not memory mapped
+	 */
+	int scanBlockLength() {
+		return (int) Math.min(bufferLength, getLength() - scanOffset);
+	}
+
+	/**
+	 * Scans a block of bytes read from the scan offset. The channel is only used to scan in parallel
+	 * and can be null.
+	 *
+	 * @return true once the scan is complete
+	 */
+	boolean scanStep(ByteBuffer bytes, SeekableByteChannel seekableByteChannel) throws IOException, InvalidDataException {
+		if (scanComplete) return true;
+		int bytesRead = bytes.limit();
+		scannedByteCount += bytesRead;
+		boolean lastBlock = scanOffset + bytesRead >= getLength();
+		if (bytesRead >= MINIMUM_BUFFER_LENGTH) {
+			int offset = 0;
+			if (startOffset < 0) {
+				offset = scanBlockForStart(bytes, bytesRead, scanOffset, offset);
+				if (startOffset < 0) {
+					scanOffset += offset;
+					return scanComplete = lastBlock;
+				}
+				if (!scanFile) {
+					return scanComplete = true;
+				}
+				if (useVbrHeader && applyVbrHeader()) {
+					return scanComplete = true;
+				}
+				scanRestartOffset = startOffset;
+				if (forkJoinPool != null && seekableByteChannel instanceof FileChannel
+						&& scanFramesInParallel((FileChannel) seekableByteChannel, scanOffset + offset)) {
+					return scanComplete = true;
+				}
+			}
+			offset = scanBlock(bytes, bytesRead, scanOffset, offset);
+			if (offset != END_OF_FRAMES) {
+				scanOffset += offset;
+			} else if (frameCount < 2) {
+				// only reached when the block is too short to hold the start frame and the one after it,
+				// in which case the start frame was accepted without checking the frame after it
+				startOffset = -1;
+				xingOffset = -1;
+				vbrHeader = null;
+				frameCount = 0;
+				bitrates.clear();
+				bitrateTotal = 0;
+				Arrays.fill(bitrateCounts, null);
+				frameIndex = null;
+				// a restart that runs out of file leaves no start, which finishScan reports
+				scanOffset = scanRestartOffset + 1;
+				return false;
+			} else {
+				return scanComplete = true;
+			}
+		}
+		return scanComplete = lastBlock;
+	}
+
+	long getScanOffset() {
+		return scanOffset;
+	}
+
+	long getScanRestartOffset() {
+		return scanRestartOffset;
+	}
+
+	long getScannedByteCount() {
+		return scannedByteCount;
+	}
+
+	boolean isScanComplete() {
+		return scanComplete;
+	}
+
+	ScanCheckpoint createCheckpoint(long lastModified) {
+		int[] counts = new int[bitrateCounts.length];
+		for (int i = 0; i < counts.length; i++) {
+			if (bitrateCounts[i] != null) counts[i] = bitrateCounts[i].getValue();
+		}
+		return new ScanCheckpoint(getLength(), lastModified, scanOffset, scanRestartOffset, scanComplete, startOffset, startFrameHeader,
+				xingOffset, xingBitrate, endOffset, frameCount, counts, cbrRunBitrate, cbrRunFrames, cbrRunLength,
+				frameIndex != null ? frameIndex.copy() : null, vbrHeaderUsed, vbrHeaderUsed ? bitrate : 0);
+	}
+
+	/**
+	 * Puts the scan back in the state recorded by the checkpoint, reading the VBR header again if
+	 * one had been found and taking the bitrate from the checkpoint if the scan was completed from the
+	 * header. Called after {@link #beginInit(SeekableByteChannel)}.
+	 */
+	private void restoreCheckpoint(SeekableByteChannel seekableByteChannel, ScanCheckpoint checkpoint) throws IOException, InvalidDataException {
+		scanOffset = checkpoint.getScanOffset();
+		scanRestartOffset = checkpoint.getScanRestartOffset();
+		scanComplete = checkpoint.isComplete();
+		scanHeadBlock = null;
+		startOffset = checkpoint.getStartOffset();
+		endOffset = checkpoint.getEndOffset();
+		xingOffset = checkpoint.getXingOffset();
+		xingBitrate = checkpoint.getXingBitrate();
+		frameCount = checkpoint.getFrameCount();
+		cbrRunBitrate = checkpoint.getCbrRunBitrate();
+		cbrRunFrames = checkpoint.getCbrRunFrames();
+		cbrRunLength = checkpoint.getCbrRunLength();
+		frameIndex = checkpoint.getFrameIndex() != null ? checkpoint.getFrameIndex().copy() : null;
+		if (xingOffset >= 0) {
+			ByteBuffer bytes = readBlock(seekableByteChannel, ByteBuffer.allocate((int) Math.min(MINIMUM_HEAD_SCAN_LENGTH, getLength() - xingOffset)), xingOffset);
+			vbrHeader = VbrHeader.parse(bytes, 0, bytes.limit());
+		}
+		if (startOffset >= 0) {
+			startFrameHeader = checkpoint.getStartFrameHeader();
+			setStartFrame(new MpegFrame(startFrameHeader));
+			int[] counts = checkpoint.getBitrateCounts();
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] > 0) {
+					bitrateCounts[i] = new MutableInteger(counts[i]);
+					bitrates.put(i, bitrateCounts[i]);
+					bitrateTotal += (long) i * counts[i];
+				}
+			}
+			bitrate = (double) bitrateTotal / frameCount;
+		}
+		vbrHeaderUsed = checkpoint.isVbrHeaderUsed();
+		if (vbrHeaderUsed) bitrate = checkpoint.getVbrHeaderBitrate();
+	}
+
+	/**
+	 * Splits the frames after the start frame into chunks that are scanned on the fork-join pool,
+	 * then joins the chunks up in order. Each chunk is only counted if it was entered at the offset
+	 * where the frames of the chunk before it left off, and is scanned again from that offset if not,
+	 * so the results are the same as those of the sequential scan.
+	 *
+	 * @return false, leaving the sequential scan to carry on, if the frame after the start frame is
+	 * not valid, in which case the sequential scan looks for another start frame
+	 */
+	private boolean scanFramesInParallel(FileChannel fileChannel, long scanStart) throws IOException {
+		long scanLimit = getLength() - MINIMUM_BUFFER_LENGTH;
+		if (scanLimit - scanStart <= parallelChunkLength) return false;
+		int chunkBufferLength = Math.max(bufferLength, MINIMUM_CHUNK_BUFFER_LENGTH);
+		int chunkCount = (int) Math.min(Integer.MAX_VALUE, (scanLimit - scanStart + parallelChunkLength - 1) / parallelChunkLength);
+		FrameChunkScan[] chunks = new FrameChunkScan[chunkCount];
+		for (int i = 0; i < chunkCount; i++) {
+			long chunkStart = scanStart + (long) i * parallelChunkLength;
+			long chunkEnd = i == chunkCount - 1 ? scanLimit : chunkStart + parallelChunkLength;
+			chunks[i] = new FrameChunkScan(fileChannel, chunkStart, chunkEnd, i == 0, startFrameHeader, getLength(), maxEndOffset(), scanLimit, chunkBufferLength, MAXIMUM_BITRATE);
+		}
+		forkJoinPool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(chunks)));
+		if (chunks[0].getIOException() != null) throw chunks[0].getIOException();
+		if (chunks[0].getFrameCount() == 0 && chunks[0].isEndOfFrames()) return false;
+		long frameOffset = scanStart;
+		for (int i = 0; i < chunkCount; i++) {
+			FrameChunkScan chunk = chunks[i];
+			if (frameOffset >= chunk.getChunkEnd()) continue;
+			if (chunk.getIOException() != null) throw chunk.getIOException();
+			if (chunk.getEntryOffset() != frameOffset) {
+				// entered at a false sync, or frames crossed into the chunk that its scan could not find
+				chunk = new FrameChunkScan(fileChannel, frameOffset, chunk.getChunkEnd(), true, startFrameHeader, getLength(), maxEndOffset(), scanLimit, chunkBufferLength, MAXIMUM_BITRATE);
+				chunk.scan();
+			}
+			int[] chunkBitrateCounts = chunk.getBitrateCounts();
+			for (int frameBitrate = 0; frameBitrate < chunkBitrateCounts.length; frameBitrate++) {
+				if (chunkBitrateCounts[frameBitrate] > 0) {
+					frameCount += chunkBitrateCounts[frameBitrate];
+					addBitrate(frameBitrate, chunkBitrateCounts[frameBitrate]);
 				}
 			}
+			if (chunk.getFrameCount() > 0) endOffset = chunk.getEndOffset();
+			if (chunk.isEndOfFrames()) break;
+			frameOffset = chunk.getExitOffset();
 		}
+		return true;
 	}
 
-	private int scanBlockForStart(byte[] bytes, int bytesRead, int absoluteOffset, int offset) {
+	/**
+	 * Reads into the buffer from its position up to its limit, which for a buffer from the parse
+	 * context can be short of its capacity.
+	 */
+	private ByteBuffer readBlock(SeekableByteChannel seekableByteChannel, ByteBuffer byteBuffer, long position) throws IOException {
+		seekableByteChannel.position(position);
+		seekableByteChannel.read(byteBuffer);
+		byteBuffer.flip();
+		return byteBuffer;
+	}
+
+	private ByteBuffer slice(long position, int length) {
+		ByteBuffer bytes = source.duplicate();
+		bytes.limit((int) position + length).position((int) position);
+		return bytes.slice();
+	}
+
+	private static byte[] copyBytes(ByteBuffer bytes, int offset, int length) {
+		byte[] copy = new byte[length];
+		ByteBuffer duplicate = bytes.duplicate();
+		duplicate.position(offset);
+		duplicate.get(copy);
+		return copy;
+	}
+
+	private ByteBuffer mapBlock(FileChannel fileChannel, long position, int blockLength) throws IOException {
+		long length = Math.max(0, Math.min(blockLength, getLength() - position));
+		return fileChannel.map(FileChannel.MapMode.READ_ONLY, position, length);
+	}
+
+	/**
+	 * Looks for the first frame whose following frame is also valid, checking each candidate against
+	 * the bytes already in the block so that a false sync does not cause the file to be read again
+	 * from just after it.
+	 *
+	 * @return the offset in the block after the start frame if one was found, otherwise the offset
+	 * to continue looking from in the next block, which is the offset of a candidate whose following
+	 * frame is beyond the end of the block
+	 */
+	private int scanBlockForStart(ByteBuffer bytes, int bytesRead, long absoluteOffset, int offset) {
 		while (offset < bytesRead - MINIMUM_BUFFER_LENGTH) {
-			if (bytes[offset] == (byte) 0xFF && (bytes[offset + 1] & (byte) 0xE0) == (byte) 0xE0) {
-				try {
-					MpegFrame frame = new MpegFrame(bytes[offset], bytes[offset + 1], bytes[offset + 2], bytes[offset + 3]);
-					if (xingOffset < 0 && isXingFrame(bytes, offset)) {
-						xingOffset = absoluteOffset + offset;
-						xingBitrate = frame.getBitrate();
-						offset += frame.getLengthInBytes();
-					} else {
-						startOffset = absoluteOffset + offset;
-						channelMode = frame.getChannelMode();
-						emphasis = frame.getEmphasis();
-						layer = frame.getLayer();
-						modeExtension = frame.getModeExtension();
-						sampleRate = frame.getSampleRate();
-						version = frame.getVersion();
-						copyright = frame.isCopyright();
-						original = frame.isOriginal();
-						frameCount++;
-						addBitrate(frame.getBitrate());
-						offset += frame.getLengthInBytes();
-						return offset;
-					}
-				} catch (InvalidDataException e) {
+			if (bytes.get(offset) != (byte) 0xFF) {
+				offset = ByteSearch.indexOf(bytes, offset, bytesRead - MINIMUM_BUFFER_LENGTH, (byte) 0xFF);
+				if (offset < 0) return bytesRead - MINIMUM_BUFFER_LENGTH;
+			}
+			if ((bytes.get(offset + 1) & (byte) 0xE0) == (byte) 0xE0) {
+				int frameHeader = bytes.getInt(offset);
+				int frameLength = MpegFrame.lengthInBytes(frameHeader);
+				int chain = frameLength == 0 ? CHAIN_INVALID : checkFrameChain(bytes, bytesRead, absoluteOffset, offset, frameHeader, frameLength);
+				if (chain == CHAIN_INVALID) {
 					offset++;
+				} else if (chain == CHAIN_INCOMPLETE && offset > 0) {
+					return offset;
+				} else if (xingOffset < 0 && VbrHeader.isVbrHeaderFrame(bytes, offset, bytesRead)) {
+					xingOffset = absoluteOffset + offset;
+					xingBitrate = MpegFrame.bitrate(frameHeader);
+					vbrHeader = VbrHeader.parse(bytes, offset, bytesRead);
+					offset += frameLength;
+				} else {
+					// a non-zero frame length means the header has already been found valid
+					MpegFrame frame = MpegFrame.ofValidHeader(frameHeader);
+					startOffset = absoluteOffset + offset;
+					startFrameHeader = frameHeader;
+					setStartFrame(frame);
+					frameCount++;
+					addBitrate(frame.getBitrate());
+					if (buildFrameIndex) {
+						frameIndex = new FrameIndex(startOffset, samplesPerFrame, sampleRate);
+						frameIndex.addFrame(frameLength);
+					}
+					offset += frameLength;
+					return offset;
 				}
 			} else {
 				offset++;
@@ -204,16 +796,47 @@ public class Mp3File extends FileWrapper {
 		return offset;
 	}
 
-	private int scanBlock(byte[] bytes, int bytesRead, int absoluteOffset, int offset) throws InvalidDataException {
+	private void setStartFrame(MpegFrame frame) {
+		channelMode = frame.getChannelMode();
+		emphasis = frame.getEmphasis();
+		layer = frame.getLayer();
+		modeExtension = frame.getModeExtension();
+		sampleRate = frame.getSampleRate();
+		samplesPerFrame = frame.getSamplesPerFrame();
+		version = frame.getVersion();
+		copyright = frame.isCopyright();
+		original = frame.isOriginal();
+	}
+
+	private int checkFrameChain(ByteBuffer bytes, int bytesRead, long absoluteOffset, int offset, int frameHeader, int frameLength) {
+		for (int i = 1; i < FRAME_CHAIN_LENGTH; i++) {
+			offset += frameLength;
+			if (getLength() - (absoluteOffset + offset) < MINIMUM_BUFFER_LENGTH) return CHAIN_VALID;
+			if (offset + FRAME_HEADER_LENGTH > bytesRead) return CHAIN_INCOMPLETE;
+			int nextFrameHeader = bytes.getInt(offset);
+			frameLength = MpegFrame.lengthInBytes(nextFrameHeader);
+			if (!isValidFrame(nextFrameHeader, frameLength, absoluteOffset + offset, frameHeader)) return CHAIN_INVALID;
+		}
+		return CHAIN_VALID;
+	}
+
+	/**
+	 * @return the offset in the block after the last frame scanned, or {@link #END_OF_FRAMES} if a
+	 * frame that is not valid, or not consistent with the first frame, was found
+	 */
+	private int scanBlock(ByteBuffer bytes, int bytesRead, long absoluteOffset, int offset) {
 		while (offset < bytesRead - MINIMUM_BUFFER_LENGTH) {
-			MpegFrame frame = new MpegFrame(bytes[offset], bytes[offset + 1], bytes[offset + 2], bytes[offset + 3]);
-			sanityCheckFrame(frame, absoluteOffset + offset);
-			int newEndOffset = absoluteOffset + offset + frame.getLengthInBytes() - 1;
+			int frameHeader = bytes.getInt(offset);
+			int frameLength = MpegFrame.lengthInBytes(frameHeader);
+			if (!isValidFrame(frameHeader, frameLength, absoluteOffset + offset, startFrameHeader)) return END_OF_FRAMES;
+			long newEndOffset = absoluteOffset + offset + frameLength - 1;
 			if (newEndOffset < maxEndOffset()) {
-				endOffset = absoluteOffset + offset + frame.getLengthInBytes() - 1;
+				endOffset = newEndOffset;
 				frameCount++;
-				addBitrate(frame.getBitrate());
-				offset += frame.getLengthInBytes();
+				addBitrate(MpegFrame.bitrate(frameHeader));
+				if (frameIndex != null) frameIndex.addFrame(frameLength);
+				offset += frameLength;
+				if (skipConstantBitrateFrames) offset = skipConstantBitrateFrames(bytes, bytesRead, absoluteOffset, offset, frameHeader, frameLength);
 			} else {
 				break;
 			}
@@ -221,109 +844,200 @@ public class Mp3File extends FileWrapper {
 		return offset;
 	}
 
-	private int maxEndOffset() {
-		int maxEndOffset = (int) getLength();
+	/**
+	 * Once enough frames of the same bitrate have been scanned, steps over as many frames again as
+	 * their average length predicts, up to {@link #CBR_MAXIMUM_SKIP_FRAMES}, and only counts them if
+	 * frames of that bitrate are found where the step lands and just after it. Padding makes frames
+	 * of one bitrate differ in length by a byte, so the landing frame is looked for within
+	 * {@link #CBR_SKIP_TOLERANCE} bytes of the prediction. If it is not found, frames are scanned
+	 * one by one again until a new run has been seen.
+	 *
+	 * @return the offset in the block to continue scanning from
+	 */
+	private int skipConstantBitrateFrames(ByteBuffer bytes, int bytesRead, long absoluteOffset, int offset, int frameHeader, int frameLength) {
+		int frameBitrate = MpegFrame.bitrate(frameHeader);
+		if (frameBitrate != cbrRunBitrate) {
+			cbrRunBitrate = frameBitrate;
+			cbrRunFrames = 0;
+			cbrRunLength = 0;
+		}
+		cbrRunFrames++;
+		cbrRunLength += frameLength;
+		if (cbrRunFrames < CBR_MINIMUM_RUN_FRAMES) return offset;
+		double averageFrameLength = (double) cbrRunLength / cbrRunFrames;
+		int limit = bytesRead - MINIMUM_BUFFER_LENGTH;
+		// never skip more frames than the run the average came from, so the prediction stays within a byte or two
+		int skipFrames = Math.min(Math.min(cbrRunFrames, CBR_MAXIMUM_SKIP_FRAMES), (int) ((limit - offset) / averageFrameLength) - 2);
+		if (skipFrames < CBR_MINIMUM_RUN_FRAMES) return offset;
+		int predictedOffset = offset + (int) Math.round(skipFrames * averageFrameLength);
+		for (int i = 0; i <= 2 * CBR_SKIP_TOLERANCE; i++) {
+			int target = predictedOffset + ((i & 1) == 0 ? i / 2 : -(i + 1) / 2);
+			if (isConstantBitrateFrame(bytes, limit, absoluteOffset, target, frameBitrate)) {
+				endOffset = absoluteOffset + target - 1;
+				frameCount += skipFrames;
+				addBitrate(frameBitrate, skipFrames);
+				cbrRunFrames += skipFrames;
+				cbrRunLength += target - offset;
+				return target;
+			}
+		}
+		cbrRunFrames = 0;
+		cbrRunLength = 0;
+		return offset;
+	}
+
+	private boolean isConstantBitrateFrame(ByteBuffer bytes, int limit, long absoluteOffset, int offset, int frameBitrate) {
+		for (int i = 0; i < FRAME_CHAIN_LENGTH; i++) {
+			if (offset + FRAME_HEADER_LENGTH > limit) return false;
+			int frameHeader = bytes.getInt(offset);
+			int frameLength = MpegFrame.lengthInBytes(frameHeader);
+			if (!isValidFrame(frameHeader, frameLength, absoluteOffset + offset, startFrameHeader) || MpegFrame.bitrate(frameHeader) != frameBitrate) return false;
+			offset += frameLength;
+		}
+		return absoluteOffset + offset - 1 < maxEndOffset();
+	}
+
+	private long maxEndOffset() {
+		long maxEndOffset = getLength();
 		if (hasId3v1Tag()) maxEndOffset -= ID3v1Tag.TAG_LENGTH;
 		return maxEndOffset;
 	}
 
-	private boolean isXingFrame(byte[] bytes, int offset) {
-		if (bytes.length >= offset + XING_MARKER_OFFSET_1 + 3) {
-			if ("Xing".equals(BufferTools.byteBufferToStringIgnoringEncodingIssues(bytes, offset + XING_MARKER_OFFSET_1, 4)))
-				return true;
-			if ("Info".equals(BufferTools.byteBufferToStringIgnoringEncodingIssues(bytes, offset + XING_MARKER_OFFSET_1, 4)))
-				return true;
-			if (bytes.length >= offset + XING_MARKER_OFFSET_2 + 3) {
-				if ("Xing".equals(BufferTools.byteBufferToStringIgnoringEncodingIssues(bytes, offset + XING_MARKER_OFFSET_2, 4)))
-					return true;
-				if ("Info".equals(BufferTools.byteBufferToStringIgnoringEncodingIssues(bytes, offset + XING_MARKER_OFFSET_2, 4)))
-					return true;
-				if (bytes.length >= offset + XING_MARKER_OFFSET_3 + 3) {
-					if ("Xing".equals(BufferTools.byteBufferToStringIgnoringEncodingIssues(bytes, offset + XING_MARKER_OFFSET_3, 4)))
-						return true;
-					if ("Info".equals(BufferTools.byteBufferToStringIgnoringEncodingIssues(bytes, offset + XING_MARKER_OFFSET_3, 4)))
-						return true;
-				}
-			}
-		}
-		return false;
+	private boolean applyVbrHeader() {
+		if (buildFrameIndex) return false;
+		if (vbrHeader == null || !vbrHeader.hasFrameCount() || !vbrHeader.hasByteCount()) return false;
+		long audioLength = maxEndOffset() - xingOffset;
+		long byteCount = vbrHeader.getByteCount();
+		// same tolerance as ffmpeg uses to decide whether the header and the file size agree
+		if (Math.abs(audioLength - byteCount) > byteCount / 100) return false;
+		double lengthInMilliseconds = vbrHeader.getFrameCount() * (double) samplesPerFrame * 1000.0 / sampleRate;
+		endOffset = xingOffset + Math.min(byteCount, audioLength) - 1;
+		frameCount = vbrHeader.getFrameCount();
+		bitrate = (endOffset - startOffset) * 8.0 / lengthInMilliseconds;
+		vbrHeaderUsed = true;
+		return true;
 	}
 
-	private void sanityCheckFrame(MpegFrame frame, int offset) throws InvalidDataException {
-		if (sampleRate != frame.getSampleRate()) throw new InvalidDataException("Inconsistent frame header");
-		if (!layer.equals(frame.getLayer())) throw new InvalidDataException("Inconsistent frame header");
-		if (!version.equals(frame.getVersion())) throw new InvalidDataException("Inconsistent frame header");
-		if (offset + frame.getLengthInBytes() > getLength())
-			throw new InvalidDataException("Frame would extend beyond end of file");
+	private boolean isValidFrame(int frameHeader, int frameLength, long offset, int referenceFrameHeader) {
+		return frameLength != 0
+				&& MpegFrame.isConsistentHeader(frameHeader, referenceFrameHeader)
+				&& offset + frameLength <= getLength();
 	}
 
 	private void addBitrate(final int bitrate) {
-		MutableInteger count = bitrates.get(bitrate);
+		// counts are looked up by array rather than through the map so that no Integer is boxed per frame
+		MutableInteger count = bitrateCounts[bitrate];
 		if (count != null) {
 			count.increment();
 		} else {
-			bitrates.put(bitrate, new MutableInteger(1));
+			count = new MutableInteger(1);
+			bitrateCounts[bitrate] = count;
+			bitrates.put(bitrate, count);
+		}
+		bitrateTotal += bitrate;
+		this.bitrate = (double) bitrateTotal / frameCount;
+	}
+
+	private void addBitrate(final int bitrate, final int frames) {
+		MutableInteger count = bitrateCounts[bitrate];
+		if (count != null) {
+			count.setValue(count.getValue() + frames);
+		} else {
+			count = new MutableInteger(frames);
+			bitrateCounts[bitrate] = count;
+			bitrates.put(bitrate, count);
 		}
-		this.bitrate = ((this.bitrate * (frameCount - 1)) + bitrate) / frameCount;
+		bitrateTotal += (long) bitrate * frames;
+		this.bitrate = (double) bitrateTotal / frameCount;
 	}
 
-	private void initId3v1Tag(SeekableByteChannel seekableByteChannel) throws IOException {
-		ByteBuffer byteBuffer = ByteBuffer.allocate(ID3v1Tag.TAG_LENGTH);
-		seekableByteChannel.position(getLength() - ID3v1Tag.TAG_LENGTH);
-		byteBuffer.clear();
-		int bytesRead = seekableByteChannel.read(byteBuffer);
-		if (bytesRead < ID3v1Tag.TAG_LENGTH) throw new IOException("Not enough bytes read");
+	private void initId3v1Tag(ByteBuffer tail) {
+		if (tail.limit() < ID3v1Tag.TAG_LENGTH) {
+			id3v1Tag = null;
+			return;
+		}
+		int offset = tail.limit() - ID3v1Tag.TAG_LENGTH;
+		if (tail.get(offset) != 'T' || tail.get(offset + 1) != 'A' || tail.get(offset + 2) != 'G') {
+			// most files have no ID3v1 tag, so this saves copying the bytes and throwing for them
+			id3v1Tag = null;
+			return;
+		}
+		byte[] bytes = parseContext().id3v1TagBytes();
+		ByteBuffer duplicate = tail.duplicate();
+		duplicate.position(offset);
+		duplicate.get(bytes);
 		try {
-			id3v1Tag = new ID3v1Tag(byteBuffer.array());
+			id3v1Tag = new ID3v1Tag(bytes);
 		} catch (NoSuchTagException e) {
 			id3v1Tag = null;
 		}
 	}
 
-	private void initId3v2Tag(SeekableByteChannel seekableByteChannel) throws IOException, UnsupportedTagException, InvalidDataException {
-		if (xingOffset == 0 || startOffset == 0) {
+	/**
+	 * @return the number of bytes from the start of the file to parse the ID3v2 tag from, or -1 if
+	 * there is no room for a tag before the frames
+	 */
+	int id3v2TagReadLength() {
+		if (xingOffset == 0 || startOffset == 0) return -1;
+		long id3v2Length;
+		if (hasXingFrame()) id3v2Length = xingOffset;
+		else id3v2Length = startOffset;
+		// only the bytes up to the end of the tag are needed, however far into the file the frames start
+		int tagLength = id3v2TagLength(head);
+		return (int) Math.min(id3v2Length, (long) tagLength + AbstractID3v2Tag.FOOTER_LENGTH);
+	}
+
+	byte[] id3v2TagBytesFromHead(int length) {
+		return length <= head.limit() ? copyBytes(head, 0, length) : null;
+	}
+
+	void initId3v2Tag(byte[] bytes) throws UnsupportedTagException, InvalidDataException {
+		int status = ID3v2TagFactory.checkTag(bytes);
+		if (status == ID3v2TagFactory.TAG_BUFFER_TOO_SHORT || status == ID3v2TagFactory.TAG_NOT_FOUND) {
 			id3v2Tag = null;
 		} else {
-			int bufferLength;
-			if (hasXingFrame()) bufferLength = xingOffset;
-			else bufferLength = startOffset;
-			ByteBuffer byteBuffer = ByteBuffer.allocate(bufferLength);
-			seekableByteChannel.position(0);
-			byteBuffer.clear();
-			int bytesRead = seekableByteChannel.read(byteBuffer);
-			if (bytesRead < bufferLength) throw new IOException("Not enough bytes read");
 			try {
-				id3v2Tag = ID3v2TagFactory.createTag(byteBuffer.array());
+				// the bytes were read for the tag alone, so it keeps them rather than a copy
+				id3v2Tag = ID3v2TagFactory.createTag(bytes, false);
 			} catch (NoSuchTagException e) {
 				id3v2Tag = null;
 			}
 		}
 	}
 
-	private void initCustomTag(SeekableByteChannel seekableByteChannel) throws IOException {
-		int bufferLength = (int) (getLength() - (endOffset + 1));
-		if (hasId3v1Tag()) bufferLength -= ID3v1Tag.TAG_LENGTH;
-		if (bufferLength <= 0) {
-			customTag = null;
-		} else {
-			ByteBuffer byteBuffer = ByteBuffer.allocate(bufferLength);
-			seekableByteChannel.position(endOffset + 1);
-			byteBuffer.clear();
-			int bytesRead = seekableByteChannel.read(byteBuffer);
-			customTag = byteBuffer.array();
-			if (bytesRead < bufferLength) throw new IOException("Not enough bytes read");
-		}
+	/**
+	 * @return the number of bytes after the frames, and before any ID3v1 tag, to keep as the custom
+	 * tag, or -1 if there are none or the file is not being scanned
+	 */
+	int customTagReadLength() {
+		if (!scanFile) return -1;
+		long customTagLength = getLength() - (endOffset + 1);
+		if (hasId3v1Tag()) customTagLength -= ID3v1Tag.TAG_LENGTH;
+		// anything after the frames too long to hold in an array is not treated as a tag
+		if (customTagLength <= 0 || customTagLength > MAXIMUM_CUSTOM_TAG_LENGTH) return -1;
+		return (int) customTagLength;
+	}
+
+	byte[] customTagBytesFromTail(int length) {
+		long tailOffset = getLength() - tail.limit();
+		if (endOffset + 1 < tailOffset) return null;
+		int offset = (int) (endOffset + 1 - tailOffset);
+		return copyBytes(tail, offset, length);
+	}
+
+	void initCustomTag(byte[] bytes) {
+		customTag = bytes;
 	}
 
 	public int getFrameCount() {
 		return frameCount;
 	}
 
-	public int getStartOffset() {
+	public long getStartOffset() {
 		return startOffset;
 	}
 
-	public int getEndOffset() {
+	public long getEndOffset() {
 		return endOffset;
 	}
 
@@ -336,6 +1050,7 @@ public class Mp3File extends FileWrapper {
 	}
 
 	public boolean isVbr() {
+		if (vbrHeaderUsed) return vbrHeader.isVbr();
 		return bitrates.size() > 1;
 	}
 
@@ -383,7 +1098,7 @@ public class Mp3File extends FileWrapper {
 		return (xingOffset >= 0);
 	}
 
-	public int getXingOffset() {
+	public long getXingOffset() {
 		return xingOffset;
 	}
 
@@ -391,6 +1106,52 @@ public class Mp3File extends FileWrapper {
 		return xingBitrate;
 	}
 
+	public boolean hasVbrHeader() {
+		return vbrHeader != null;
+	}
+
+	public VbrHeader getVbrHeader() {
+		return vbrHeader;
+	}
+
+	public boolean isVbrHeaderUsed() {
+		return vbrHeaderUsed;
+	}
+
+	public boolean hasFrameIndex() {
+		return frameIndex != null;
+	}
+
+	public FrameIndex getFrameIndex() {
+		return frameIndex;
+	}
+
+	/**
+	 * @return the byte offset of the frame playing at the given time, or -1 if the time is past the end of the audio
+	 */
+	public long offsetForTimeMillis(long timeMillis) {
+		return requireFrameIndex().offsetForTimeMillis(timeMillis);
+	}
+
+	/**
+	 * @return the byte offset of the given frame, counting from 0 at the start offset
+	 */
+	public long frameAt(int frame) {
+		return requireFrameIndex().getFrameOffset(frame);
+	}
+
+	/**
+	 * @return the start time of the frame containing the given byte offset, or -1 if the offset is not in a frame
+	 */
+	public long timeForOffset(long offset) {
+		return requireFrameIndex().timeForOffset(offset);
+	}
+
+	private FrameIndex requireFrameIndex() {
+		if (frameIndex == null) throw new IllegalStateException("No frame index, open with Mp3FileOptions.setBuildFrameIndex(true)");
+		return frameIndex;
+	}
+
 	public boolean hasId3v1Tag() {
 		return id3v1Tag != null;
 	}
@@ -440,51 +1201,204 @@ public class Mp3File extends FileWrapper {
 	}
 
 	public void save(String newFilename) throws IOException, NotSupportedException {
-		if (path.toAbsolutePath().compareTo(Paths.get(newFilename).toAbsolutePath()) == 0) {
+		checkSaveSource();
+		if (path != null && path.toAbsolutePath().compareTo(Paths.get(newFilename).toAbsolutePath()) == 0) {
 			throw new IllegalArgumentException("Save filename same as source filename");
 		}
-		try (SeekableByteChannel saveFile = Files.newByteChannel(Paths.get(newFilename), EnumSet.of(StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
-			if (hasId3v2Tag()) {
-				ByteBuffer byteBuffer = ByteBuffer.wrap(id3v2Tag.toBytes());
-				byteBuffer.rewind();
-				saveFile.write(byteBuffer);
-			}
-			saveMpegFrames(saveFile);
-			if (hasCustomTag()) {
-				ByteBuffer byteBuffer = ByteBuffer.wrap(customTag);
-				byteBuffer.rewind();
-				saveFile.write(byteBuffer);
+		try (FileChannel saveFile = FileChannel.open(Paths.get(newFilename), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			save(saveFile);
+		}
+	}
+
+	/**
+	 * Saves the mp3 to a temporary file in the same directory as the new file and then moves it over
+	 * the new file in one atomic move, syncing to disk as the policy says, so that a crash leaves
+	 * either the old file or the new one. The new file can be the file the mp3 was read from, in
+	 * which case the offsets of this Mp3File are moved to match it. An existing file keeps its
+	 * permissions where the file system has POSIX permissions.
+	 */
+	public void save(String newFilename, DurabilityPolicy durabilityPolicy) throws IOException, NotSupportedException {
+		checkSaveSource();
+		Path newPath = Paths.get(newFilename).toAbsolutePath();
+		boolean overSource = path != null && path.toAbsolutePath().compareTo(newPath) == 0;
+		long framesOffset = mpegFramesOffset();
+		Path directory = newPath.getParent();
+		Path tempPath = directory.resolve("." + newPath.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+		try {
+			try (FileChannel saveFile = FileChannel.open(tempPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+				save(saveFile);
+				durabilityPolicy.written(saveFile);
 			}
-			if (hasId3v1Tag()) {
-				ByteBuffer byteBuffer = ByteBuffer.wrap(id3v1Tag.toBytes());
-				byteBuffer.rewind();
-				saveFile.write(byteBuffer);
+			if (Files.exists(newPath) && Files.getFileStore(newPath).supportsFileAttributeView(PosixFileAttributeView.class)) {
+				Files.setPosixFilePermissions(tempPath, Files.getPosixFilePermissions(newPath));
 			}
-			saveFile.close();
+			Files.move(tempPath, newPath, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempPath);
+		}
+		durabilityPolicy.moved(directory);
+		if (overSource && framesOffset >= 0) {
+			moveOffsets(framesOffset);
+		}
+	}
+
+	/**
+	 * Writes the mp3, with its current tags, to the channel, which is left open. The channel can be
+	 * over an in-memory sink, such as {@link Channels#newChannel(java.io.OutputStream)} over a
+	 * ByteArrayOutputStream.
+	 * <p>
+	 * The frames of a file are copied with {@link FileChannel#transferTo}, so that the kernel can copy
+	 * them without passing them through the heap, and the tags after the frames are written in one
+	 * gathering write. An mp3 held in memory is written whole in one gathering write.
+	 */
+	public void save(WritableByteChannel saveFile) throws IOException, NotSupportedException {
+		checkSaveSource();
+		ByteBuffer[] id3v2Buffers = id3v2TagBuffers();
+		ByteBuffer customBytes = ByteBuffer.wrap(hasCustomTag() ? customTag : new byte[0]);
+		ByteBuffer id3v1Bytes = ByteBuffer.wrap(hasId3v1Tag() ? id3v1Tag.toBytes() : new byte[0]);
+		long filePos = mpegFramesOffset();
+		if (source != null) {
+			ByteBuffer[] buffers = Arrays.copyOf(id3v2Buffers, id3v2Buffers.length + 3);
+			buffers[id3v2Buffers.length] = filePos >= 0 ? slice(filePos, (int) (endOffset - filePos + 1)) : ByteBuffer.allocate(0);
+			buffers[id3v2Buffers.length + 1] = customBytes;
+			buffers[id3v2Buffers.length + 2] = id3v1Bytes;
+			BufferTools.writeFully(saveFile, buffers);
+			return;
+		}
+		BufferTools.writeFully(saveFile, id3v2Buffers);
+		if (filePos >= 0) {
+			saveMpegFrames(saveFile, filePos);
 		}
+		BufferTools.writeFully(saveFile, customBytes, id3v1Bytes);
+	}
+
+	/**
+	 * Writes the current tags back to the file the mp3 was read from. When the ID3v2 tag fits in
+	 * the bytes before the frames, which are the old tag and its padding, only those bytes are
+	 * overwritten, with the rest of them taken up by padding, and the custom and ID3v1 tags are
+	 * written after the frames and the file cut to length, so the frames are neither read nor
+	 * written. When the tag does not fit, the file is saved to a temporary file beside it that is
+	 * then moved over it. Either way the offsets of this Mp3File are kept in step with the file.
+	 *
+	 * @return true if the file was updated in place, false if it was rewritten
+	 */
+	public boolean update() throws IOException, NotSupportedException {
+		return update(DurabilityPolicy.none());
+	}
+
+	/**
+	 * Updates the file as {@link #update()} does, syncing to disk as the policy says. A rewrite is
+	 * made as {@link #save(String, DurabilityPolicy)} makes it, so is atomic. An update in place is
+	 * not, but writes nothing but the tags, so a crash part way through can leave a tag damaged but
+	 * not the frames.
+	 */
+	public boolean update(DurabilityPolicy durabilityPolicy) throws IOException, NotSupportedException {
+		if (path == null) throw new NotSupportedException("No source file to update");
+		// a file rewritten to the same length would otherwise have the tags written at stale offsets
+		if (Files.size(path) != getLength() || Files.getLastModifiedTime(path).to(TimeUnit.MILLISECONDS) != lastModified) {
+			throw new IOException("File changed since it was read");
+		}
+		long framesOffset = mpegFramesOffset();
+		if (framesOffset < 0) throw new NotSupportedException("No mpeg frames to update around");
+		byte[] id3v2Bytes = id3v2TagBytesToFit((int) Math.min(Integer.MAX_VALUE, framesOffset));
+		if (id3v2Bytes == null) {
+			save(path.toString(), durabilityPolicy);
+			return false;
+		}
+		try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			fileChannel.position(0);
+			BufferTools.writeFully(fileChannel, ByteBuffer.wrap(id3v2Bytes));
+			fileChannel.position(endOffset + 1);
+			BufferTools.writeFully(fileChannel, ByteBuffer.wrap(hasCustomTag() ? customTag : new byte[0]), ByteBuffer.wrap(hasId3v1Tag() ? id3v1Tag.toBytes() : new byte[0]));
+			fileChannel.truncate(fileChannel.position());
+			durabilityPolicy.written(fileChannel);
+			length = fileChannel.position();
+		}
+		lastModified = Files.getLastModifiedTime(path).to(TimeUnit.MILLISECONDS);
+		if (id3v2Tag instanceof AbstractID3v2Tag) {
+			AbstractID3v2Tag tag = (AbstractID3v2Tag) id3v2Tag;
+			tag.setPreviousPaddingLength(Math.max(0, id3v2Bytes.length - tag.getUnpaddedLength()));
+		}
+		return true;
+	}
+
+	/**
+	 * @return the ID3v2 tag packed into exactly the length, with padding after its frames, or null
+	 * if it does not fit
+	 */
+	private byte[] id3v2TagBytesToFit(int length) throws NotSupportedException {
+		if (!hasId3v2Tag()) return length == 0 ? new byte[0] : null;
+		byte[] tagBytes = id3v2Tag.toBytes();
+		if (tagBytes.length == length) return tagBytes;
+		// the padding the policy asked for gives way to fit the tag in place
+		int unpaddedLength = id3v2Tag instanceof AbstractID3v2Tag ? ((AbstractID3v2Tag) id3v2Tag).getUnpaddedLength() : tagBytes.length;
+		// padding is not allowed along with a footer
+		if (unpaddedLength > length || id3v2Tag.hasFooter() || length - AbstractID3v2Tag.HEADER_LENGTH > MAXIMUM_SYNCHSAFE_INTEGER) return null;
+		byte[] bytes = Arrays.copyOf(tagBytes, length);
+		BufferTools.packSynchsafeInteger(length - AbstractID3v2Tag.HEADER_LENGTH, bytes, AbstractID3v2Tag.DATA_LENGTH_OFFSET);
+		return bytes;
+	}
+
+	/**
+	 * Moves the offsets of the frames to where they are in the file as saved over the source, with
+	 * the frames that were at the offset now straight after the ID3v2 tag.
+	 */
+	private void moveOffsets(long framesOffset) throws IOException {
+		long delta = (hasId3v2Tag() ? id3v2Tag.getLength() : 0) - framesOffset;
+		if (xingOffset >= 0) xingOffset += delta;
+		if (startOffset >= 0) startOffset += delta;
+		endOffset += delta;
+		if (frameIndex != null) frameIndex = frameIndex.moved(delta);
+		length = Files.size(path);
+		lastModified = Files.getLastModifiedTime(path).to(TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return the ID3v2 tag as buffers to write, which hold the data of its frames without copying
+	 * it where the tag is an AbstractID3v2Tag
+	 */
+	private ByteBuffer[] id3v2TagBuffers() throws NotSupportedException {
+		if (!hasId3v2Tag()) return new ByteBuffer[0];
+		if (id3v2Tag instanceof AbstractID3v2Tag) return ((AbstractID3v2Tag) id3v2Tag).toByteBuffers();
+		return new ByteBuffer[]{ByteBuffer.wrap(id3v2Tag.toBytes())};
+	}
+
+	private void checkSaveSource() throws NotSupportedException {
+		if (path == null && source == null && byteSource == null) throw new NotSupportedException("No source file to save mpeg frames from");
 	}
 
-	private void saveMpegFrames(SeekableByteChannel saveFile) throws IOException {
-		int filePos = xingOffset;
+	/**
+	 * @return the offset of the first frame to save, which is the Xing frame if there is one, or -1
+	 * if there are no frames
+	 */
+	private long mpegFramesOffset() {
+		long filePos = xingOffset;
 		if (filePos < 0) filePos = startOffset;
-		if (filePos < 0) return;
-		if (endOffset < filePos) return;
+		if (filePos < 0 || endOffset < filePos) return -1;
+		return filePos;
+	}
+
+	private void saveMpegFrames(WritableByteChannel saveFile, long filePos) throws IOException {
+		if (byteSource == null) {
+			try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+				while (filePos <= endOffset) {
+					long transferred = fileChannel.transferTo(filePos, endOffset - filePos + 1, saveFile);
+					if (transferred <= 0) throw new IOException("Not enough bytes read");
+					filePos += transferred;
+				}
+			}
+			return;
+		}
 		ByteBuffer byteBuffer = ByteBuffer.allocate(bufferLength);
-		try (SeekableByteChannel seekableByteChannel = Files.newByteChannel(path, StandardOpenOption.READ)) {
+		try (SeekableByteChannel seekableByteChannel = newReadPlanner()) {
 			seekableByteChannel.position(filePos);
-			while (true) {
+			while (filePos <= endOffset) {
 				byteBuffer.clear();
-				int bytesRead = seekableByteChannel.read(byteBuffer);
-				byteBuffer.rewind();
-				if (filePos + bytesRead <= endOffset) {
-					byteBuffer.limit(bytesRead);
-					saveFile.write(byteBuffer);
-					filePos += bytesRead;
-				} else {
-					byteBuffer.limit(endOffset - filePos + 1);
-					saveFile.write(byteBuffer);
-					break;
-				}
+				byteBuffer.limit((int) Math.min(bufferLength, endOffset - filePos + 1));
+				if (seekableByteChannel.read(byteBuffer) <= 0) throw new IOException("Not enough bytes read");
+				byteBuffer.flip();
+				filePos += byteBuffer.remaining();
+				BufferTools.writeFully(saveFile, byteBuffer);
 			}
 		}
 	}
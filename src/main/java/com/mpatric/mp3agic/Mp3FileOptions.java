@@ -0,0 +1,156 @@
+package com.mpatric.mp3agic;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.LongSupplier;
+
+public class Mp3FileOptions {
+
+	public static final int DEFAULT_BUFFER_LENGTH = 65536;
+	public static final int DEFAULT_MAPPED_WINDOW_LENGTH = 64 * 1024 * 1024;
+	public static final int DEFAULT_PARALLEL_CHUNK_LENGTH = 4 * 1024 * 1024;
+	public static final int DEFAULT_MAXIMUM_READ_AHEAD_LENGTH = 16 * 1024 * 1024;
+
+	private int bufferLength = DEFAULT_BUFFER_LENGTH;
+	private boolean scanFile = true;
+	private boolean useVbrHeader = false;
+	private boolean memoryMapped = false;
+	private int mappedWindowLength = DEFAULT_MAPPED_WINDOW_LENGTH;
+	private boolean buildFrameIndex = false;
+	private boolean skipConstantBitrateFrames = false;
+	private ForkJoinPool forkJoinPool;
+	private int parallelChunkLength = DEFAULT_PARALLEL_CHUNK_LENGTH;
+	private int maximumReadAheadLength = DEFAULT_MAXIMUM_READ_AHEAD_LENGTH;
+	private LongSupplier nanoClock = System::nanoTime;
+
+	public Mp3FileOptions() {
+	}
+
+	public Mp3FileOptions(int bufferLength, boolean scanFile) {
+		this.bufferLength = bufferLength;
+		this.scanFile = scanFile;
+	}
+
+	public int getBufferLength() {
+		return bufferLength;
+	}
+
+	public void setBufferLength(int bufferLength) {
+		this.bufferLength = bufferLength;
+	}
+
+	public boolean getScanFile() {
+		return scanFile;
+	}
+
+	public void setScanFile(boolean scanFile) {
+		this.scanFile = scanFile;
+	}
+
+	/**
+	 * When set, the frame count, duration and average bitrate are taken from a Xing/Info or VBRI
+	 * header if the file has one that agrees with the file size, and the mpeg frames are only
+	 * scanned if it does not.
+	 */
+	public boolean getUseVbrHeader() {
+		return useVbrHeader;
+	}
+
+	public void setUseVbrHeader(boolean useVbrHeader) {
+		this.useVbrHeader = useVbrHeader;
+	}
+
+	/**
+	 * When set, the mpeg frames are scanned through read-only memory mappings of the file, one
+	 * window of {@link #getMappedWindowLength()} bytes at a time, instead of being read into a heap
+	 * buffer. Files that are not on the default file system are still read into a heap buffer.
+	 */
+	public boolean getMemoryMapped() {
+		return memoryMapped;
+	}
+
+	public void setMemoryMapped(boolean memoryMapped) {
+		this.memoryMapped = memoryMapped;
+	}
+
+	public int getMappedWindowLength() {
+		return mappedWindowLength;
+	}
+
+	public void setMappedWindowLength(int mappedWindowLength) {
+		this.mappedWindowLength = mappedWindowLength;
+	}
+
+	/**
+	 * When set, the offset of every frame is recorded while scanning so that {@link Mp3File} can
+	 * map between times and byte offsets. Building the index always scans the whole file.
+	 */
+	public boolean getBuildFrameIndex() {
+		return buildFrameIndex;
+	}
+
+	public void setBuildFrameIndex(boolean buildFrameIndex) {
+		this.buildFrameIndex = buildFrameIndex;
+	}
+
+	/**
+	 * When set, runs of frames with the same bitrate are stepped over several dozen frames at a time,
+	 * checking only the frames where each step lands, and are scanned frame by frame again wherever
+	 * a check fails. Frame count, length and bitrate are the same as a full scan for any file whose
+	 * frames are all intact, but damage wholly inside a skipped run is not noticed. Ignored when
+	 * building a frame index.
+	 */
+	public boolean getSkipConstantBitrateFrames() {
+		return skipConstantBitrateFrames;
+	}
+
+	public void setSkipConstantBitrateFrames(boolean skipConstantBitrateFrames) {
+		this.skipConstantBitrateFrames = skipConstantBitrateFrames;
+	}
+
+	/**
+	 * When set, the mpeg frames after the start frame are scanned in chunks of
+	 * {@link #getParallelChunkLength()} bytes on this pool, checking every frame, and the chunks
+	 * are joined up so that the results are the same as those of the sequential scan. Files that
+	 * are not on the default file system, and scans that build a frame index, are scanned
+	 * sequentially.
+	 */
+	public ForkJoinPool getForkJoinPool() {
+		return forkJoinPool;
+	}
+
+	public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+		this.forkJoinPool = forkJoinPool;
+	}
+
+	public int getParallelChunkLength() {
+		return parallelChunkLength;
+	}
+
+	public void setParallelChunkLength(int parallelChunkLength) {
+		this.parallelChunkLength = parallelChunkLength;
+	}
+
+	/**
+	 * The most that the read-ahead grows to when reading from a {@link ByteSource}, and so the
+	 * longest range the source is asked for, other than one carried on to meet the tail.
+	 */
+	public int getMaximumReadAheadLength() {
+		return maximumReadAheadLength;
+	}
+
+	public void setMaximumReadAheadLength(int maximumReadAheadLength) {
+		this.maximumReadAheadLength = maximumReadAheadLength;
+	}
+
+	/**
+	 * The clock, in nanoseconds, that the throughput of reads from a {@link ByteSource} is timed
+	 * against, which tests replace with a simulated one.
+	 */
+	LongSupplier getNanoClock() {
+		return nanoClock;
+	}
+
+	void setNanoClock(LongSupplier nanoClock) {
+		this.nanoClock = nanoClock;
+	}
+}
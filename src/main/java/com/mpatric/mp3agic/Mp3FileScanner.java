@@ -0,0 +1,152 @@
+package com.mpatric.mp3agic;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Scans an mp3 a block at a time instead of all at once as the {@link Mp3File} constructors do, so
+ * that the work done on a file can be capped, reported on or cancelled. The frame count, offsets and
+ * bitrates found so far can be read at any point, and a {@link ScanCheckpoint} taken at any point
+ * lets a later scanner carry on from where this one stopped. Once the scan is complete the tags are
+ * read and the finished Mp3File is available from {@link #getMp3File()}.
+ */
+public class Mp3FileScanner implements Closeable {
+
+	private final Mp3File mp3File;
+	private final SeekableByteChannel seekableByteChannel;
+	private final long lastModified;
+	private boolean complete;
+
+	public Mp3FileScanner(String filename, Mp3FileOptions options) throws IOException, InvalidDataException {
+		this(Paths.get(filename), options, null);
+	}
+
+	public Mp3FileScanner(File file, Mp3FileOptions options) throws IOException, InvalidDataException {
+		this(file.toPath(), options, null);
+	}
+
+	public Mp3FileScanner(Path path, Mp3FileOptions options) throws IOException, InvalidDataException {
+		this(path, options, null);
+	}
+
+	/**
+	 * Carries on scanning from the checkpoint, which must have been taken from a scanner of the same
+	 * file, unchanged since, and with the same options.
+	 */
+	public Mp3FileScanner(Path path, Mp3FileOptions options, ScanCheckpoint checkpoint) throws IOException, InvalidDataException {
+		lastModified = Files.getLastModifiedTime(path).toMillis();
+		if (checkpoint != null && (checkpoint.getLength() != Files.size(path) || checkpoint.getLastModified() != lastModified)) {
+			throw new IllegalArgumentException("File has changed since checkpoint was taken");
+		}
+		seekableByteChannel = Files.newByteChannel(path, StandardOpenOption.READ);
+		try {
+			mp3File = new Mp3File(path, options, seekableByteChannel, checkpoint);
+		} catch (IOException | InvalidDataException | RuntimeException e) {
+			seekableByteChannel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Scans blocks until at least maxBytes have been read or the scan is complete, in which case the
+	 * tags are read and the file is closed. At least one block is always scanned.
+	 *
+	 * @return true once the scan is complete
+	 */
+	public boolean advance(long maxBytes) throws IOException, UnsupportedTagException, InvalidDataException {
+		if (complete) return true;
+		long limit = mp3File.getScannedByteCount() + maxBytes;
+		do {
+			if (mp3File.scanStep(seekableByteChannel)) {
+				try {
+					mp3File.finishInit(seekableByteChannel);
+				} finally {
+					close();
+				}
+				complete = true;
+				return true;
+			}
+		} while (mp3File.getScannedByteCount() < limit);
+		return false;
+	}
+
+	/**
+	 * Scans block by block until the scan is complete or cancelled is set, calling the listener, if
+	 * there is one, after each block.
+	 *
+	 * @return true if the scan is complete, or false if it was cancelled first
+	 */
+	public boolean run(ScanProgressListener listener, AtomicBoolean cancelled) throws IOException, UnsupportedTagException, InvalidDataException {
+		while (!complete) {
+			if (cancelled != null && cancelled.get()) return false;
+			advance(1);
+			if (listener != null) listener.scanProgress(this);
+		}
+		return true;
+	}
+
+	public ScanCheckpoint checkpoint() {
+		return mp3File.createCheckpoint(lastModified);
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * @return the offset in the file that scanning carries on from
+	 */
+	public long getPosition() {
+		return complete ? mp3File.getLength() : mp3File.getScanOffset();
+	}
+
+	public long getLength() {
+		return mp3File.getLength();
+	}
+
+	public long getScannedByteCount() {
+		return mp3File.getScannedByteCount();
+	}
+
+	public long getStartOffset() {
+		return mp3File.getStartOffset();
+	}
+
+	public long getEndOffset() {
+		return mp3File.getEndOffset();
+	}
+
+	public int getFrameCount() {
+		return mp3File.getFrameCount();
+	}
+
+	public int getBitrate() {
+		return mp3File.getBitrate();
+	}
+
+	public Map<Integer, MutableInteger> getBitrates() {
+		return mp3File.getBitrates();
+	}
+
+	/**
+	 * @return the finished Mp3File
+	 * @throws IllegalStateException if the scan is not complete
+	 */
+	public Mp3File getMp3File() {
+		if (!complete) throw new IllegalStateException("Scan not complete");
+		return mp3File;
+	}
+
+	@Override
+	public void close() throws IOException {
+		seekableByteChannel.close();
+	}
+}
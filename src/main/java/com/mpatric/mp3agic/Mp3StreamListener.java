@@ -0,0 +1,23 @@
+package com.mpatric.mp3agic;
+
+import java.nio.ByteBuffer;
+
+public interface Mp3StreamListener {
+
+	/**
+	 * Called by {@link Mp3StreamParser} for each complete frame. The header can be decoded with the
+	 * static methods of {@link MpegFrame}. The frame is the length bytes at index in bytes, which are
+	 * only valid until the call returns; the position and limit of bytes are not to be relied on or
+	 * changed.
+	 *
+	 * @param streamOffset the offset of the frame from the start of the stream
+	 */
+	void frame(long streamOffset, int frameHeader, ByteBuffer bytes, int index, int length);
+
+	/**
+	 * Called by {@link Mp3StreamParser} for each ID3v2 tag in the stream once all of it has arrived.
+	 *
+	 * @param streamOffset the offset of the tag from the start of the stream
+	 */
+	void id3v2Tag(long streamOffset, ID3v2 tag);
+}
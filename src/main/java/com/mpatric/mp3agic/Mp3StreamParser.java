@@ -0,0 +1,273 @@
+package com.mpatric.mp3agic;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parses an mp3 stream with no end, such as live radio, from chunks of any size pushed to it as
+ * they arrive, telling a {@link Mp3StreamListener} about each frame and ID3v2 tag as soon as the
+ * whole of it has arrived. Frames are passed on from the chunk they are in, so only the bytes of a
+ * frame or tag split across chunks are kept between calls, and nothing is allocated for a chunk
+ * other than for the tags in it. Nothing blocks, so the parser can be fed from a non-blocking event
+ * loop, one parser per stream.
+ * <p>
+ * The parser syncs to a frame once the frame after it has a consistent header, then takes each frame
+ * with a header consistent with that first one until one is not, when it looks for sync again. The
+ * bytes skipped while out of sync are counted.
+ */
+public class Mp3StreamParser {
+
+	public static final int DEFAULT_MAXIMUM_TAG_LENGTH = 1 << 20;
+
+	private static final int FRAME_HEADER_LENGTH = 4;
+	private static final int ID3V2_TAG_ID = ('I' << 16) | ('D' << 8) | '3';
+	// longer than any mpeg frame along with the header of the frame after it
+	private static final int PENDING_LENGTH = 8192;
+
+	private final Mp3StreamListener listener;
+	private final int maximumTagLength;
+	private final byte[] pending = new byte[PENDING_LENGTH];
+	private final ByteBuffer pendingBuffer = ByteBuffer.wrap(pending);
+	private final byte[] tagHeader = new byte[AbstractID3v2Tag.HEADER_LENGTH];
+
+	// the offset in the stream of the first byte not yet parsed, which is the first pending byte
+	private long position;
+	private int pendingLength;
+	// the number of bytes from the first pending byte needed before parsing can go further
+	private int needed = FRAME_HEADER_LENGTH;
+	private boolean synced;
+	private int referenceFrameHeader;
+	private long tagOffset;
+	private byte[] tag;
+	private int tagLength;
+	private int tagRemaining;
+	private long frameCount;
+	private long tagCount;
+	private long skippedByteCount;
+
+	public Mp3StreamParser(Mp3StreamListener listener) {
+		this(listener, DEFAULT_MAXIMUM_TAG_LENGTH);
+	}
+
+	/**
+	 * @param maximumTagLength the length of the longest ID3v2 tag to collect and parse, beyond which
+	 * tags are skipped
+	 */
+	public Mp3StreamParser(Mp3StreamListener listener, int maximumTagLength) {
+		if (listener == null) throw new IllegalArgumentException("Listener required");
+		if (maximumTagLength < 0) throw new IllegalArgumentException("Maximum tag length negative");
+		this.listener = listener;
+		this.maximumTagLength = maximumTagLength;
+	}
+
+	/**
+	 * Parses the remaining bytes of the chunk, which are all consumed. Those of a frame or tag that is
+	 * not yet complete are kept until the chunks that complete it are fed.
+	 */
+	public void feed(ByteBuffer bytes) {
+		while (true) {
+			if (tagRemaining > 0) {
+				if (pendingLength > 0) {
+					int taken = takeTagBytes(pendingBuffer, 0, pendingLength);
+					removePending(taken);
+				} else if (bytes.hasRemaining()) {
+					int taken = takeTagBytes(bytes, bytes.position(), bytes.remaining());
+					bytes.position(bytes.position() + taken);
+				} else {
+					return;
+				}
+			} else if (pendingLength > 0) {
+				int previousPendingLength = pendingLength;
+				int added = Math.min(bytes.remaining(), needed - pendingLength);
+				bytes.get(pending, pendingLength, added);
+				pendingLength += added;
+				if (pendingLength < needed) return;
+				int parsed = parse(pendingBuffer, 0, pendingLength);
+				if (parsed >= previousPendingLength) {
+					// what is left over came from the chunk, so is parsed from there
+					bytes.position(bytes.position() - (pendingLength - parsed));
+					pendingLength = 0;
+				} else {
+					bytes.position(bytes.position() - added);
+					pendingLength = previousPendingLength;
+					removePending(parsed);
+				}
+			} else {
+				if (!bytes.hasRemaining()) return;
+				int parsed = parse(bytes, bytes.position(), bytes.limit());
+				bytes.position(bytes.position() + parsed);
+				if (tagRemaining == 0) {
+					pendingLength = bytes.remaining();
+					bytes.get(pending, 0, pendingLength);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Parses frames and the starts of tags from index up to limit, stopping when the next of them
+	 * is not complete or a tag starts.
+	 *
+	 * @return the number of bytes parsed
+	 */
+	private int parse(ByteBuffer bytes, int index, int limit) {
+		int offset = index;
+		while (true) {
+			int available = limit - offset;
+			if (available < FRAME_HEADER_LENGTH) {
+				needed = FRAME_HEADER_LENGTH;
+				break;
+			}
+			int frameHeader = getInt(bytes, offset);
+			if (frameHeader >>> 8 == ID3V2_TAG_ID) {
+				if (available < AbstractID3v2Tag.HEADER_LENGTH) {
+					needed = AbstractID3v2Tag.HEADER_LENGTH;
+					break;
+				}
+				int length = id3v2TagLength(bytes, offset);
+				if (length > 0) {
+					beginTag(position + offset - index, length);
+					break;
+				}
+			}
+			int frameLength = MpegFrame.lengthInBytes(frameHeader);
+			if (synced) {
+				if (frameLength != 0 && MpegFrame.isConsistentHeader(frameHeader, referenceFrameHeader)) {
+					if (available < frameLength) {
+						needed = frameLength;
+						break;
+					}
+					frameCount++;
+					listener.frame(position + offset - index, frameHeader, bytes, offset, frameLength);
+					offset += frameLength;
+					continue;
+				}
+				synced = false;
+			}
+			if (frameLength != 0) {
+				if (available < frameLength + FRAME_HEADER_LENGTH) {
+					needed = frameLength + FRAME_HEADER_LENGTH;
+					break;
+				}
+				int nextFrameHeader = getInt(bytes, offset + frameLength);
+				if (MpegFrame.lengthInBytes(nextFrameHeader) != 0 && MpegFrame.isConsistentHeader(nextFrameHeader, frameHeader)) {
+					synced = true;
+					referenceFrameHeader = frameHeader;
+					continue;
+				}
+			}
+			offset++;
+			skippedByteCount++;
+		}
+		position += offset - index;
+		return offset - index;
+	}
+
+	/**
+	 * @return the length of the tag, including any footer, with its header at offset, or 0 if that
+	 * is not a valid tag header
+	 */
+	private int id3v2TagLength(ByteBuffer bytes, int offset) {
+		for (int i = 0; i < tagHeader.length; i++) {
+			tagHeader[i] = bytes.get(offset + i);
+		}
+		int length = Mp3File.id3v2TagLength(tagHeader);
+		if (length > 0 && (tagHeader[AbstractID3v2Tag.FLAGS_OFFSET] & (1 << AbstractID3v2Tag.FOOTER_BIT)) != 0) {
+			length += AbstractID3v2Tag.FOOTER_LENGTH;
+		}
+		return length;
+	}
+
+	private void beginTag(long offset, int length) {
+		tagOffset = offset;
+		tagLength = length;
+		tagRemaining = length;
+		if (length <= maximumTagLength) {
+			tag = new byte[length];
+		} else {
+			skippedByteCount += length;
+		}
+	}
+
+	private int takeTagBytes(ByteBuffer bytes, int index, int length) {
+		int taken = Math.min(length, tagRemaining);
+		if (tag != null) {
+			int tagIndex = tagLength - tagRemaining;
+			for (int i = 0; i < taken; i++) {
+				tag[tagIndex + i] = bytes.get(index + i);
+			}
+		}
+		tagRemaining -= taken;
+		position += taken;
+		if (tagRemaining == 0 && tag != null) {
+			endTag();
+		}
+		return taken;
+	}
+
+	private void endTag() {
+		byte[] bytes = tag;
+		tag = null;
+		try {
+			ID3v2 id3v2Tag = ID3v2TagFactory.createTag(bytes, false);
+			tagCount++;
+			listener.id3v2Tag(tagOffset, id3v2Tag);
+		} catch (NoSuchTagException | UnsupportedTagException | InvalidDataException e) {
+			skippedByteCount += bytes.length;
+		}
+	}
+
+	private void removePending(int length) {
+		System.arraycopy(pending, length, pending, 0, pendingLength - length);
+		pendingLength -= length;
+	}
+
+	private static int getInt(ByteBuffer bytes, int index) {
+		// read big-endian whatever the order of the chunk
+		return (bytes.get(index) & 0xFF) << 24 | (bytes.get(index + 1) & 0xFF) << 16
+				| (bytes.get(index + 2) & 0xFF) << 8 | (bytes.get(index + 3) & 0xFF);
+	}
+
+	/**
+	 * Drops any partial frame or tag and sync, for the stream to carry on from a new connection.
+	 */
+	public void reset() {
+		position += pendingLength;
+		pendingLength = 0;
+		needed = FRAME_HEADER_LENGTH;
+		synced = false;
+		tag = null;
+		tagRemaining = 0;
+	}
+
+	public boolean isSynced() {
+		return synced;
+	}
+
+	/**
+	 * @return the offset in the stream of the first byte not yet parsed, which is the first byte of
+	 * any partial frame held, or else the next byte to be fed
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * @return the number of bytes of a partial frame, or of a partial tag, held between feeds
+	 */
+	public int getPendingByteCount() {
+		return tag != null ? tagLength - tagRemaining + pendingLength : pendingLength;
+	}
+
+	public long getFrameCount() {
+		return frameCount;
+	}
+
+	public long getTagCount() {
+		return tagCount;
+	}
+
+	public long getSkippedByteCount() {
+		return skippedByteCount;
+	}
+}
@@ -25,6 +25,15 @@ public class MpegFrame {
 	public static final String EMPHASIS_NONE = "None";
 	public static final String EMPHASIS__50_15_MS = "50/15 ms";
 	public static final String EMPHASIS_CCITT_J_17 = "CCITT J.17";
+	// header bits that must be the same in every frame of a file: sync, version, layer and sample rate
+	public static final int HEADER_CONSISTENCY_MASK = 0xFFFE0C00;
+	public static final int HEADER_VALID = 0;
+	public static final int HEADER_FRAME_SYNC_MISSING = 1;
+	public static final int HEADER_INVALID_VERSION = 2;
+	public static final int HEADER_INVALID_LAYER = 3;
+	public static final int HEADER_INVALID_BITRATE = 4;
+	public static final int HEADER_INVALID_SAMPLE_RATE = 5;
+	public static final int HEADER_INVALID_EMPHASIS = 6;
 
 	private static final int FRAME_DATA_LENGTH = 4;
 	private static final int FRAME_SYNC = 0x7FF;
@@ -41,6 +50,29 @@ public class MpegFrame {
 	private static final long BITMASK_COPYRIGHT = 0x8L;
 	private static final long BITMASK_ORIGINAL = 0x4L;
 	private static final long BITMASK_EMPHASIS = 0x3L;
+	private static final int HEADER_FRAME_SYNC = 0xFFE00000;
+	private static final int HEADER_EMPHASIS_RESERVED = 0x2;
+	private static final int DECODE_TABLE_SHIFT = 9;
+	private static final int DECODE_TABLE_MASK = 0xFFF;
+	private static final int DECODE_TABLE_LENGTH_MASK = 0xFFFF;
+	private static final int DECODE_TABLE_BITRATE_SHIFT = 16;
+
+	// indexed by the version bits of the header, then by the sample rate bits
+	private static final int[][] SAMPLE_RATES = {
+			{11025, 12000, 8000, 0},
+			{0, 0, 0, 0},
+			{22050, 24000, 16000, 0},
+			{44100, 48000, 32000, 0}};
+	// indexed by mpeg version 1 layers I to III then mpeg version 2/2.5 layers I to III, then by the bitrate bits of the header
+	private static final int[][] BITRATES = {
+			{0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448, 0},
+			{0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384, 0},
+			{0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 0},
+			{0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256, 0},
+			{0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160, 0},
+			{0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160, 0}};
+	// bitrate and frame length for every combination of the version, layer, protection, bitrate, sample rate and padding bits, 0 if invalid
+	private static final int[] DECODE_TABLE = createDecodeTable();
 
 	private String version;
 	private int layer;
@@ -69,6 +101,94 @@ public class MpegFrame {
 	protected MpegFrame() {
 	}
 
+	public MpegFrame(int frameHeader) throws InvalidDataException {
+		setFields(frameHeader & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @return the frame for a header already found valid by {@link #isValidHeader(int)}, with no
+	 * checked exception to catch
+	 */
+	static MpegFrame ofValidHeader(int frameHeader) {
+		if (!isValidHeader(frameHeader)) throw new IllegalArgumentException("Invalid frame header");
+		try {
+			return new MpegFrame(frameHeader);
+		} catch (InvalidDataException e) {
+			throw new IllegalStateException("Valid frame header rejected", e);
+		}
+	}
+
+	private static int[] createDecodeTable() {
+		int[] table = new int[DECODE_TABLE_MASK + 1];
+		for (int i = 0; i < table.length; i++) {
+			int version = (i >> 10) & 0x3;
+			int layer = 4 - ((i >> 8) & 0x3);
+			int bitrateIndex = (i >> 3) & 0xF;
+			int sampleRate = SAMPLE_RATES[version][(i >> 1) & 0x3];
+			int padding = i & 0x1;
+			if (layer == 4 || sampleRate == 0) continue;
+			int bitrate = BITRATES[(version == 3 ? 0 : 3) + layer - 1][bitrateIndex];
+			if (bitrate == 0) continue;
+			int length;
+			if (layer == 1) {
+				length = ((48000 * bitrate) / sampleRate) + (padding * 4);
+			} else {
+				length = ((144000 * bitrate) / sampleRate) + padding;
+			}
+			table[i] = (bitrate << DECODE_TABLE_BITRATE_SHIFT) | length;
+		}
+		return table;
+	}
+
+	private static int decode(int frameHeader) {
+		if ((frameHeader & HEADER_FRAME_SYNC) != HEADER_FRAME_SYNC) return 0;
+		if ((frameHeader & (int) BITMASK_EMPHASIS) == HEADER_EMPHASIS_RESERVED) return 0;
+		return DECODE_TABLE[(frameHeader >>> DECODE_TABLE_SHIFT) & DECODE_TABLE_MASK];
+	}
+
+	public static boolean isValidHeader(int frameHeader) {
+		return decode(frameHeader) != 0;
+	}
+
+	/**
+	 * Validates a frame header without constructing a frame or throwing.
+	 *
+	 * @return {@link #HEADER_VALID}, or the HEADER_ status of the first field that is not valid, in
+	 * the same order as the checks made by {@link #MpegFrame(int)}
+	 */
+	public static int checkHeader(int frameHeader) {
+		if (decode(frameHeader) != 0) return HEADER_VALID;
+		if ((frameHeader & HEADER_FRAME_SYNC) != HEADER_FRAME_SYNC) return HEADER_FRAME_SYNC_MISSING;
+		if (((frameHeader >>> 19) & 0x3) == 1) return HEADER_INVALID_VERSION;
+		if (((frameHeader >>> 17) & 0x3) == 0) return HEADER_INVALID_LAYER;
+		int bitrateIndex = (frameHeader >>> 12) & 0xF;
+		if (bitrateIndex == 0 || bitrateIndex == 0xF) return HEADER_INVALID_BITRATE;
+		if (((frameHeader >>> 10) & 0x3) == 0x3) return HEADER_INVALID_SAMPLE_RATE;
+		return HEADER_INVALID_EMPHASIS;
+	}
+
+	/**
+	 * @return the length in bytes of the frame with the given header, or 0 if the header is not valid
+	 */
+	public static int lengthInBytes(int frameHeader) {
+		return decode(frameHeader) & DECODE_TABLE_LENGTH_MASK;
+	}
+
+	/**
+	 * @return the bitrate in kbps of the frame with the given header, or 0 if the header is not valid
+	 */
+	public static int bitrate(int frameHeader) {
+		return decode(frameHeader) >>> DECODE_TABLE_BITRATE_SHIFT;
+	}
+
+	public static int sampleRate(int frameHeader) {
+		return SAMPLE_RATES[(frameHeader >>> 19) & 0x3][(frameHeader >>> 10) & 0x3];
+	}
+
+	public static boolean isConsistentHeader(int frameHeader, int referenceFrameHeader) {
+		return (frameHeader & HEADER_CONSISTENCY_MASK) == (referenceFrameHeader & HEADER_CONSISTENCY_MASK);
+	}
+
 	private void setFields(long frameHeader) throws InvalidDataException {
 		long frameSync = extractField(frameHeader, BITMASK_FRAME_SYNC);
 		if (frameSync != FRAME_SYNC) throw new InvalidDataException("Frame sync missing");
@@ -87,13 +207,7 @@ public class MpegFrame {
 	}
 
 	protected int extractField(long frameHeader, long bitMask) {
-		int shiftBy = 0;
-		for (int i = 0; i <= 31; i++) {
-			if (((bitMask >> i) & 1) != 0) {
-				shiftBy = i;
-				break;
-			}
-		}
+		int shiftBy = Long.numberOfTrailingZeros(bitMask);
 		return (int) ((frameHeader >> shiftBy) & (bitMask >> shiftBy));
 	}
 
@@ -134,278 +248,18 @@ public class MpegFrame {
 	}
 
 	private void setBitRate(int bitrate) throws InvalidDataException {
-		if (MPEG_VERSION_1_0.equals(version)) {
-			if (layer == 1) {
-				switch (bitrate) {
-					case 1:
-						this.bitrate = 32;
-						return;
-					case 2:
-						this.bitrate = 64;
-						return;
-					case 3:
-						this.bitrate = 96;
-						return;
-					case 4:
-						this.bitrate = 128;
-						return;
-					case 5:
-						this.bitrate = 160;
-						return;
-					case 6:
-						this.bitrate = 192;
-						return;
-					case 7:
-						this.bitrate = 224;
-						return;
-					case 8:
-						this.bitrate = 256;
-						return;
-					case 9:
-						this.bitrate = 288;
-						return;
-					case 10:
-						this.bitrate = 320;
-						return;
-					case 11:
-						this.bitrate = 352;
-						return;
-					case 12:
-						this.bitrate = 384;
-						return;
-					case 13:
-						this.bitrate = 416;
-						return;
-					case 14:
-						this.bitrate = 448;
-						return;
-				}
-			} else if (layer == 2) {
-				switch (bitrate) {
-					case 1:
-						this.bitrate = 32;
-						return;
-					case 2:
-						this.bitrate = 48;
-						return;
-					case 3:
-						this.bitrate = 56;
-						return;
-					case 4:
-						this.bitrate = 64;
-						return;
-					case 5:
-						this.bitrate = 80;
-						return;
-					case 6:
-						this.bitrate = 96;
-						return;
-					case 7:
-						this.bitrate = 112;
-						return;
-					case 8:
-						this.bitrate = 128;
-						return;
-					case 9:
-						this.bitrate = 160;
-						return;
-					case 10:
-						this.bitrate = 192;
-						return;
-					case 11:
-						this.bitrate = 224;
-						return;
-					case 12:
-						this.bitrate = 256;
-						return;
-					case 13:
-						this.bitrate = 320;
-						return;
-					case 14:
-						this.bitrate = 384;
-						return;
-				}
-			} else if (layer == 3) {
-				switch (bitrate) {
-					case 1:
-						this.bitrate = 32;
-						return;
-					case 2:
-						this.bitrate = 40;
-						return;
-					case 3:
-						this.bitrate = 48;
-						return;
-					case 4:
-						this.bitrate = 56;
-						return;
-					case 5:
-						this.bitrate = 64;
-						return;
-					case 6:
-						this.bitrate = 80;
-						return;
-					case 7:
-						this.bitrate = 96;
-						return;
-					case 8:
-						this.bitrate = 112;
-						return;
-					case 9:
-						this.bitrate = 128;
-						return;
-					case 10:
-						this.bitrate = 160;
-						return;
-					case 11:
-						this.bitrate = 192;
-						return;
-					case 12:
-						this.bitrate = 224;
-						return;
-					case 13:
-						this.bitrate = 256;
-						return;
-					case 14:
-						this.bitrate = 320;
-						return;
-				}
-			}
-		} else if (MPEG_VERSION_2_0.equals(version) || MPEG_VERSION_2_5.equals(version)) {
-			if (layer == 1) {
-				switch (bitrate) {
-					case 1:
-						this.bitrate = 32;
-						return;
-					case 2:
-						this.bitrate = 48;
-						return;
-					case 3:
-						this.bitrate = 56;
-						return;
-					case 4:
-						this.bitrate = 64;
-						return;
-					case 5:
-						this.bitrate = 80;
-						return;
-					case 6:
-						this.bitrate = 96;
-						return;
-					case 7:
-						this.bitrate = 112;
-						return;
-					case 8:
-						this.bitrate = 128;
-						return;
-					case 9:
-						this.bitrate = 144;
-						return;
-					case 10:
-						this.bitrate = 160;
-						return;
-					case 11:
-						this.bitrate = 176;
-						return;
-					case 12:
-						this.bitrate = 192;
-						return;
-					case 13:
-						this.bitrate = 224;
-						return;
-					case 14:
-						this.bitrate = 256;
-						return;
-				}
-			} else if (layer == 2 || layer == 3) {
-				switch (bitrate) {
-					case 1:
-						this.bitrate = 8;
-						return;
-					case 2:
-						this.bitrate = 16;
-						return;
-					case 3:
-						this.bitrate = 24;
-						return;
-					case 4:
-						this.bitrate = 32;
-						return;
-					case 5:
-						this.bitrate = 40;
-						return;
-					case 6:
-						this.bitrate = 48;
-						return;
-					case 7:
-						this.bitrate = 56;
-						return;
-					case 8:
-						this.bitrate = 64;
-						return;
-					case 9:
-						this.bitrate = 80;
-						return;
-					case 10:
-						this.bitrate = 96;
-						return;
-					case 11:
-						this.bitrate = 112;
-						return;
-					case 12:
-						this.bitrate = 128;
-						return;
-					case 13:
-						this.bitrate = 144;
-						return;
-					case 14:
-						this.bitrate = 160;
-						return;
-				}
-			}
-		}
-		throw new InvalidDataException("Invalid bitrate in frame header");
+		int row = MPEG_VERSION_1_0.equals(version) ? 0 : 3;
+		this.bitrate = BITRATES[row + layer - 1][bitrate];
+		if (this.bitrate == 0) throw new InvalidDataException("Invalid bitrate in frame header");
 	}
 
 	private void setSampleRate(int sampleRate) throws InvalidDataException {
-		if (MPEG_VERSION_1_0.equals(version)) {
-			switch (sampleRate) {
-				case 0:
-					this.sampleRate = 44100;
-					return;
-				case 1:
-					this.sampleRate = 48000;
-					return;
-				case 2:
-					this.sampleRate = 32000;
-					return;
-			}
-		} else if (MPEG_VERSION_2_0.equals(version)) {
-			switch (sampleRate) {
-				case 0:
-					this.sampleRate = 22050;
-					return;
-				case 1:
-					this.sampleRate = 24000;
-					return;
-				case 2:
-					this.sampleRate = 16000;
-					return;
-			}
-		} else if (MPEG_VERSION_2_5.equals(version)) {
-			switch (sampleRate) {
-				case 0:
-					this.sampleRate = 11025;
-					return;
-				case 1:
-					this.sampleRate = 12000;
-					return;
-				case 2:
-					this.sampleRate = 8000;
-					return;
-			}
-		}
-		throw new InvalidDataException("Invalid sample rate in frame header");
+		int row;
+		if (MPEG_VERSION_1_0.equals(version)) row = 3;
+		else if (MPEG_VERSION_2_0.equals(version)) row = 2;
+		else row = 0;
+		this.sampleRate = SAMPLE_RATES[row][sampleRate];
+		if (this.sampleRate == 0) throw new InvalidDataException("Invalid sample rate in frame header");
 	}
 
 	private void setPadding(int paddingBit) {
@@ -546,6 +400,12 @@ public class MpegFrame {
 		return version;
 	}
 
+	public int getSamplesPerFrame() {
+		if (layer == 1) return 384;
+		if (layer == 3 && !MPEG_VERSION_1_0.equals(version)) return 576;
+		return 1152;
+	}
+
 	public int getLengthInBytes() {
 		long length;
 		int pad;
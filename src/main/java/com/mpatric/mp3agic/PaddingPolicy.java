@@ -0,0 +1,56 @@
+package com.mpatric.mp3agic;
+
+/**
+ * Decides how much padding an {@link AbstractID3v2Tag} is packed with, set with
+ * {@link AbstractID3v2Tag#setPaddingPolicy(PaddingPolicy)}. Padding left after the frames lets a
+ * tag grow later without moving the audio after it, so that {@link Mp3File#update()} can write the
+ * tag in place. Tags with a footer have no padding, whatever the policy.
+ */
+public interface PaddingPolicy {
+
+	int PAGE_LENGTH = 4096;
+
+	/**
+	 * @param tagLength the length of the tag without padding, including its header
+	 * @param previousPaddingLength the length of the padding the tag had when it was read, or 0 for a
+	 * new tag
+	 * @return the length of padding to pack the tag with
+	 */
+	int paddingLength(int tagLength, int previousPaddingLength);
+
+	static PaddingPolicy fixed(final int paddingLength) {
+		if (paddingLength < 0) throw new IllegalArgumentException("Padding length negative");
+		return (tagLength, previousPaddingLength) -> paddingLength;
+	}
+
+	/**
+	 * @return a policy of padding by the percentage of the length of the tag
+	 */
+	static PaddingPolicy percentage(final int percentage) {
+		if (percentage < 0) throw new IllegalArgumentException("Percentage negative");
+		return (tagLength, previousPaddingLength) -> (int) ((long) tagLength * percentage / 100);
+	}
+
+	/**
+	 * @return a policy of padding the tag to the next multiple of {@link #PAGE_LENGTH}, so that audio
+	 * saved after it starts on a page boundary
+	 */
+	static PaddingPolicy pageAligned() {
+		return aligned(PAGE_LENGTH);
+	}
+
+	/**
+	 * @return a policy of padding the tag to the next multiple of the boundary
+	 */
+	static PaddingPolicy aligned(final int boundary) {
+		if (boundary < 1) throw new IllegalArgumentException("Boundary must be at least 1");
+		return (tagLength, previousPaddingLength) -> (boundary - tagLength % boundary) % boundary;
+	}
+
+	/**
+	 * @return a policy of keeping the padding the tag had when it was read
+	 */
+	static PaddingPolicy preserve() {
+		return (tagLength, previousPaddingLength) -> previousPaddingLength;
+	}
+}
@@ -0,0 +1,101 @@
+package com.mpatric.mp3agic;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The buffers that an {@link Mp3File} reads the head, tail and scan blocks of a file into, and the
+ * scratch array for its ID3v1 tag, kept to be used again for the next file rather than allocated
+ * afresh for each. A context grows its buffers to the largest asked for and then stops allocating,
+ * so a batch of files parsed with the same options through one context reaches a steady state in
+ * which only the results themselves, such as the tags and bitrate counts, are allocated.
+ * <p>
+ * Buffers longer than {@link #MAXIMUM_KEPT_LENGTH}, such as the head of a file whose ID3v2 tag
+ * holds megabytes of artwork, are allocated for the one file and not kept, so that one large file
+ * does not pin its memory, off the heap for a direct context, for the rest of the batch.
+ * <p>
+ * A context is used by one constructor at a time and holds nothing of the file once the constructor
+ * returns. It is not thread safe, so it is meant to be kept per thread, for example in a
+ * ThreadLocal. Using a context in a second constructor before the first has returned throws an
+ * IllegalStateException.
+ */
+public final class ParseContext {
+
+	public static final int MAXIMUM_KEPT_LENGTH = 1024 * 1024;
+
+	private final boolean direct;
+	private final byte[] id3v1TagBytes = new byte[ID3v1Tag.TAG_LENGTH];
+	private ByteBuffer headBuffer;
+	private ByteBuffer largerHeadBuffer;
+	private ByteBuffer tailBuffer;
+	private ByteBuffer scanBuffer;
+	private boolean inUse;
+
+	public ParseContext() {
+		this(false);
+	}
+
+	/**
+	 * @param direct whether to use direct buffers, which file channels read into without a copy
+	 * through a temporary direct buffer
+	 */
+	public ParseContext(boolean direct) {
+		this.direct = direct;
+	}
+
+	public boolean isDirect() {
+		return direct;
+	}
+
+	void acquire() {
+		if (inUse) throw new IllegalStateException("Parse context already in use");
+		inUse = true;
+	}
+
+	void release() {
+		inUse = false;
+	}
+
+	ByteBuffer headBuffer(int length) {
+		ByteBuffer buffer = buffer(headBuffer, length);
+		if (isKept(buffer)) headBuffer = buffer;
+		return buffer;
+	}
+
+	ByteBuffer largerHeadBuffer(int length) {
+		ByteBuffer buffer = buffer(largerHeadBuffer, length);
+		if (isKept(buffer)) largerHeadBuffer = buffer;
+		return buffer;
+	}
+
+	ByteBuffer tailBuffer(int length) {
+		ByteBuffer buffer = buffer(tailBuffer, length);
+		if (isKept(buffer)) tailBuffer = buffer;
+		return buffer;
+	}
+
+	ByteBuffer scanBuffer(int length) {
+		ByteBuffer buffer = buffer(scanBuffer, length);
+		if (isKept(buffer)) scanBuffer = buffer;
+		return buffer;
+	}
+
+	byte[] id3v1TagBytes() {
+		return id3v1TagBytes;
+	}
+
+	private static boolean isKept(ByteBuffer buffer) {
+		return buffer.capacity() <= MAXIMUM_KEPT_LENGTH;
+	}
+
+	/**
+	 * @return the buffer, or a new one if it is too small, cleared and limited to the length
+	 */
+	private ByteBuffer buffer(ByteBuffer buffer, int length) {
+		if (buffer == null || buffer.capacity() < length) {
+			buffer = direct ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+		}
+		buffer.clear();
+		buffer.limit(length);
+		return buffer;
+	}
+}
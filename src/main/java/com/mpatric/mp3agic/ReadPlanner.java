@@ -0,0 +1,183 @@
+package com.mpatric.mp3agic;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.function.LongSupplier;
+
+/**
+ * Serves the reads that {@link Mp3File} makes of a {@link ByteSource} from as few, and as large,
+ * requests to the source as it can. Each request is kept, the one that reaches the end of the
+ * source apart from the rest, so that the tail, the head and the scan blocks are read from the
+ * requests rather than each being a request of its own:
+ * <ul>
+ * <li>a read near the end, such as the first read of the tail, is taken back to request a whole
+ * read-ahead, so that a source no longer than the read-ahead is read in one request</li>
+ * <li>a request that would stop less than the read-ahead short of the tail already read carries on
+ * up to it</li>
+ * <li>the read-ahead starts at the larger of the buffer length and 64 KB and doubles after each
+ * request for as long as doing so raises the throughput measured for the requests, so that a
+ * source with a high latency per request is soon read in large requests</li>
+ * </ul>
+ * Closing the planner drops what it holds but does not close the source.
+ */
+final class ReadPlanner implements SeekableByteChannel {
+
+	static final int MINIMUM_READ_AHEAD_LENGTH = 65536;
+	// the throughput must rise by more than this for the read-ahead to keep growing
+	private static final double READ_AHEAD_GROWTH_THRESHOLD = 1.1;
+
+	private final ByteSource byteSource;
+	private final long size;
+	private final int maximumReadAheadLength;
+	private final LongSupplier nanoClock;
+	private int readAheadLength;
+	private double lastThroughput;
+	private ByteBuffer window;
+	private long windowStart;
+	private ByteBuffer tail;
+	private long tailStart;
+	private long position;
+	private boolean open = true;
+
+	ReadPlanner(ByteSource byteSource, long size, int bufferLength, int maximumReadAheadLength) {
+		this(byteSource, size, bufferLength, maximumReadAheadLength, System::nanoTime);
+	}
+
+	/**
+	 * @param nanoClock the clock, in nanoseconds, that the requests are timed against
+	 */
+	ReadPlanner(ByteSource byteSource, long size, int bufferLength, int maximumReadAheadLength, LongSupplier nanoClock) {
+		this.byteSource = byteSource;
+		this.nanoClock = nanoClock;
+		this.size = size;
+		this.maximumReadAheadLength = Math.max(maximumReadAheadLength, MINIMUM_READ_AHEAD_LENGTH);
+		this.readAheadLength = Math.min(Math.max(bufferLength, MINIMUM_READ_AHEAD_LENGTH), this.maximumReadAheadLength);
+	}
+
+	@Override
+	public int read(ByteBuffer bytes) throws IOException {
+		if (!open) throw new ClosedChannelException();
+		if (position >= size) return -1;
+		int bytesRead = 0;
+		while (bytes.hasRemaining() && position < size) {
+			ByteBuffer held = held(position);
+			if (held == null) {
+				request(position);
+				continue;
+			}
+			int length = Math.min(bytes.remaining(), held.remaining());
+			held.limit(held.position() + length);
+			bytes.put(held);
+			position += length;
+			bytesRead += length;
+		}
+		return bytesRead;
+	}
+
+	/**
+	 * @return the bytes held from the position, or null if there are none
+	 */
+	private ByteBuffer held(long position) {
+		if (tail != null && position >= tailStart) {
+			return from(tail, position - tailStart);
+		}
+		if (window != null && position >= windowStart && position < windowStart + window.limit()) {
+			return from(window, position - windowStart);
+		}
+		return null;
+	}
+
+	private static ByteBuffer from(ByteBuffer bytes, long offset) {
+		ByteBuffer duplicate = bytes.duplicate();
+		duplicate.position((int) offset);
+		return duplicate;
+	}
+
+	private void request(long start) throws IOException {
+		long end = tail != null ? tailStart : size;
+		if (end == size && size - start < readAheadLength) {
+			// a read near the end, which is the tail read first of all, is taken back a whole read-ahead
+			start = Math.max(0, size - readAheadLength);
+		}
+		long length = Math.min(readAheadLength, end - start);
+		if (end - (start + length) < readAheadLength) {
+			length = end - start;
+		}
+		ByteBuffer bytes;
+		if (window != null && window.capacity() >= length) {
+			// the window is read over rather than allocated again, since nothing reads from it meanwhile
+			bytes = window;
+			window = null;
+			bytes.clear();
+			bytes.limit((int) length);
+		} else {
+			bytes = ByteBuffer.allocate((int) length);
+		}
+		long startTime = nanoClock.getAsLong();
+		while (bytes.hasRemaining() && byteSource.read(bytes, start + bytes.position()) > 0) {
+			// keep reading until the request is filled, or the source gives no more bytes
+		}
+		long elapsed = Math.max(1, nanoClock.getAsLong() - startTime);
+		bytes.flip();
+		if (bytes.limit() < length) throw new IOException("Not enough bytes read");
+		if (start + length == size) {
+			tail = bytes;
+			tailStart = start;
+		} else {
+			window = bytes;
+			windowStart = start;
+			adaptReadAhead(length, elapsed);
+		}
+	}
+
+	private void adaptReadAhead(long length, long elapsed) {
+		if (length < readAheadLength) return;
+		double throughput = (double) length / elapsed;
+		if (throughput > lastThroughput * READ_AHEAD_GROWTH_THRESHOLD) {
+			readAheadLength = (int) Math.min(2L * readAheadLength, maximumReadAheadLength);
+		}
+		lastThroughput = throughput;
+	}
+
+	@Override
+	public int write(ByteBuffer bytes) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public long position() {
+		return position;
+	}
+
+	@Override
+	public SeekableByteChannel position(long newPosition) {
+		if (newPosition < 0) throw new IllegalArgumentException("Negative position");
+		position = newPosition;
+		return this;
+	}
+
+	@Override
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public void close() {
+		open = false;
+		window = null;
+		tail = null;
+	}
+}
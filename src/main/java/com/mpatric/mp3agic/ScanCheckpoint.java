@@ -0,0 +1,135 @@
+package com.mpatric.mp3agic;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The state of an {@link Mp3FileScanner} part way through a file, from which a new scanner can carry
+ * on scanning the same file. The length and last modified time of the file are recorded so that a
+ * checkpoint is not resumed against a file that has changed since.
+ */
+public final class ScanCheckpoint implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long length;
+	private final long lastModified;
+	private final long scanOffset;
+	private final long scanRestartOffset;
+	private final boolean complete;
+	private final long startOffset;
+	private final int startFrameHeader;
+	private final long xingOffset;
+	private final int xingBitrate;
+	private final long endOffset;
+	private final int frameCount;
+	private final int[] bitrateCounts;
+	private final int cbrRunBitrate;
+	private final int cbrRunFrames;
+	private final long cbrRunLength;
+	private final FrameIndex frameIndex;
+	private final boolean vbrHeaderUsed;
+	private final double vbrHeaderBitrate;
+
+	ScanCheckpoint(long length, long lastModified, long scanOffset, long scanRestartOffset, boolean complete, long startOffset, int startFrameHeader,
+			long xingOffset, int xingBitrate, long endOffset, int frameCount, int[] bitrateCounts, int cbrRunBitrate, int cbrRunFrames, long cbrRunLength,
+			FrameIndex frameIndex, boolean vbrHeaderUsed, double vbrHeaderBitrate) {
+		this.length = length;
+		this.lastModified = lastModified;
+		this.scanOffset = scanOffset;
+		this.scanRestartOffset = scanRestartOffset;
+		this.complete = complete;
+		this.startOffset = startOffset;
+		this.startFrameHeader = startFrameHeader;
+		this.xingOffset = xingOffset;
+		this.xingBitrate = xingBitrate;
+		this.endOffset = endOffset;
+		this.frameCount = frameCount;
+		this.bitrateCounts = bitrateCounts;
+		this.cbrRunBitrate = cbrRunBitrate;
+		this.cbrRunFrames = cbrRunFrames;
+		this.cbrRunLength = cbrRunLength;
+		this.frameIndex = frameIndex;
+		this.vbrHeaderUsed = vbrHeaderUsed;
+		this.vbrHeaderBitrate = vbrHeaderBitrate;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return the offset in the file that scanning carries on from
+	 */
+	public long getScanOffset() {
+		return scanOffset;
+	}
+
+	long getScanRestartOffset() {
+		return scanRestartOffset;
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public long getStartOffset() {
+		return startOffset;
+	}
+
+	int getStartFrameHeader() {
+		return startFrameHeader;
+	}
+
+	long getXingOffset() {
+		return xingOffset;
+	}
+
+	int getXingBitrate() {
+		return xingBitrate;
+	}
+
+	public long getEndOffset() {
+		return endOffset;
+	}
+
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	int[] getBitrateCounts() {
+		return Arrays.copyOf(bitrateCounts, bitrateCounts.length);
+	}
+
+	int getCbrRunBitrate() {
+		return cbrRunBitrate;
+	}
+
+	int getCbrRunFrames() {
+		return cbrRunFrames;
+	}
+
+	long getCbrRunLength() {
+		return cbrRunLength;
+	}
+
+	FrameIndex getFrameIndex() {
+		return frameIndex;
+	}
+
+	boolean isVbrHeaderUsed() {
+		return vbrHeaderUsed;
+	}
+
+	/**
+	 * @return the bitrate worked out from the VBR header, which the bitrate counts do not hold since
+	 * only the start frame was scanned
+	 */
+	double getVbrHeaderBitrate() {
+		return vbrHeaderBitrate;
+	}
+}
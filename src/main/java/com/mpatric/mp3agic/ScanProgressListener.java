@@ -0,0 +1,10 @@
+package com.mpatric.mp3agic;
+
+public interface ScanProgressListener {
+
+	/**
+	 * Called by {@link Mp3FileScanner#run(ScanProgressListener, java.util.concurrent.atomic.AtomicBoolean)}
+	 * after each block is scanned, with the partial results available from the scanner.
+	 */
+	void scanProgress(Mp3FileScanner scanner);
+}
@@ -0,0 +1,137 @@
+package com.mpatric.mp3agic;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Drives the init of an {@link Mp3File} from a stream read once from start to end, for
+ * {@link Mp3File#Mp3File(ReadableByteChannel, Mp3FileOptions)}. The head is read first, then the
+ * frames are scanned from a window of the stream in the same blocks as the file is scanned in. Until
+ * the end of the stream is reached the length of the file is not known, so each block is only
+ * scanned once the window reaches a tail length past it, far enough that no frame in the block can
+ * run into an ID3v1 tag or past the end. The window always keeps the last tail length of the stream,
+ * which becomes the tail at the end. Once the frames end, that is all it keeps, however much of the
+ * stream is left, so a custom tag is only kept if it fits in the tail along with any ID3v1 tag.
+ */
+final class StreamMp3FileReader {
+
+	private static final int TAIL_LENGTH = Mp3File.TAIL_LENGTH;
+	private static final int MAXIMUM_WINDOW_LENGTH = Integer.MAX_VALUE - 8;
+
+	private final Mp3File mp3File;
+	private final ReadableByteChannel channel;
+	private final int bufferLength;
+
+	// the bytes of the stream from windowStart, of which there are windowLength
+	private byte[] window;
+	private int windowLength;
+	private long windowStart;
+	private boolean endOfStream;
+
+	StreamMp3FileReader(Mp3File mp3File, ReadableByteChannel channel) {
+		this.mp3File = mp3File;
+		this.channel = channel;
+		this.bufferLength = mp3File.bufferLength;
+		this.window = new byte[bufferLength + 2 * TAIL_LENGTH];
+		// the length is only known at the end of the stream, so no frame is bounded by it until then
+		mp3File.length = Long.MAX_VALUE;
+	}
+
+	void read() throws IOException, UnsupportedTagException, InvalidDataException {
+		fill(bufferLength);
+		ByteBuffer head = copy(0, (int) Math.min(bufferLength, windowEnd()));
+		int largerHeadLength = mp3File.largerHeadLength(head);
+		if (largerHeadLength > 0) {
+			fill(largerHeadLength);
+			head = copy(0, (int) Math.min(largerHeadLength, windowEnd()));
+		}
+		mp3File.beginScan(head);
+		ByteBuffer headBlock = mp3File.takeScanHeadBlock();
+		if (headBlock != null) {
+			fill(head.limit() + TAIL_LENGTH);
+			mp3File.scanStep(headBlock, null);
+		}
+		while (!mp3File.isScanComplete()) {
+			discard();
+			long blockStart = mp3File.getScanOffset();
+			fill(blockStart + bufferLength + TAIL_LENGTH);
+			int blockLength = Math.max(0, mp3File.scanBlockLength());
+			mp3File.scanStep(ByteBuffer.wrap(window, (int) (blockStart - windowStart), blockLength).slice(), null);
+		}
+		mp3File.finishScan();
+		while (!endOfStream) {
+			discard();
+			fill(windowEnd() + 1);
+		}
+		finish(head);
+	}
+
+	private void finish(ByteBuffer head) throws IOException, UnsupportedTagException, InvalidDataException {
+		int id3v2TagReadLength = mp3File.id3v2TagReadLength();
+		if (id3v2TagReadLength >= 0) {
+			byte[] bytes = mp3File.id3v2TagBytesFromHead(id3v2TagReadLength);
+			if (bytes == null) throw new IOException("Not enough bytes read");
+			mp3File.initId3v2Tag(bytes);
+		}
+		int customTagReadLength = mp3File.customTagReadLength();
+		if (customTagReadLength >= 0) {
+			// null when the custom tag is too long to fit in the tail, the most kept after the frames
+			mp3File.initCustomTag(mp3File.customTagBytesFromTail(customTagReadLength));
+		}
+		mp3File.finishInit();
+	}
+
+	/**
+	 * Drops the bytes before those that may yet be scanned, other than the last tail length of the
+	 * stream so far, which is all that is kept once the scan is complete.
+	 */
+	private void discard() {
+		long keepFrom = Long.MAX_VALUE;
+		if (!mp3File.isScanComplete()) {
+			keepFrom = mp3File.getScanOffset();
+			if (mp3File.getStartOffset() >= 0 && mp3File.getFrameCount() < 2) {
+				// the scan goes back to just after the start frame if the frame after it is not valid
+				keepFrom = Math.min(keepFrom, mp3File.getScanRestartOffset());
+			}
+		}
+		keepFrom = Math.min(keepFrom, windowEnd() - TAIL_LENGTH);
+		if (keepFrom <= windowStart) return;
+		int discardLength = (int) (keepFrom - windowStart);
+		System.arraycopy(window, discardLength, window, 0, windowLength - discardLength);
+		windowLength -= discardLength;
+		windowStart = keepFrom;
+	}
+
+	/**
+	 * Reads until the window reaches the offset or the stream ends, at which point the length of the
+	 * file is set and the tail is taken from the end of the window.
+	 */
+	private void fill(long end) throws IOException {
+		while (!endOfStream && windowEnd() < end) {
+			if (windowLength == window.length) {
+				if (window.length == MAXIMUM_WINDOW_LENGTH) throw new IOException("Stream window full");
+				window = Arrays.copyOf(window, (int) Math.min(2L * window.length, MAXIMUM_WINDOW_LENGTH));
+			}
+			int bytesRead = channel.read(ByteBuffer.wrap(window, windowLength, window.length - windowLength));
+			if (bytesRead < 0) {
+				endOfStream = true;
+				mp3File.length = windowEnd();
+				int tailLength = mp3File.tailLength();
+				mp3File.initTail(copy(mp3File.getLength() - tailLength, tailLength));
+			} else {
+				windowLength += bytesRead;
+			}
+		}
+	}
+
+	private long windowEnd() {
+		return windowStart + windowLength;
+	}
+
+	private ByteBuffer copy(long offset, int length) {
+		int from = (int) (offset - windowStart);
+		return ByteBuffer.wrap(Arrays.copyOfRange(window, from, from + length));
+	}
+}
@@ -0,0 +1,150 @@
+package com.mpatric.mp3agic;
+
+import java.nio.ByteBuffer;
+
+public class VbrHeader {
+
+	public static final String TYPE_XING = "Xing";
+	public static final String TYPE_INFO = "Info";
+	public static final String TYPE_VBRI = "VBRI";
+
+	private static final int[] XING_MARKER_OFFSETS = {13, 21, 36};
+	private static final int VBRI_MARKER_OFFSET = 36;
+	private static final int MARKER_LENGTH = 4;
+	private static final int XING_FLAG_FRAMES = 0x1;
+	private static final int XING_FLAG_BYTES = 0x2;
+	private static final int XING_FLAG_TOC = 0x4;
+	private static final int XING_FLAG_QUALITY = 0x8;
+	private static final int XING_TOC_LENGTH = 100;
+	private static final int VBRI_QUALITY_OFFSET = 8;
+	private static final int VBRI_BYTES_OFFSET = 10;
+	private static final int VBRI_FRAMES_OFFSET = 14;
+	private static final int VBRI_HEADER_LENGTH = 26;
+
+	private String type;
+	private int frameCount = -1;
+	private long byteCount = -1;
+	private int quality = -1;
+	private byte[] toc;
+
+	protected VbrHeader(String type) {
+		this.type = type;
+	}
+
+	public static boolean isVbrHeaderFrame(byte[] bytes, int offset, int length) {
+		return isVbrHeaderFrame(ByteBuffer.wrap(bytes), offset, length);
+	}
+
+	public static boolean isVbrHeaderFrame(ByteBuffer bytes, int offset, int length) {
+		for (int markerOffset : XING_MARKER_OFFSETS) {
+			if (hasMarker(bytes, offset + markerOffset, length, TYPE_XING) || hasMarker(bytes, offset + markerOffset, length, TYPE_INFO)) {
+				return true;
+			}
+		}
+		return hasMarker(bytes, offset + VBRI_MARKER_OFFSET, length, TYPE_VBRI);
+	}
+
+	public static VbrHeader parse(byte[] bytes, int offset, int length) {
+		return parse(ByteBuffer.wrap(bytes), offset, length);
+	}
+
+	public static VbrHeader parse(ByteBuffer bytes, int offset, int length) {
+		for (int markerOffset : XING_MARKER_OFFSETS) {
+			int position = offset + markerOffset;
+			if (hasMarker(bytes, position, length, TYPE_XING)) return parseXing(TYPE_XING, bytes, position, length);
+			if (hasMarker(bytes, position, length, TYPE_INFO)) return parseXing(TYPE_INFO, bytes, position, length);
+		}
+		if (hasMarker(bytes, offset + VBRI_MARKER_OFFSET, length, TYPE_VBRI)) {
+			return parseVbri(bytes, offset + VBRI_MARKER_OFFSET, length);
+		}
+		return null;
+	}
+
+	private static boolean hasMarker(ByteBuffer bytes, int position, int length, String marker) {
+		if (position + MARKER_LENGTH > length) return false;
+		for (int i = 0; i < MARKER_LENGTH; i++) {
+			if (bytes.get(position + i) != marker.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	private static VbrHeader parseXing(String type, ByteBuffer bytes, int markerPosition, int length) {
+		int position = markerPosition + MARKER_LENGTH;
+		if (position + 4 > length) return null;
+		int flags = unpackInteger(bytes, position);
+		position += 4;
+		VbrHeader header = new VbrHeader(type);
+		if ((flags & XING_FLAG_FRAMES) != 0) {
+			if (position + 4 > length) return null;
+			header.frameCount = unpackInteger(bytes, position);
+			position += 4;
+		}
+		if ((flags & XING_FLAG_BYTES) != 0) {
+			if (position + 4 > length) return null;
+			header.byteCount = unpackInteger(bytes, position) & 0xFFFFFFFFL;
+			position += 4;
+		}
+		if ((flags & XING_FLAG_TOC) != 0) {
+			if (position + XING_TOC_LENGTH > length) return null;
+			header.toc = new byte[XING_TOC_LENGTH];
+			for (int i = 0; i < XING_TOC_LENGTH; i++) {
+				header.toc[i] = bytes.get(position + i);
+			}
+			position += XING_TOC_LENGTH;
+		}
+		if ((flags & XING_FLAG_QUALITY) != 0) {
+			if (position + 4 > length) return null;
+			header.quality = unpackInteger(bytes, position);
+		}
+		return header;
+	}
+
+	private static VbrHeader parseVbri(ByteBuffer bytes, int position, int length) {
+		if (position + VBRI_HEADER_LENGTH > length) return null;
+		VbrHeader header = new VbrHeader(TYPE_VBRI);
+		header.quality = BufferTools.unpackInteger((byte) 0, (byte) 0, bytes.get(position + VBRI_QUALITY_OFFSET), bytes.get(position + VBRI_QUALITY_OFFSET + 1));
+		header.byteCount = unpackInteger(bytes, position + VBRI_BYTES_OFFSET) & 0xFFFFFFFFL;
+		header.frameCount = unpackInteger(bytes, position + VBRI_FRAMES_OFFSET);
+		return header;
+	}
+
+	private static int unpackInteger(ByteBuffer bytes, int position) {
+		return BufferTools.unpackInteger(bytes.get(position), bytes.get(position + 1), bytes.get(position + 2), bytes.get(position + 3));
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public boolean isVbr() {
+		return !TYPE_INFO.equals(type);
+	}
+
+	public boolean hasFrameCount() {
+		return frameCount > 0;
+	}
+
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	public boolean hasByteCount() {
+		return byteCount > 0;
+	}
+
+	public long getByteCount() {
+		return byteCount;
+	}
+
+	public boolean hasQuality() {
+		return quality >= 0;
+	}
+
+	public int getQuality() {
+		return quality;
+	}
+
+	public byte[] getToc() {
+		return toc;
+	}
+}
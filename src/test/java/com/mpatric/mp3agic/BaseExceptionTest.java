@@ -3,6 +3,7 @@ package com.mpatric.mp3agic;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class BaseExceptionTest {
 
@@ -34,4 +35,17 @@ public class BaseExceptionTest {
 		assertEquals("FIVE", e5.getMessage());
 		assertEquals("[com.mpatric.mp3agic.InvalidDataException: FIVE] caused by [com.mpatric.mp3agic.NoSuchTagException: FOUR] caused by [java.lang.Exception: THREE] caused by [com.mpatric.mp3agic.UnsupportedTagException: TWO] caused by [com.mpatric.mp3agic.BaseException: ONE]", e5.getDetailedMessage());
 	}
+
+	@Test
+	public void capturesNoStackTraceWhenStackTracesAreDisabled() {
+		assertTrue(new InvalidDataException("ONE").getStackTrace().length > 0);
+		BaseException.setStackTraceEnabled(false);
+		try {
+			assertEquals(0, new InvalidDataException("TWO").getStackTrace().length);
+			assertEquals(0, new NoSuchTagException().getStackTrace().length);
+		} finally {
+			BaseException.setStackTraceEnabled(true);
+		}
+		assertTrue(new InvalidDataException("THREE").getStackTrace().length > 0);
+	}
 }
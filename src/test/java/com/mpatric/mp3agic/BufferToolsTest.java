@@ -2,8 +2,10 @@ package com.mpatric.mp3agic;
 
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.Arrays;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -605,4 +607,60 @@ public class BufferToolsTest {
 		byte[] buffer = {BYTE_T, BYTE_ESZETT, BYTE_G, BYTE_T};
 		assertEquals(-1, BufferTools.indexOfTerminator(buffer, 0, 2));
 	}
+
+	@Test
+	public void shouldUnsynchroniseAndFindTerminatorsAsByteAtATimeLoopsDo() {
+		Random random = new Random(0);
+		byte[] values = {0, 1, BYTE_FF, BYTE_FB, BYTE_E0, BYTE_T};
+		for (int length = 0; length < 40; length++) {
+			for (int n = 0; n < 50; n++) {
+				byte[] buffer = new byte[length];
+				for (int i = 0; i < length; i++) {
+					buffer[i] = values[random.nextInt(values.length)];
+				}
+				byte[] unsynchronised = unsynchroniseByteAtATime(buffer);
+				assertEquals(unsynchronised.length - length, BufferTools.sizeUnsynchronisationWouldAdd(buffer));
+				assertArrayEquals(unsynchronised, BufferTools.unsynchroniseBuffer(buffer));
+				byte[] synchronised = synchroniseByteAtATime(buffer);
+				assertEquals(length - synchronised.length, BufferTools.sizeSynchronisationWouldSubtract(buffer));
+				assertArrayEquals(synchronised, BufferTools.synchroniseBuffer(buffer));
+				for (int fromIndex = 0; fromIndex <= length; fromIndex++) {
+					assertEquals(indexOfTerminatorByteAtATime(buffer, fromIndex, 1), BufferTools.indexOfTerminator(buffer, fromIndex, 1));
+					assertEquals(indexOfTerminatorByteAtATime(buffer, fromIndex, 2), BufferTools.indexOfTerminator(buffer, fromIndex, 2));
+				}
+			}
+		}
+	}
+
+	private static byte[] unsynchroniseByteAtATime(byte[] bytes) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < bytes.length; i++) {
+			out.write(bytes[i]);
+			if (bytes[i] == BYTE_FF && (i == bytes.length - 1 || (bytes[i + 1] & BYTE_E0) == BYTE_E0 || bytes[i + 1] == 0)) {
+				out.write(0);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] synchroniseByteAtATime(byte[] bytes) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < bytes.length; i++) {
+			out.write(bytes[i]);
+			if (bytes[i] == BYTE_FF && i + 1 < bytes.length && bytes[i + 1] == 0
+					&& (i + 2 == bytes.length || (bytes[i + 2] & BYTE_E0) == BYTE_E0 || bytes[i + 2] == 0)) {
+				i++;
+			}
+		}
+		return out.toByteArray();
+	}
+
+	private static int indexOfTerminatorByteAtATime(byte[] bytes, int fromIndex, int terminatorLength) {
+		for (int i = fromIndex; i <= bytes.length - terminatorLength; i += terminatorLength) {
+			int matched = 0;
+			while (matched < terminatorLength && bytes[i + matched] == 0) matched++;
+			if (matched == terminatorLength) return i;
+		}
+		return -1;
+	}
 }
@@ -0,0 +1,71 @@
+package com.mpatric.mp3agic;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Compares finding every 0xFF or zero byte one byte at a time with ByteSearch, on random bytes like
+ * compressed audio and on ASCII text like tag frames.
+ * Run with: java -cp target/classes:target/test-classes com.mpatric.mp3agic.ByteSearchBenchmark [size in MB] [iterations]
+ */
+public class ByteSearchBenchmark {
+
+	public static void main(String[] args) {
+		int sizeInMegabytes = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		Random random = new Random(0);
+		byte[] audio = new byte[sizeInMegabytes * 1024 * 1024];
+		random.nextBytes(audio);
+		byte[] text = new byte[audio.length];
+		for (int i = 0; i < text.length; i++) {
+			text[i] = (byte) (random.nextInt(8) == 0 ? ' ' : 'a' + random.nextInt(26));
+		}
+		ByteBuffer directAudio = ByteBuffer.allocateDirect(audio.length);
+		directAudio.put(audio);
+		// first round warms up the jit
+		for (int round = 0; round < 2; round++) {
+			boolean print = round > 0;
+			time(print, "audio 0xFF, byte loop", audio.length, iterations, () -> countByteAtATime(ByteBuffer.wrap(audio), (byte) 0xFF));
+			time(print, "audio 0xFF, ByteSearch", audio.length, iterations, () -> countByteSearch(ByteBuffer.wrap(audio), (byte) 0xFF));
+			time(print, "direct audio 0xFF, byte loop", audio.length, iterations, () -> countByteAtATime(directAudio, (byte) 0xFF));
+			time(print, "direct audio 0xFF, ByteSearch", audio.length, iterations, () -> countByteSearch(directAudio, (byte) 0xFF));
+			time(print, "text 0x00, byte loop", text.length, iterations, () -> countByteAtATime(ByteBuffer.wrap(text), (byte) 0));
+			time(print, "text 0x00, ByteSearch", text.length, iterations, () -> countByteSearch(ByteBuffer.wrap(text), (byte) 0));
+			time(print, "text unsynchronise", text.length, iterations, () -> BufferTools.sizeUnsynchronisationWouldAdd(text));
+			time(print, "audio unsynchronise", audio.length, iterations, () -> BufferTools.sizeUnsynchronisationWouldAdd(audio));
+		}
+	}
+
+	static int countByteAtATime(ByteBuffer bytes, byte value) {
+		int count = 0;
+		for (int i = 0; i < bytes.limit(); i++) {
+			if (bytes.get(i) == value) count++;
+		}
+		return count;
+	}
+
+	static int countByteSearch(ByteBuffer bytes, byte value) {
+		int count = 0;
+		for (int i = ByteSearch.indexOf(bytes, 0, bytes.limit(), value); i >= 0; i = ByteSearch.indexOf(bytes, i + 1, bytes.limit(), value)) {
+			count++;
+		}
+		return count;
+	}
+
+	interface Search {
+		int run();
+	}
+
+	static void time(boolean print, String name, int length, int iterations, Search search) {
+		long best = Long.MAX_VALUE;
+		int result = 0;
+		for (int i = 0; i < iterations; i++) {
+			long start = System.nanoTime();
+			result = search.run();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		if (print) {
+			System.out.printf("%-32s %8.2f ms  %8.1f MB/s  (%d)%n", name, best / 1e6, length / 1048576.0 / (best / 1e9), result);
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package com.mpatric.mp3agic;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ByteSearchTest {
+
+	@Test
+	public void shouldFindByteAtEveryPositionAndAlignment() {
+		for (int length = 0; length < 30; length++) {
+			for (int position = 0; position < length; position++) {
+				byte[] bytes = new byte[length];
+				bytes[position] = (byte) 0xFF;
+				for (int fromIndex = 0; fromIndex <= length; fromIndex++) {
+					int expected = fromIndex <= position ? position : -1;
+					assertEquals(expected, ByteSearch.indexOf(bytes, fromIndex, length, (byte) 0xFF));
+				}
+				assertEquals(-1, ByteSearch.indexOf(bytes, 0, position, (byte) 0xFF));
+			}
+		}
+	}
+
+	@Test
+	public void shouldFindFirstOfSeveralMatchesWithinOneLong() {
+		byte[] bytes = {1, 2, 0x7F, (byte) 0xFE, (byte) 0xFF, 0, (byte) 0xFF, (byte) 0xFF, 3};
+		assertEquals(4, ByteSearch.indexOf(bytes, 0, bytes.length, (byte) 0xFF));
+		assertEquals(5, ByteSearch.indexOf(bytes, 0, bytes.length, (byte) 0));
+		assertEquals(2, ByteSearch.indexOf(bytes, 0, bytes.length, (byte) 0x7F));
+		assertEquals(-1, ByteSearch.indexOf(bytes, 0, bytes.length, (byte) 0x80));
+	}
+
+	@Test
+	public void shouldSearchBuffersOfEitherByteOrderAsByteAtATimeLoopDoes() {
+		Random random = new Random(0);
+		for (int n = 0; n < 200; n++) {
+			byte[] bytes = new byte[random.nextInt(100)];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = (byte) (random.nextInt(4) == 0 ? 0xFF : random.nextInt(8));
+			}
+			int fromIndex = bytes.length == 0 ? 0 : random.nextInt(bytes.length);
+			byte value = (byte) (n % 2 == 0 ? 0xFF : 0);
+			int expected = -1;
+			for (int i = fromIndex; i < bytes.length; i++) {
+				if (bytes[i] == value) {
+					expected = i;
+					break;
+				}
+			}
+			ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+			direct.put(bytes);
+			direct.position(3 % (bytes.length + 1));
+			assertEquals(expected, ByteSearch.indexOf(bytes, fromIndex, bytes.length, value));
+			assertEquals(expected, ByteSearch.indexOf(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN), fromIndex, bytes.length, value));
+			assertEquals(expected, ByteSearch.indexOf(direct, fromIndex, bytes.length, value));
+			assertEquals(3 % (bytes.length + 1), direct.position());
+		}
+	}
+}
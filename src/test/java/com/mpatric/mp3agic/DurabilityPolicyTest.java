@@ -0,0 +1,52 @@
+package com.mpatric.mp3agic;
+
+import org.junit.Test;
+
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class DurabilityPolicyTest {
+
+	private static final Path DIRECTORY = Paths.get("target").toAbsolutePath();
+
+	@Test
+	public void shouldSyncDirectoriesOnceEveryGroupOfFiles() throws Exception {
+		DurabilityPolicy durabilityPolicy = DurabilityPolicy.grouped(3);
+		durabilityPolicy.moved(DIRECTORY);
+		durabilityPolicy.moved(DIRECTORY);
+		assertEquals(2, durabilityPolicy.getPendingFileCount());
+		durabilityPolicy.moved(DIRECTORY);
+		assertEquals(0, durabilityPolicy.getPendingFileCount());
+		durabilityPolicy.moved(DIRECTORY);
+		assertEquals(1, durabilityPolicy.getPendingFileCount());
+		durabilityPolicy.commit();
+		assertEquals(0, durabilityPolicy.getPendingFileCount());
+	}
+
+	@Test
+	public void shouldNotHoldFilesPendingWhenNotGrouped() throws Exception {
+		DurabilityPolicy none = DurabilityPolicy.none();
+		none.moved(DIRECTORY);
+		assertEquals(0, none.getPendingFileCount());
+		DurabilityPolicy sync = DurabilityPolicy.sync();
+		sync.moved(DIRECTORY);
+		assertEquals(0, sync.getPendingFileCount());
+	}
+
+	@Test(expected = NoSuchFileException.class)
+	public void shouldFailCommitWhenDirectoryCannotBeOpened() throws Exception {
+		assumeTrue(DurabilityPolicy.CAN_SYNC_DIRECTORIES);
+		DurabilityPolicy durabilityPolicy = DurabilityPolicy.grouped(2);
+		durabilityPolicy.moved(DIRECTORY.resolve("no-such-directory"));
+		durabilityPolicy.commit();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectGroupOfNoFiles() {
+		DurabilityPolicy.grouped(0);
+	}
+}
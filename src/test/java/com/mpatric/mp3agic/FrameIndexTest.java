@@ -0,0 +1,95 @@
+package com.mpatric.mp3agic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameIndexTest {
+
+	private static final int SAMPLES_PER_FRAME = 1152;
+	private static final int SAMPLE_RATE = 44100;
+
+	@Test
+	public void shouldReturnOffsetsOfFramesAcrossCheckpoints() {
+		FrameIndex frameIndex = createFrameIndex(1000, 200);
+		assertEquals(200, frameIndex.getFrameCount());
+		long offset = 1000;
+		for (int i = 0; i < 200; i++) {
+			assertEquals(offset, frameIndex.getFrameOffset(i));
+			assertEquals(frameLength(i), frameIndex.getFrameLength(i));
+			offset += frameLength(i);
+		}
+		assertEquals(offset, frameIndex.getEndOffset());
+	}
+
+	@Test
+	public void shouldFindFrameContainingOffset() {
+		FrameIndex frameIndex = createFrameIndex(1000, 200);
+		for (int i = 0; i < 200; i++) {
+			long frameOffset = frameIndex.getFrameOffset(i);
+			assertEquals(i, frameIndex.getFrameForOffset(frameOffset));
+			assertEquals(i, frameIndex.getFrameForOffset(frameOffset + frameLength(i) - 1));
+		}
+		assertEquals(-1, frameIndex.getFrameForOffset(999));
+		assertEquals(-1, frameIndex.getFrameForOffset(frameIndex.getEndOffset()));
+	}
+
+	@Test
+	public void shouldMapBetweenTimesAndOffsets() {
+		FrameIndex frameIndex = createFrameIndex(0, 200);
+		assertEquals(0, frameIndex.offsetForTimeMillis(0));
+		assertEquals(0, frameIndex.offsetForTimeMillis(26));
+		assertEquals(frameIndex.getFrameOffset(1), frameIndex.offsetForTimeMillis(27));
+		assertEquals(frameIndex.getFrameOffset(99), frameIndex.offsetForTimeMillis(2612));
+		assertEquals(frameIndex.getFrameOffset(100), frameIndex.offsetForTimeMillis(2613));
+		assertEquals(2612, frameIndex.timeForOffset(frameIndex.getFrameOffset(100) + 5));
+		assertEquals(5224, frameIndex.getLengthInMilliseconds());
+		assertEquals(-1, frameIndex.offsetForTimeMillis(5225));
+		assertEquals(-1, frameIndex.offsetForTimeMillis(-1));
+		assertEquals(100L * SAMPLES_PER_FRAME, frameIndex.getFrameSamplePosition(100));
+	}
+
+	@Test
+	public void shouldKeepContentsWhenTrimmed() {
+		FrameIndex frameIndex = createFrameIndex(0, 130);
+		long offset = frameIndex.getFrameOffset(129);
+		frameIndex.trimToSize();
+		assertEquals(offset, frameIndex.getFrameOffset(129));
+		assertEquals(129, frameIndex.getFrameForOffset(offset));
+		frameIndex.addFrame(400);
+		assertEquals(131, frameIndex.getFrameCount());
+		assertEquals(130, frameIndex.getFrameForOffset(frameIndex.getEndOffset() - 1));
+	}
+
+	@Test
+	public void shouldAddFramesAfterEmptyIndexIsTrimmed() {
+		FrameIndex frameIndex = createFrameIndex(100, 0);
+		frameIndex.trimToSize();
+		frameIndex.addFrame(400);
+		frameIndex.addFrame(400);
+		assertEquals(2, frameIndex.getFrameCount());
+		assertEquals(500, frameIndex.getFrameOffset(1));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void shouldThrowExceptionForFrameOutsideIndex() {
+		createFrameIndex(0, 10).getFrameOffset(10);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldThrowExceptionForInvalidFrameLength() {
+		createFrameIndex(0, 10).addFrame(0);
+	}
+
+	private FrameIndex createFrameIndex(long startOffset, int frameCount) {
+		FrameIndex frameIndex = new FrameIndex(startOffset, SAMPLES_PER_FRAME, SAMPLE_RATE);
+		for (int i = 0; i < frameCount; i++) {
+			frameIndex.addFrame(frameLength(i));
+		}
+		return frameIndex;
+	}
+
+	private int frameLength(int frame) {
+		return 104 + (frame % 7) * 100;
+	}
+}
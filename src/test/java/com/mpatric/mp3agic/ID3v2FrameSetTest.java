@@ -4,12 +4,15 @@ import nl.jqno.equalsverifier.EqualsVerifier;
 import nl.jqno.equalsverifier.Warning;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+
 public class ID3v2FrameSetTest {
 
     @Test
     public void shouldCorrectlyImplementHashCodeAndEquals() throws Exception {
         EqualsVerifier.forClass(ID3v2FrameSet.class)
                 .usingGetClass()
+                .withPrefabValues(ByteBuffer.class, ByteBuffer.wrap(new byte[16]), ByteBuffer.wrap(new byte[32]))
                 .suppress(Warning.NONFINAL_FIELDS)
                 .verify();
     }
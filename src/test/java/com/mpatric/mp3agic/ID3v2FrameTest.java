@@ -4,9 +4,16 @@ import nl.jqno.equalsverifier.EqualsVerifier;
 import nl.jqno.equalsverifier.Warning;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 public class ID3v2FrameTest {
 
@@ -27,6 +34,17 @@ public class ID3v2FrameTest {
 		assertArrayEquals(expectedBytes, frame.getData());
 	}
 
+	@Test
+	public void shouldCheckFrameHeaderWithoutUnpackingFrame() throws Exception {
+		byte[] bytes = BufferTools.stringToByteBuffer("xxxxx" + T_FRAME, 0, 5 + T_FRAME.length());
+		TestHelper.replaceNumbersWithBytes(bytes, 9);
+		assertEquals(ID3v2Frame.FRAME_VALID, ID3v2Frame.checkFrameHeader(bytes, 5));
+		assertEquals(ID3v2Frame.FRAME_INVALID_ID, ID3v2Frame.checkFrameHeader(bytes, 0));
+		assertEquals(ID3v2Frame.FRAME_INVALID_ID, ID3v2Frame.checkFrameHeader(new byte[10], 0));
+		assertEquals(ID3v2Frame.FRAME_TRUNCATED, ID3v2Frame.checkFrameHeader(bytes, bytes.length - 9));
+		assertEquals(ID3v2Frame.FRAME_TRUNCATED, ID3v2Frame.checkFrameHeader(bytes, -1));
+	}
+
 	@Test
 	public void shouldReadValid32WFrame() throws Exception {
 		byte[] bytes = BufferTools.stringToByteBuffer(W_FRAME + "xxxxx", 0, W_FRAME.length());
@@ -66,6 +84,53 @@ public class ID3v2FrameTest {
 		assertEquals(frame, frameCopy);
 	}
 
+	@Test
+	public void shouldPackFrameAtOffsetAndIntoBufferOfAnyOrder() throws Exception {
+		byte[] bytes = BufferTools.stringToByteBuffer(W_FRAME, 0, W_FRAME.length());
+		TestHelper.replaceNumbersWithBytes(bytes, 0);
+		ID3v2Frame frame = new ID3v2Frame(bytes, 0);
+		assertArrayEquals(bytes, frame.toBytes());
+		byte[] packed = new byte[5 + bytes.length];
+		frame.packFrame(packed, 5);
+		assertArrayEquals(bytes, Arrays.copyOfRange(packed, 5, packed.length));
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length + 3).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.position(3);
+		frame.packFrame(buffer);
+		assertEquals(buffer.capacity(), buffer.position());
+		buffer.position(3);
+		byte[] fromBuffer = new byte[bytes.length];
+		buffer.get(fromBuffer);
+		assertArrayEquals(bytes, fromBuffer);
+	}
+
+	@Test
+	public void shouldPackFrameAsTheBytesItWasReadFromUntilItsDataIsHandedOut() throws Exception {
+		byte[] bytes = BufferTools.stringToByteBuffer("xxxxx" + T_FRAME, 0, 5 + T_FRAME.length());
+		TestHelper.replaceNumbersWithBytes(bytes, 9);
+		bytes[5 + 8] = (byte) 0x80;
+		ID3v2Frame frame = new ID3v2Frame(bytes, 5);
+		assertArrayEquals(Arrays.copyOfRange(bytes, 5, bytes.length), frame.toBytes());
+		byte[] data = Arrays.copyOfRange(bytes, 15, bytes.length);
+		ID3v2Frame newFrame = new ID3v2Frame("TPE1", data);
+		assertEquals(newFrame, frame);
+		assertEquals(newFrame.hashCode(), frame.hashCode());
+		frame.getData()[1] = 'X';
+		data[1] = 'X';
+		assertArrayEquals(newFrame.toBytes(), frame.toBytes());
+	}
+
+	@Test
+	public void shouldNotChangeFrameWhenBufferItWasReadFromChanges() throws Exception {
+		byte[] bytes = BufferTools.stringToByteBuffer(T_FRAME, 0, T_FRAME.length());
+		TestHelper.replaceNumbersWithBytes(bytes, 4);
+		byte[] expectedBytes = bytes.clone();
+		ID3v2Frame frame = new ID3v2Frame(bytes, 0);
+		ID3v2Frame keptFrame = new ID3v2Frame(bytes, 0, false);
+		bytes[11] = 'X';
+		assertArrayEquals(expectedBytes, frame.toBytes());
+		assertArrayEquals(bytes, keptFrame.toBytes());
+	}
+
 	@Test
 	public void shouldCorrectlyUnpackHeader() throws Exception {
 		byte[] bytes = BufferTools.stringToByteBuffer(W_FRAME + "?????", 0, W_FRAME.length());
@@ -98,8 +163,35 @@ public class ID3v2FrameTest {
 	public void shouldCorrectlyImplementHashCodeAndEquals() throws Exception {
 		EqualsVerifier.forClass(ID3v2Frame.class)
 				.usingGetClass()
-				.suppress(Warning.NONFINAL_FIELDS)
+				.withPrefabValues(ByteBuffer.class, ByteBuffer.wrap(new byte[16]), ByteBuffer.wrap(new byte[32]))
+				// equals reads packed through dataBytes() only while data is null, which EqualsVerifier,
+				// setting every field, never leaves it, so the clean and dirty frames are compared below
+				.suppress(Warning.NONFINAL_FIELDS, Warning.ALL_FIELDS_SHOULD_BE_USED)
 				.verify();
 	}
 
+	@Test
+	public void shouldCompareFramesByDataWhetherPackedOrHandedOut() throws Exception {
+		byte[] bytes = BufferTools.stringToByteBuffer(T_FRAME, 0, T_FRAME.length());
+		TestHelper.replaceNumbersWithBytes(bytes, 4);
+		ID3v2Frame clean = new ID3v2Frame(bytes, 0);
+		ID3v2Frame dirty = new ID3v2Frame(bytes, 0);
+		dirty.getData();
+		ID3v2Frame created = new ID3v2Frame("TPE1", Arrays.copyOfRange(bytes, 10, bytes.length));
+		assertNotNull(clean.packedBytes());
+		assertNull(dirty.packedBytes());
+		assertEquals(clean, dirty);
+		assertEquals(dirty, clean);
+		assertEquals(clean.hashCode(), dirty.hashCode());
+		assertEquals(clean, created);
+		assertEquals(clean.hashCode(), created.hashCode());
+		byte[] otherBytes = bytes.clone();
+		otherBytes[bytes.length - 1] = 'X';
+		ID3v2Frame otherClean = new ID3v2Frame(otherBytes, 0);
+		assertNotEquals(clean, otherClean);
+		assertNotEquals(dirty, otherClean);
+		otherClean.getData()[dirty.getDataLength() - 1] = 'E';
+		assertEquals(clean, otherClean);
+	}
+
 }
@@ -1,7 +1,11 @@
 package com.mpatric.mp3agic;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -57,6 +61,17 @@ public class ID3v2TagTest {
 		}
 	}
 
+	@Test
+	public void shouldCheckId3v2HeaderBlockWithoutThrowing() {
+		byte[] header = BufferTools.copyBuffer(ID3V2_HEADER, 0, ID3V2_HEADER.length);
+		assertEquals(ID3v2TagFactory.TAG_VALID, ID3v2TagFactory.checkTag(header));
+		assertEquals(ID3v2TagFactory.TAG_BUFFER_TOO_SHORT, ID3v2TagFactory.checkTag(BufferTools.copyBuffer(header, 0, 9)));
+		header[3] = 5;
+		assertEquals(ID3v2TagFactory.TAG_UNSUPPORTED_VERSION, ID3v2TagFactory.checkTag(header));
+		header[0] = 0x54;
+		assertEquals(ID3v2TagFactory.TAG_NOT_FOUND, ID3v2TagFactory.checkTag(header));
+	}
+
 	@Test
 	public void shouldSortId3TagsAlphabetically() throws Exception {
 		byte[] buffer = TestHelper.loadFile("src/test/resources/v1andv23tags.mp3");
@@ -194,6 +209,153 @@ public class ID3v2TagTest {
 		assertEquals(2350, data.length);
 	}
 
+	@Test
+	public void shouldPadTagAsPaddingPolicySays() throws Exception {
+		ID3v24Tag id3tag = new ID3v24Tag();
+		setTagFields(id3tag);
+		id3tag.setPaddingPolicy(PaddingPolicy.fixed(1000));
+		assertEquals(2340 + 1000, id3tag.toBytes().length);
+		id3tag.setPaddingPolicy(PaddingPolicy.percentage(50));
+		assertEquals(2340 + 1170, id3tag.toBytes().length);
+		id3tag.setPaddingPolicy(PaddingPolicy.pageAligned());
+		byte[] data = id3tag.toBytes();
+		assertEquals(4096, data.length);
+		assertEquals(id3tag, new ID3v24Tag(data));
+		// the policy takes the place of the padding flag
+		id3tag.setPadding(true);
+		id3tag.setPaddingPolicy(PaddingPolicy.fixed(0));
+		assertEquals(2340, id3tag.toBytes().length);
+		id3tag.setPaddingPolicy(null);
+		assertEquals(2340 + AbstractID3v2Tag.PADDING_LENGTH, id3tag.toBytes().length);
+	}
+
+	@Test
+	public void shouldPreservePaddingOfTagAsRead() throws Exception {
+		ID3v24Tag id3tag = new ID3v24Tag();
+		setTagFields(id3tag);
+		id3tag.setPaddingPolicy(PaddingPolicy.fixed(777));
+		ID3v24Tag id3tagCopy = new ID3v24Tag(id3tag.toBytes());
+		assertEquals(777, id3tagCopy.getPreviousPaddingLength());
+		id3tagCopy.setPaddingPolicy(PaddingPolicy.preserve());
+		id3tagCopy.setTitle("A different title");
+		byte[] data = id3tagCopy.toBytes();
+		assertEquals(id3tagCopy.getUnpaddedLength() + 777, data.length);
+		assertEquals(777, new ID3v24Tag(data).getPreviousPaddingLength());
+	}
+
+	@Test
+	public void shouldClearPaddingWhenPackingIntoReusedBytes() throws Exception {
+		ID3v24Tag id3tag = new ID3v24Tag();
+		setTagFields(id3tag);
+		id3tag.setPaddingPolicy(PaddingPolicy.fixed(100));
+		byte[] bytes = new byte[id3tag.getLength()];
+		Arrays.fill(bytes, (byte) 0x55);
+		id3tag.packTag(bytes);
+		for (int i = id3tag.getUnpaddedLength(); i < bytes.length; i++) {
+			assertEquals(0, bytes[i]);
+		}
+	}
+
+	@Test
+	public void shouldNotPadTagWithFooterWhateverThePaddingPolicy() throws Exception {
+		ID3v24Tag id3tag = new ID3v24Tag();
+		setTagFields(id3tag);
+		id3tag.setFooter(true);
+		id3tag.setPaddingPolicy(PaddingPolicy.fixed(1000));
+		assertEquals(2350, id3tag.toBytes().length);
+	}
+
+	@Test
+	public void shouldPackTagIntoBufferAndChannelAsIntoBytes() throws Exception {
+		byte[] albumImage = TestHelper.loadFile("src/test/resources/image.png");
+		for (boolean footer : new boolean[]{false, true}) {
+			ID3v24Tag id3tag = new ID3v24Tag();
+			setTagFields(id3tag);
+			id3tag.setAlbumImage(albumImage, "image/png");
+			id3tag.setFooter(footer);
+			id3tag.setPaddingPolicy(PaddingPolicy.fixed(300));
+			byte[] data = id3tag.toBytes();
+			assertEquals(id3tag, new ID3v24Tag(data));
+			for (boolean direct : new boolean[]{false, true}) {
+				ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(data.length + 7) : ByteBuffer.allocate(data.length + 7);
+				buffer.position(7);
+				id3tag.packTag(buffer);
+				assertEquals(buffer.capacity(), buffer.position());
+				buffer.position(7);
+				byte[] fromBuffer = new byte[data.length];
+				buffer.get(fromBuffer);
+				assertArrayEquals(data, fromBuffer);
+			}
+			ByteArrayOutputStream stream = new ByteArrayOutputStream();
+			id3tag.packTag(Channels.newChannel(stream));
+			assertArrayEquals(data, stream.toByteArray());
+		}
+	}
+
+	@Test
+	public void shouldNotChangeTagWhenBytesItWasReadFromChange() throws Exception {
+		ID3v24Tag id3tag = new ID3v24Tag();
+		setTagFields(id3tag);
+		byte[] data = id3tag.toBytes();
+		byte[] expectedData = data.clone();
+		ID3v2 readTag = new ID3v24Tag(data);
+		ID3v2 factoryTag = ID3v2TagFactory.createTag(data);
+		Arrays.fill(data, AbstractID3v2Tag.HEADER_LENGTH, data.length, (byte) 'X');
+		assertArrayEquals(expectedData, readTag.toBytes());
+		assertArrayEquals(expectedData, factoryTag.toBytes());
+	}
+
+	@Test
+	public void shouldRepackOnlyFramesChangedSinceTagWasRead() throws Exception {
+		byte[] albumImage = TestHelper.loadFile("src/test/resources/image.png");
+		ID3v24Tag id3tag = new ID3v24Tag();
+		setTagFields(id3tag);
+		id3tag.setAlbumImage(albumImage, "image/png");
+		id3tag.setPaddingPolicy(PaddingPolicy.fixed(300));
+		byte[] data = id3tag.toBytes();
+		ID3v24Tag readTag = new ID3v24Tag(data);
+		assertArrayEquals(data, readTag.toBytes());
+		readTag.setPaddingPolicy(PaddingPolicy.fixed(300));
+		readTag.setTitle("NEW TITLE");
+		id3tag.setTitle("NEW TITLE");
+		assertEquals(id3tag.getLength(), readTag.getLength());
+		assertArrayEquals(id3tag.toBytes(), readTag.toBytes());
+		ID3v2Frame imageFrame = readTag.getFrameSets().get(AbstractID3v2Tag.ID_IMAGE).getFrames().get(0);
+		assertNotNull(imageFrame.packedBytes());
+		assertArrayEquals(albumImage, readTag.getAlbumImage());
+		assertEquals("NEW TITLE", readTag.getTitle());
+		assertNotNull(imageFrame.packedBytes());
+		imageFrame.getData();
+		assertNull(imageFrame.packedBytes());
+		readTag.getFrameSets().remove(AbstractID3v2Tag.ID_ALBUM);
+		readTag.setYear("2001");
+		id3tag.clearFrameSet(AbstractID3v2Tag.ID_ALBUM);
+		id3tag.setYear("2001");
+		assertEquals(id3tag.getLength(), readTag.getLength());
+		assertArrayEquals(id3tag.toBytes(), readTag.toBytes());
+	}
+
+	@Test
+	public void shouldEndFramesAtInvalidIdButFailTagWithFrameCutShort() throws Exception {
+		ID3v23Tag id3tag = new ID3v23Tag();
+		id3tag.setTitle("TITLE");
+		id3tag.setArtist("ARTIST");
+		byte[] data = id3tag.toBytes();
+		// the title frame, TIT2, is packed before the artist frame, TPE1
+		int artistOffset = 10 + id3tag.getFrameSets().get(AbstractID3v2Tag.ID_TITLE).getFrames().get(0).getLength();
+		byte[] invalidId = data.clone();
+		invalidId[artistOffset] = 'x';
+		ID3v23Tag readTag = new ID3v23Tag(invalidId);
+		assertEquals("TITLE", readTag.getTitle());
+		assertNull(readTag.getArtist());
+		try {
+			new ID3v23Tag(Arrays.copyOf(data, artistOffset + 4));
+			fail("InvalidDataException expected but not thrown");
+		} catch (InvalidDataException e) {
+			assertEquals("Premature end of tag", e.getMessage());
+		}
+	}
+
 	@Test
 	public void shouldExtractGenreNumberFromCombinedGenreStringsCorrectly() throws Exception {
 		ID3v23TagForTesting id3tag = new ID3v23TagForTesting();
@@ -0,0 +1,108 @@
+package com.mpatric.mp3agic;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class Mp3DurationEstimateTest {
+
+	private static final String fs = File.separator;
+	private static final String MP3_WITH_ID3V1_AND_ID3V23_TAGS = "src" + fs + "test" + fs + "resources" + fs + "v1andv23tags.mp3";
+	private static final String NOT_AN_MP3 = "src" + fs + "test" + fs + "resources" + fs + "notanmp3.mp3";
+
+	@Test
+	public void shouldEstimateLengthOfConstantBitrateFile() throws Exception {
+		String filename = "target" + fs + "estimatecbr.mp3";
+		writeFile(filename, 1000, TestHelper.createMpegFrames(5000, 9));
+		try {
+			Mp3File mp3File = new Mp3File(filename);
+			Mp3DurationEstimate estimate = new Mp3DurationEstimate(filename, 8);
+			assertFalse(estimate.isFromVbrHeader());
+			assertEquals(8, estimate.getSampledWindowCount());
+			assertEquals(mp3File.getLengthInMilliseconds(), estimate.getLengthInMilliseconds(), mp3File.getLengthInMilliseconds() / 100.0);
+			assertEquals(mp3File.getFrameCount(), estimate.getFrameCount(), mp3File.getFrameCount() / 100.0);
+			assertEquals(128, estimate.getBitrate());
+			assertEquals(44100, estimate.getSampleRate());
+			assertEquals(estimate.getLengthInMilliseconds(), estimate.getLowerLengthInMilliseconds());
+			assertEquals(estimate.getLengthInMilliseconds(), estimate.getUpperLengthInMilliseconds());
+		} finally {
+			TestHelper.deleteFile(filename);
+		}
+	}
+
+	@Test
+	public void shouldEstimateLengthOfVariableBitrateFileWithinConfidenceInterval() throws Exception {
+		String filename = "target" + fs + "estimatevbr.mp3";
+		int frameCount = 5000;
+		writeFile(filename, 0, TestHelper.createMpegFrames(frameCount, 9, 11, 14, 5, 1, 9, 9, 3));
+		try {
+			long lengthInMilliseconds = Math.round(frameCount * 1152 * 1000.0 / 44100);
+			Mp3DurationEstimate estimate = new Mp3DurationEstimate(filename, 16, 8192);
+			assertEquals(16, estimate.getSampledWindowCount());
+			assertTrue(estimate.getSampledFrameCount() < frameCount);
+			assertTrue(estimate.getLowerLengthInMilliseconds() <= lengthInMilliseconds);
+			assertTrue(estimate.getUpperLengthInMilliseconds() >= lengthInMilliseconds);
+			assertTrue(estimate.getLowerLengthInMilliseconds() < estimate.getUpperLengthInMilliseconds());
+			assertEquals(lengthInMilliseconds, estimate.getLengthInMilliseconds(), lengthInMilliseconds / 20.0);
+		} finally {
+			TestHelper.deleteFile(filename);
+		}
+	}
+
+	@Test
+	public void shouldScanFileThatFitsInOneWindowOnce() throws Exception {
+		String filename = "target" + fs + "estimateshort.mp3";
+		writeFile(filename, 100, TestHelper.createMpegFrames(20, 9, 11, 14));
+		try {
+			Mp3File mp3File = new Mp3File(filename);
+			Mp3DurationEstimate estimate = new Mp3DurationEstimate(filename, 8);
+			assertEquals(1, estimate.getSampledWindowCount());
+			assertEquals(20, estimate.getSampledFrameCount());
+			assertEquals(mp3File.getFrameCount(), estimate.getFrameCount());
+			assertEquals(mp3File.getLengthInMilliseconds(), estimate.getLengthInMilliseconds());
+			assertEquals(mp3File.getBitrate(), estimate.getBitrate());
+			assertEquals(estimate.getLengthInMilliseconds(), estimate.getLowerLengthInMilliseconds());
+			assertEquals(estimate.getLengthInMilliseconds(), estimate.getUpperLengthInMilliseconds());
+		} finally {
+			TestHelper.deleteFile(filename);
+		}
+	}
+
+	@Test
+	public void shouldTakeLengthFromVbrHeaderThatMatchesFileSize() throws Exception {
+		Mp3FileOptions options = new Mp3FileOptions();
+		options.setUseVbrHeader(true);
+		Mp3File mp3File = new Mp3File(MP3_WITH_ID3V1_AND_ID3V23_TAGS, options);
+		Mp3DurationEstimate estimate = new Mp3DurationEstimate(MP3_WITH_ID3V1_AND_ID3V23_TAGS, 4);
+		assertTrue(estimate.isFromVbrHeader());
+		assertEquals(mp3File.getFrameCount(), estimate.getFrameCount());
+		assertEquals(mp3File.getLengthInMilliseconds(), estimate.getLengthInMilliseconds());
+		assertEquals(estimate.getLengthInMilliseconds(), estimate.getLowerLengthInMilliseconds());
+		assertEquals(estimate.getLengthInMilliseconds(), estimate.getUpperLengthInMilliseconds());
+	}
+
+	@Test(expected = InvalidDataException.class)
+	public void shouldThrowExceptionForFileThatIsNotAnMp3() throws Exception {
+		new Mp3DurationEstimate(NOT_AN_MP3, 4);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectZeroWindows() throws Exception {
+		new Mp3DurationEstimate(MP3_WITH_ID3V1_AND_ID3V23_TAGS, 0);
+	}
+
+	private void writeFile(String filename, int junkLength, byte[] frames) throws Exception {
+		byte[] junk = new byte[junkLength];
+		new Random(0).nextBytes(junk);
+		try (OutputStream outputStream = Files.newOutputStream(Paths.get(filename))) {
+			outputStream.write(junk);
+			outputStream.write(frames);
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package com.mpatric.mp3agic;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Times finding the start of the mpeg frames after prefixes of junk that are hard to resynchronise
+ * on. The time per megabyte should stay the same as the prefix grows.
+ * Run with: java -cp target/classes:target/test-classes com.mpatric.mp3agic.Mp3FileResyncBenchmark [largest prefix in MB] [iterations]
+ */
+public class Mp3FileResyncBenchmark {
+
+	private static final int CHUNK_LENGTH = 1024 * 1024;
+
+	public static void main(String[] args) throws Exception {
+		int largestPrefixInMegabytes = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		byte[] allOnes = new byte[CHUNK_LENGTH];
+		Arrays.fill(allOnes, (byte) 0xFF);
+		byte[] falseHeaders = TestHelper.createFalseMpegFrameHeaders(CHUNK_LENGTH);
+		byte[] randomJunk = new byte[CHUNK_LENGTH];
+		new Random(0).nextBytes(randomJunk);
+		for (int prefixInMegabytes = largestPrefixInMegabytes / 8; prefixInMegabytes <= largestPrefixInMegabytes; prefixInMegabytes *= 2) {
+			time("all 0xFF", allOnes, prefixInMegabytes, iterations);
+			time("false headers", falseHeaders, prefixInMegabytes, iterations);
+			time("random junk", randomJunk, prefixInMegabytes, iterations);
+		}
+	}
+
+	static File createFile(byte[] junk, int prefixInMegabytes) throws IOException {
+		File file = File.createTempFile("mp3agic-benchmark", ".mp3");
+		try (OutputStream outputStream = new FileOutputStream(file)) {
+			for (int i = 0; i < prefixInMegabytes; i++) {
+				outputStream.write(junk);
+			}
+			outputStream.write(TestHelper.createMpegFrames(100, 9));
+		}
+		return file;
+	}
+
+	static void time(String name, byte[] junk, int prefixInMegabytes, int iterations) throws Exception {
+		File file = createFile(junk, prefixInMegabytes);
+		try {
+			long best = Long.MAX_VALUE;
+			long startOffset = 0;
+			for (int i = 0; i < iterations; i++) {
+				long start = System.nanoTime();
+				startOffset = new Mp3File(file).getStartOffset();
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			System.out.printf("%-14s %4d MB prefix %8.1f ms  %6.2f ms/MB  (start %d)%n", name, prefixInMegabytes, best / 1e6, best / 1e6 / prefixInMegabytes, startOffset);
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.mpatric.mp3agic;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compares the time taken to save a large retagged mp3 by copying its frames through a heap buffer,
+ * as save did before, with save, which transfers them with FileChannel.transferTo.
+ * Run with: java -cp target/classes:target/test-classes com.mpatric.mp3agic.Mp3FileSaveBenchmark [size in MB] [iterations]
+ */
+public class Mp3FileSaveBenchmark {
+
+	private static final int BUFFER_LENGTH = 65536;
+
+	public static void main(String[] args) throws Exception {
+		int sizeInMegabytes = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		File file = createFile(sizeInMegabytes);
+		File savedFile = File.createTempFile("mp3agic-benchmark-saved", ".mp3");
+		try {
+			Mp3File mp3File = new Mp3File(file);
+			mp3File.getId3v2Tag().setTitle("Retagged");
+			// first pass warms both the page cache and the jit
+			time("warm-up", mp3File, savedFile, true, 1);
+			time("heap buffer", mp3File, savedFile, true, iterations);
+			time("transferTo", mp3File, savedFile, false, iterations);
+		} finally {
+			file.delete();
+			savedFile.delete();
+		}
+	}
+
+	private static File createFile(int sizeInMegabytes) throws Exception {
+		byte[] frames = TestHelper.createMpegFrames(2000, 9, 11, 14, 5);
+		ID3v2 id3v2Tag = new ID3v24Tag();
+		id3v2Tag.setTitle("Original");
+		ID3v1 id3v1Tag = new ID3v1Tag();
+		id3v1Tag.setTitle("Original");
+		File file = File.createTempFile("mp3agic-benchmark", ".mp3");
+		try (OutputStream outputStream = new FileOutputStream(file)) {
+			outputStream.write(id3v2Tag.toBytes());
+			for (long written = 0; written < sizeInMegabytes * 1024L * 1024L; written += frames.length) {
+				outputStream.write(frames);
+			}
+			outputStream.write(id3v1Tag.toBytes());
+		}
+		return file;
+	}
+
+	private static void time(String name, Mp3File mp3File, File savedFile, boolean heapBuffer, int iterations) throws Exception {
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < iterations; i++) {
+			long start = System.nanoTime();
+			if (heapBuffer) {
+				saveThroughHeapBuffer(mp3File, savedFile);
+			} else {
+				mp3File.save(savedFile.getPath());
+			}
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		double seconds = best / 1e9;
+		System.out.printf("%-16s %8.1f ms  %8.1f MB/s%n", name, best / 1e6, savedFile.length() / 1048576.0 / seconds);
+	}
+
+	/**
+	 * Saves as save did before, reading the frames into a heap buffer and writing each tag separately.
+	 */
+	private static void saveThroughHeapBuffer(Mp3File mp3File, File savedFile) throws Exception {
+		try (FileChannel saveChannel = FileChannel.open(savedFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+				FileChannel channel = FileChannel.open(new File(mp3File.getFilename()).toPath(), StandardOpenOption.READ)) {
+			write(saveChannel, ByteBuffer.wrap(mp3File.getId3v2Tag().toBytes()));
+			ByteBuffer byteBuffer = ByteBuffer.allocate(BUFFER_LENGTH);
+			long filePos = mp3File.hasXingFrame() ? mp3File.getXingOffset() : mp3File.getStartOffset();
+			channel.position(filePos);
+			while (filePos <= mp3File.getEndOffset()) {
+				byteBuffer.clear();
+				byteBuffer.limit((int) Math.min(BUFFER_LENGTH, mp3File.getEndOffset() - filePos + 1));
+				channel.read(byteBuffer);
+				byteBuffer.flip();
+				filePos += byteBuffer.remaining();
+				write(saveChannel, byteBuffer);
+			}
+			write(saveChannel, ByteBuffer.wrap(mp3File.getId3v1Tag().toBytes()));
+		}
+	}
+
+	private static void write(FileChannel channel, ByteBuffer byteBuffer) throws Exception {
+		while (byteBuffer.hasRemaining()) {
+			channel.write(byteBuffer);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package com.mpatric.mp3agic;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares the time taken to scan a large mp3 through the heap buffer, through memory mappings and
+ * in parallel on every core, and to scan a large constant bitrate mp3 frame by frame and by skipping runs of frames.
+ * Run with: java -cp target/classes:target/test-classes com.mpatric.mp3agic.Mp3FileScanBenchmark [size in MB] [iterations]
+ */
+public class Mp3FileScanBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int sizeInMegabytes = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		File file = createFile(sizeInMegabytes, TestHelper.createMpegFrames(2000, 9, 11, 14, 5));
+		File cbrFile = createFile(sizeInMegabytes, TestHelper.createPaddedMpegFrames(2000, 9));
+		try {
+			Mp3FileOptions buffered = new Mp3FileOptions();
+			Mp3FileOptions mapped = new Mp3FileOptions();
+			mapped.setMemoryMapped(true);
+			// first pass warms both the page cache and the jit
+			time("warm-up", file, buffered, 1);
+			time("buffered", file, buffered, iterations);
+			time("memory mapped", file, mapped, iterations);
+			Mp3FileOptions parallel = new Mp3FileOptions();
+			parallel.setForkJoinPool(ForkJoinPool.commonPool());
+			time("parallel", file, parallel, iterations);
+			Mp3FileOptions skipping = new Mp3FileOptions();
+			skipping.setSkipConstantBitrateFrames(true);
+			Mp3FileOptions mappedSkipping = new Mp3FileOptions();
+			mappedSkipping.setMemoryMapped(true);
+			mappedSkipping.setSkipConstantBitrateFrames(true);
+			time("cbr warm-up", cbrFile, buffered, 1);
+			time("cbr buffered", cbrFile, buffered, iterations);
+			time("cbr skipping", cbrFile, skipping, iterations);
+			time("cbr mapped", cbrFile, mapped, iterations);
+			time("cbr mapped skip", cbrFile, mappedSkipping, iterations);
+		} finally {
+			file.delete();
+			cbrFile.delete();
+		}
+	}
+
+	static File createFile(int sizeInMegabytes, byte[] frames) throws IOException {
+		File file = File.createTempFile("mp3agic-benchmark", ".mp3");
+		try (OutputStream outputStream = new FileOutputStream(file)) {
+			for (long written = 0; written < sizeInMegabytes * 1024L * 1024L; written += frames.length) {
+				outputStream.write(frames);
+			}
+		}
+		return file;
+	}
+
+	static void time(String name, File file, Mp3FileOptions options, int iterations) throws Exception {
+		long best = Long.MAX_VALUE;
+		int frameCount = 0;
+		for (int i = 0; i < iterations; i++) {
+			long start = System.nanoTime();
+			frameCount = new Mp3File(file, options).getFrameCount();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		double seconds = best / 1e9;
+		System.out.printf("%-16s %8.1f ms  %8.1f MB/s  (%d frames)%n", name, best / 1e6, file.length() / 1048576.0 / seconds, frameCount);
+	}
+}
@@ -0,0 +1,186 @@
+package com.mpatric.mp3agic;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class Mp3FileScannerTest {
+
+	private static final String fs = File.separator;
+	private static final String MP3_WITH_ID3V1_AND_ID3V23_TAGS = "src" + fs + "test" + fs + "resources" + fs + "v1andv23tags.mp3";
+	private static final Path SCANNED_FILE = Paths.get("target" + fs + "scanner.mp3");
+
+	@Before
+	public void createFile() throws Exception {
+		try (OutputStream outputStream = Files.newOutputStream(SCANNED_FILE)) {
+			// the ID3v2 tag and Xing header frame of the test file
+			outputStream.write(TestHelper.loadFile(MP3_WITH_ID3V1_AND_ID3V23_TAGS), 0, 0x5EC);
+			outputStream.write(TestHelper.createPaddedMpegFrames(1000, 9));
+			outputStream.write(TestHelper.createMpegFrames(1000, 9, 11, 14, 5));
+			outputStream.write(new ID3v1Tag().toBytes());
+		}
+	}
+
+	@After
+	public void deleteFile() {
+		TestHelper.deleteFile(SCANNED_FILE.toString());
+	}
+
+	@Test
+	public void shouldGiveSameResultsAsMp3FileWhenAdvancedInSteps() throws Exception {
+		Mp3FileOptions options = new Mp3FileOptions(5000, true);
+		Mp3File expected = new Mp3File(SCANNED_FILE, options);
+		try (Mp3FileScanner scanner = new Mp3FileScanner(SCANNED_FILE, options)) {
+			int steps = 0;
+			int frameCount = 0;
+			while (!scanner.advance(20000)) {
+				assertTrue(scanner.getFrameCount() > frameCount);
+				assertTrue(scanner.getPosition() < scanner.getLength());
+				frameCount = scanner.getFrameCount();
+				steps++;
+			}
+			assertTrue(steps > 10);
+			assertTrue(scanner.isComplete());
+			assertEquals(scanner.getLength(), scanner.getPosition());
+			checkSameResults(expected, scanner.getMp3File());
+		}
+	}
+
+	@Test
+	public void shouldResumeFromSerializedCheckpoint() throws Exception {
+		Mp3FileOptions options = new Mp3FileOptions(5000, true);
+		options.setBuildFrameIndex(true);
+		Mp3File expected = new Mp3File(SCANNED_FILE, options);
+		ScanCheckpoint checkpoint;
+		try (Mp3FileScanner scanner = new Mp3FileScanner(SCANNED_FILE, options)) {
+			assertFalse(scanner.advance(300000));
+			checkpoint = scanner.checkpoint();
+			assertEquals(scanner.getFrameCount(), checkpoint.getFrameCount());
+			assertEquals(scanner.getPosition(), checkpoint.getScanOffset());
+			assertFalse(scanner.advance(100000));
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(bytes)) {
+			objectOutputStream.writeObject(checkpoint);
+		}
+		try (ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			checkpoint = (ScanCheckpoint) objectInputStream.readObject();
+		}
+		try (Mp3FileScanner scanner = new Mp3FileScanner(SCANNED_FILE, options, checkpoint)) {
+			assertEquals(checkpoint.getFrameCount(), scanner.getFrameCount());
+			assertTrue(scanner.run(null, null));
+			Mp3File mp3File = scanner.getMp3File();
+			checkSameResults(expected, mp3File);
+			assertEquals(VbrHeader.TYPE_XING, mp3File.getVbrHeader().getType());
+			assertEquals(expected.getFrameIndex().getFrameCount(), mp3File.getFrameIndex().getFrameCount());
+			assertEquals(expected.getFrameIndex().getFrameOffset(1999), mp3File.getFrameIndex().getFrameOffset(1999));
+		}
+	}
+
+	@Test
+	public void shouldResumeFromCheckpointOfScanCompletedFromVbrHeader() throws Exception {
+		Path path = Paths.get(MP3_WITH_ID3V1_AND_ID3V23_TAGS);
+		Mp3FileOptions options = new Mp3FileOptions();
+		options.setUseVbrHeader(true);
+		Mp3File expected = new Mp3File(path, options);
+		ScanCheckpoint checkpoint;
+		try (Mp3FileScanner scanner = new Mp3FileScanner(path, options)) {
+			assertTrue(scanner.run(null, null));
+			checkpoint = scanner.checkpoint();
+		}
+		assertTrue(checkpoint.isComplete());
+		try (Mp3FileScanner scanner = new Mp3FileScanner(path, options, checkpoint)) {
+			assertTrue(scanner.run(null, null));
+			Mp3File mp3File = scanner.getMp3File();
+			checkSameResults(expected, mp3File);
+			assertTrue(mp3File.isVbrHeaderUsed());
+			assertTrue(mp3File.isVbr());
+		}
+	}
+
+	@Test
+	public void shouldResumeSkippingConstantBitrateFramesFromCheckpoint() throws Exception {
+		Mp3FileOptions options = new Mp3FileOptions();
+		options.setSkipConstantBitrateFrames(true);
+		options.setMemoryMapped(true);
+		options.setMappedWindowLength(10000);
+		Mp3File expected = new Mp3File(SCANNED_FILE, options);
+		ScanCheckpoint checkpoint;
+		try (Mp3FileScanner scanner = new Mp3FileScanner(SCANNED_FILE, options)) {
+			scanner.advance(200000);
+			checkpoint = scanner.checkpoint();
+		}
+		try (Mp3FileScanner scanner = new Mp3FileScanner(SCANNED_FILE, options, checkpoint)) {
+			scanner.run(null, null);
+			checkSameResults(expected, scanner.getMp3File());
+		}
+	}
+
+	@Test
+	public void shouldReportProgressAndStopWhenCancelled() throws Exception {
+		Mp3FileOptions options = new Mp3FileOptions(5000, true);
+		AtomicBoolean cancelled = new AtomicBoolean();
+		AtomicInteger calls = new AtomicInteger();
+		try (Mp3FileScanner scanner = new Mp3FileScanner(SCANNED_FILE, options)) {
+			assertFalse(scanner.run(s -> {
+				assertSame(scanner, s);
+				if (calls.incrementAndGet() == 3) cancelled.set(true);
+			}, cancelled));
+			assertEquals(3, calls.get());
+			assertFalse(scanner.isComplete());
+			assertTrue(scanner.getPosition() > 0);
+			assertTrue(scanner.getFrameCount() > 0);
+			assertTrue(scanner.run(null, null));
+			checkSameResults(new Mp3File(SCANNED_FILE, options), scanner.getMp3File());
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void shouldNotGiveMp3FileBeforeScanIsComplete() throws Exception {
+		try (Mp3FileScanner scanner = new Mp3FileScanner(SCANNED_FILE, new Mp3FileOptions(5000, true))) {
+			scanner.advance(1);
+			scanner.getMp3File();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectCheckpointForFileThatHasChanged() throws Exception {
+		ScanCheckpoint checkpoint;
+		try (Mp3FileScanner scanner = new Mp3FileScanner(SCANNED_FILE, new Mp3FileOptions(5000, true))) {
+			scanner.advance(1);
+			checkpoint = scanner.checkpoint();
+		}
+		Files.write(SCANNED_FILE, new byte[100], StandardOpenOption.APPEND);
+		new Mp3FileScanner(SCANNED_FILE, new Mp3FileOptions(5000, true), checkpoint).close();
+	}
+
+	private void checkSameResults(Mp3File expected, Mp3File actual) {
+		assertEquals(expected.getStartOffset(), actual.getStartOffset());
+		assertEquals(expected.getEndOffset(), actual.getEndOffset());
+		assertEquals(expected.getXingOffset(), actual.getXingOffset());
+		assertEquals(expected.getFrameCount(), actual.getFrameCount());
+		assertEquals(expected.getBitrates(), actual.getBitrates());
+		assertEquals(expected.getBitrate(), actual.getBitrate());
+		assertEquals(expected.getLengthInMilliseconds(), actual.getLengthInMilliseconds());
+		assertEquals(expected.getSampleRate(), actual.getSampleRate());
+		assertEquals(expected.getChannelMode(), actual.getChannelMode());
+		assertEquals(expected.hasId3v1Tag(), actual.hasId3v1Tag());
+		assertEquals(expected.hasId3v2Tag(), actual.hasId3v2Tag());
+		assertEquals(expected.getId3v2Tag().getTitle(), actual.getId3v2Tag().getTitle());
+	}
+}
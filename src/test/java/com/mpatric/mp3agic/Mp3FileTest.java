@@ -1,15 +1,36 @@
 package com.mpatric.mp3agic;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SeekableByteChannel;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 
 import static junit.framework.TestCase.assertFalse;
+import static org.junit.Assume.assumeTrue;
 import static org.junit.Assert.*;
 
 public class Mp3FileTest {
@@ -22,6 +43,11 @@ public class Mp3FileTest {
 	private static final String MP3_WITH_ID3V23_UNICODE_TAGS = "src" + fs + "test" + fs + "resources" + fs + "v23unicodetags.mp3";
 	private static final String NOT_AN_MP3 = "src" + fs + "test" + fs + "resources" + fs + "notanmp3.mp3";
 	private static final String MP3_WITH_INCOMPLETE_MPEG_FRAME = "src" + fs + "test" + fs + "resources" + fs + "incompletempegframe.mp3";
+	private static final String MP3_WITH_MISMATCHED_XING_HEADER = "src" + fs + "test" + fs + "resources" + fs + "obsolete.mp3";
+	private static final String MP3_WITH_INFO_HEADER = "src" + fs + "test" + fs + "resources" + fs + "v23tagwithchapters.mp3";
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
 
 	@Test
 	public void shouldLoadMp3WithNoTags() throws IOException, UnsupportedTagException, InvalidDataException {
@@ -71,6 +97,720 @@ public class Mp3FileTest {
 		loadAndCheckTestMp3WithCustomTag(new File(MP3_WITH_ID3V1_AND_ID3V23_AND_CUSTOM_TAGS), 5000);
 	}
 
+	@Test
+	public void shouldLoadMp3WithMemoryMappedScan() throws IOException, UnsupportedTagException, InvalidDataException {
+		loadAndCheckTestMp3WithTags(loadAndCheckMemoryMappedTestMp3(MP3_WITH_ID3V1_AND_ID3V23_TAGS, 41));
+		loadAndCheckTestMp3WithTags(loadAndCheckMemoryMappedTestMp3(MP3_WITH_ID3V1_AND_ID3V23_TAGS, 256));
+		loadAndCheckTestMp3WithTags(loadAndCheckMemoryMappedTestMp3(MP3_WITH_DUMMY_START_AND_END_FRAMES, 41));
+		loadAndCheckTestMp3WithTags(loadAndCheckMemoryMappedTestMp3(MP3_WITH_DUMMY_START_AND_END_FRAMES, 1024));
+		loadAndCheckTestMp3WithCustomTag(loadAndCheckMemoryMappedTestMp3(MP3_WITH_ID3V1_AND_ID3V23_AND_CUSTOM_TAGS, 256));
+		loadAndCheckTestMp3WithCustomTag(loadAndCheckMemoryMappedTestMp3(MP3_WITH_ID3V1_AND_ID3V23_AND_CUSTOM_TAGS, Mp3FileOptions.DEFAULT_MAPPED_WINDOW_LENGTH));
+	}
+
+	@Test
+	public void shouldGiveSameResultsForMemoryMappedAndBufferedScans() throws Exception {
+		Mp3FileOptions options = new Mp3FileOptions();
+		options.setMemoryMapped(true);
+		options.setMappedWindowLength(1000);
+		Mp3File mappedMp3File = new Mp3File(MP3_WITH_MISMATCHED_XING_HEADER, options);
+		Mp3File mp3File = new Mp3File(MP3_WITH_MISMATCHED_XING_HEADER, 1000);
+		assertEquals(mp3File.getStartOffset(), mappedMp3File.getStartOffset());
+		assertEquals(mp3File.getEndOffset(), mappedMp3File.getEndOffset());
+		assertEquals(mp3File.getFrameCount(), mappedMp3File.getFrameCount());
+		assertEquals(mp3File.getBitrates(), mappedMp3File.getBitrates());
+		assertEquals(mp3File.getId3v2Tag(), mappedMp3File.getId3v2Tag());
+	}
+
+	@Test
+	public void shouldBuildFrameIndexWhenRequested() throws Exception {
+		Mp3FileOptions options = new Mp3FileOptions(256, true);
+		options.setBuildFrameIndex(true);
+		Mp3File mp3File = new Mp3File(MP3_WITH_DUMMY_START_AND_END_FRAMES, options);
+		loadAndCheckTestMp3WithTags(loadAndCheckTestMp3(mp3File));
+		FrameIndex frameIndex = mp3File.getFrameIndex();
+		assertEquals(mp3File.getFrameCount(), frameIndex.getFrameCount());
+		assertEquals(mp3File.getStartOffset(), mp3File.frameAt(0));
+		assertEquals(mp3File.getEndOffset() + 1, frameIndex.getEndOffset());
+		assertEquals(0, mp3File.timeForOffset(mp3File.getStartOffset()));
+		assertEquals(-1, mp3File.timeForOffset(mp3File.getStartOffset() - 1));
+		assertEquals(mp3File.frameAt(5), mp3File.offsetForTimeMillis(frameIndex.getFrameTimeMillis(5) + 1));
+		assertEquals(frameIndex.getFrameTimeMillis(5), mp3File.timeForOffset(mp3File.getEndOffset()));
+	}
+
+	@Test
+	public void shouldIndexEveryFrameOfLargerFile() throws Exception {
+		int[] bitrateIndexes = {9, 11, 14, 5, 1};
+		byte[] frames = TestHelper.createMpegFrames(1000, bitrateIndexes);
+		String filename = "target" + fs + "frameindex.mp3";
+		Files.write(Paths.get(filename), frames);
+		try {
+			Mp3FileOptions options = new Mp3FileOptions(1000, true);
+			options.setBuildFrameIndex(true);
+			Mp3File mp3File = new Mp3File(filename, options);
+			assertEquals(1000, mp3File.getFrameCount());
+			long offset = 0;
+			for (int i = 0; i < 1000; i++) {
+				assertEquals(offset, mp3File.frameAt(i));
+				offset += TestHelper.mpegFrameLength(bitrateIndexes[i % bitrateIndexes.length]);
+			}
+			assertEquals(26122, mp3File.getFrameIndex().getLengthInMilliseconds());
+			assertEquals(mp3File.frameAt(999), mp3File.offsetForTimeMillis(26100));
+			assertEquals(-1, mp3File.offsetForTimeMillis(26123));
+		} finally {
+			TestHelper.deleteFile(filename);
+		}
+	}
+
+	@Test
+	public void shouldFindStartOfFramesAfterJunkPrefix() throws Exception {
+		byte[] allOnes = new byte[40000];
+		Arrays.fill(allOnes, (byte) 0xFF);
+		byte[] falseHeaders = TestHelper.createFalseMpegFrameHeaders(100000);
+		byte[] randomJunk = new byte[60001];
+		new Random(0).nextBytes(randomJunk);
+		byte[] frames = TestHelper.createMpegFrames(200, 9);
+		String filename = "target" + fs + "junkprefix.mp3";
+		try (OutputStream outputStream = Files.newOutputStream(Paths.get(filename))) {
+			outputStream.write(allOnes);
+			outputStream.write(falseHeaders);
+			outputStream.write(randomJunk);
+			outputStream.write(frames);
+		}
+		int prefixLength = allOnes.length + falseHeaders.length + randomJunk.length;
+		try {
+			for (int bufferLength : new int[]{41, 256, 1000, 65536}) {
+				Mp3File mp3File = new Mp3File(filename, bufferLength);
+				assertEquals(prefixLength, mp3File.getStartOffset());
+				assertEquals(prefixLength + frames.length - 1, mp3File.getEndOffset());
+				assertEquals(200, mp3File.getFrameCount());
+			}
+			Mp3FileOptions options = new Mp3FileOptions();
+			options.setMemoryMapped(true);
+			options.setMappedWindowLength(5000);
+			Mp3File mp3File = new Mp3File(filename, options);
+			assertEquals(prefixLength, mp3File.getStartOffset());
+			assertEquals(200, mp3File.getFrameCount());
+		} finally {
+			TestHelper.deleteFile(filename);
+		}
+	}
+
+	@Test
+	public void shouldReadCustomTagsInsideAndBeyondTheTailRead() throws Exception {
+		byte[] frames = TestHelper.createMpegFrames(50, 9);
+		String filename = "target" + fs + "customtag.mp3";
+		try {
+			for (int customTagLength : new int[]{100, 20000}) {
+				byte[] customTag = new byte[customTagLength];
+				Arrays.fill(customTag, (byte) 'A');
+				try (OutputStream outputStream = Files.newOutputStream(Paths.get(filename))) {
+					outputStream.write(frames);
+					outputStream.write(customTag);
+				}
+				Mp3File mp3File = new Mp3File(filename);
+				assertEquals(50, mp3File.getFrameCount());
+				assertArrayEquals(customTag, mp3File.getCustomTag());
+			}
+		} finally {
+			TestHelper.deleteFile(filename);
+		}
+	}
+
+	@Test
+	public void shouldSkipConstantBitrateFramesWithSameResultsAsFullScan() throws Exception {
+		byte[] junk = new byte[3000];
+		new Random(0).nextBytes(junk);
+		String filename = "target" + fs + "cbrskip.mp3";
+		try (OutputStream outputStream = Files.newOutputStream(Paths.get(filename))) {
+			outputStream.write(TestHelper.createPaddedMpegFrames(1000, 9));
+			outputStream.write(TestHelper.createPaddedMpegFrames(1001, 13));
+			outputStream.write(TestHelper.createMpegFrames(500, 9, 11));
+			outputStream.write(TestHelper.createPaddedMpegFrames(1002, 14));
+			outputStream.write(junk);
+		}
+		try {
+			for (int bufferLength : new int[]{1000, 5000, 65536}) {
+				Mp3FileOptions options = new Mp3FileOptions(bufferLength, true);
+				Mp3File mp3File = new Mp3File(filename, options);
+				options.setSkipConstantBitrateFrames(true);
+				checkSameScanResults(mp3File, new Mp3File(filename, options));
+				options.setMemoryMapped(true);
+				checkSameScanResults(mp3File, new Mp3File(filename, options));
+			}
+			assertEquals(3503, new Mp3File(filename).getFrameCount());
+		} finally {
+			TestHelper.deleteFile(filename);
+		}
+	}
+
+	// the files a test wrote, followed by the test files every way of parsing is compared on
+	private static String[] filesToCompare(Path... writtenFiles) {
+		String[] files = {MP3_WITH_NO_TAGS, MP3_WITH_ID3V1_AND_ID3V23_AND_CUSTOM_TAGS, MP3_WITH_DUMMY_START_AND_END_FRAMES, MP3_WITH_INFO_HEADER};
+		String[] allFiles = new String[writtenFiles.length + files.length];
+		for (int i = 0; i < writtenFiles.length; i++) {
+			allFiles[i] = writtenFiles[i].toString();
+		}
+		System.arraycopy(files, 0, allFiles, writtenFiles.length, files.length);
+		return allFiles;
+	}
+
+	@Test
+	public void shouldScanInParallelWithSameResultsAsSequentialScan() throws Exception {
+		byte[] junk = new byte[3000];
+		new Random(0).nextBytes(junk);
+		Path path = TestHelper.writeMixedMp3(temporaryFolder.newFile("parallelscan.mp3").toPath(), junk);
+		Path damagedPath = temporaryFolder.newFile("parallelscandamaged.mp3").toPath();
+		try (OutputStream outputStream = Files.newOutputStream(damagedPath)) {
+			outputStream.write(TestHelper.createMpegFrames(1000, 9, 11));
+			outputStream.write(TestHelper.createFalseMpegFrameHeaders(5000));
+			outputStream.write(TestHelper.createMpegFrames(1000, 9, 11));
+		}
+		ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+		try {
+			for (String file : filesToCompare(path, damagedPath)) {
+				Mp3File mp3File = new Mp3File(file);
+				for (int chunkLength : new int[]{300, 1000, 4096, 100000}) {
+					Mp3FileOptions options = new Mp3FileOptions();
+					options.setForkJoinPool(forkJoinPool);
+					options.setParallelChunkLength(chunkLength);
+					Mp3File parallelMp3File = new Mp3File(file, options);
+					checkSameScanResults(mp3File, parallelMp3File);
+					assertArrayEquals(mp3File.getCustomTag(), parallelMp3File.getCustomTag());
+				}
+			}
+			assertEquals(TestHelper.MIXED_MP3_FRAME_COUNT, new Mp3File(path).getFrameCount());
+			// the first false header is a valid frame header, but the one after it is not
+			assertEquals(1001, new Mp3File(damagedPath).getFrameCount());
+		} finally {
+			forkJoinPool.shutdown();
+		}
+	}
+
+	@Test
+	public void shouldOpenAsynchronouslyWithSameResultsAsSynchronousOpen() throws Exception {
+		byte[] customTag = new byte[20000];
+		Arrays.fill(customTag, (byte) 'x');
+		Path path = TestHelper.writeMixedMp3(temporaryFolder.newFile("asyncopen.mp3").toPath(), customTag);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			for (String file : filesToCompare(path)) {
+				for (int bufferLength : new int[]{41, 256, 5000, 65536}) {
+					Mp3FileOptions options = new Mp3FileOptions(bufferLength, true);
+					Mp3File mp3File = new Mp3File(file, options);
+					checkSameResultsAndTags(mp3File, Mp3File.openAsync(Paths.get(file), options).get());
+					options.setSkipConstantBitrateFrames(true);
+					checkSameResultsAndTags(mp3File, Mp3File.openAsync(Paths.get(file), options, executor).get());
+				}
+			}
+			assertArrayEquals(customTag, Mp3File.openAsync(path, new Mp3FileOptions()).get().getCustomTag());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void shouldCompleteAsynchronousOpenExceptionallyIfFileHasNoFrames() throws Exception {
+		try {
+			Mp3File.openAsync(Paths.get(MP3_WITH_NO_TAGS + ".missing"), new Mp3FileOptions()).get();
+			fail("ExecutionException expected");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		Path path = temporaryFolder.newFile("asyncnoframes.mp3").toPath();
+		Files.write(path, new byte[10000]);
+		try {
+			Mp3File.openAsync(path, new Mp3FileOptions(256, true)).get();
+			fail("ExecutionException expected");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof InvalidDataException);
+		}
+	}
+
+	@Test
+	public void shouldParseStreamWithSameResultsAsFile() throws Exception {
+		// the longest custom tag kept from a stream is one that fits in the tail with the ID3v1 tag
+		byte[] customTag = new byte[8192 - ID3v1Tag.TAG_LENGTH];
+		Arrays.fill(customTag, (byte) 'x');
+		Path path = TestHelper.writeMixedMp3(temporaryFolder.newFile("stream.mp3").toPath(), customTag);
+		for (String file : filesToCompare(path)) {
+			byte[] bytes = TestHelper.loadFile(file);
+			for (int bufferLength : new int[]{41, 256, 5000, 65536}) {
+				Mp3FileOptions options = new Mp3FileOptions(bufferLength, true);
+				Mp3File mp3File = new Mp3File(file, options);
+				Mp3File streamMp3File = new Mp3File(new ByteArrayInputStream(bytes), options);
+				checkSameResultsAndTags(mp3File, streamMp3File);
+				assertEquals(mp3File.getLength(), streamMp3File.getLength());
+				// a stream that gives a few bytes at a time is read in the same blocks
+				checkSameResultsAndTags(mp3File, new Mp3File(new ByteArrayInputStream(bytes) {
+					@Override
+					public synchronized int read(byte[] b, int off, int len) {
+						return super.read(b, off, Math.min(len, 7));
+					}
+				}, options));
+			}
+		}
+		try (SeekableByteChannel channel = Files.newByteChannel(path)) {
+			Mp3File mp3File = new Mp3File(channel, new Mp3FileOptions());
+			assertArrayEquals(customTag, mp3File.getCustomTag());
+			assertNull(mp3File.getFilename());
+		}
+	}
+
+	@Test
+	public void shouldKeepOnlyTailOfStreamAfterFrames() throws Exception {
+		byte[] frames = TestHelper.createMpegFrames(50, 9);
+		final long trailingLength = 64L * 1024 * 1024;
+		final int[] longestRead = new int[1];
+		ReadableByteChannel channel = new ReadableByteChannel() {
+			private long position;
+
+			@Override
+			public int read(ByteBuffer bytes) {
+				longestRead[0] = Math.max(longestRead[0], bytes.remaining());
+				long size = frames.length + trailingLength;
+				if (position >= size) return -1;
+				int length = (int) Math.min(bytes.remaining(), size - position);
+				for (int i = 0; i < length; i++, position++) {
+					bytes.put(position < frames.length ? frames[(int) position] : (byte) 'x');
+				}
+				return length;
+			}
+
+			@Override
+			public boolean isOpen() {
+				return true;
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		Mp3FileOptions options = new Mp3FileOptions(5000, true);
+		Mp3File mp3File = new Mp3File(channel, options);
+		assertEquals(frames.length + trailingLength, mp3File.getLength());
+		assertEquals(50, mp3File.getFrameCount());
+		assertNull(mp3File.getCustomTag());
+		// the window is never grown past the buffer length and two tail lengths it starts at
+		assertTrue(longestRead[0] <= 5000 + 2 * 8192);
+	}
+
+	@Test(expected = NotSupportedException.class)
+	public void shouldNotSaveMp3ParsedFromStream() throws Exception {
+		Mp3File mp3File = new Mp3File(new ByteArrayInputStream(TestHelper.loadFile(MP3_WITH_NO_TAGS)), new Mp3FileOptions());
+		mp3File.save(new File(temporaryFolder.getRoot(), "stream-saved.mp3").getPath());
+	}
+
+	@Test
+	public void shouldParseByteBufferWithSameResultsAsFile() throws Exception {
+		byte[] customTag = new byte[20000];
+		Arrays.fill(customTag, (byte) 'x');
+		Path path = TestHelper.writeMixedMp3(temporaryFolder.newFile("bytebuffer.mp3").toPath(), customTag);
+		for (String file : filesToCompare(path)) {
+			byte[] bytes = TestHelper.loadFile(file);
+			ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+			direct.put(bytes).flip();
+			// a read-only slice from part way into a larger buffer
+			ByteBuffer larger = ByteBuffer.allocate(bytes.length + 200);
+			larger.position(100);
+			larger.put(bytes);
+			larger.position(100).limit(100 + bytes.length);
+			ByteBuffer slice = larger.slice().asReadOnlyBuffer();
+			for (int bufferLength : new int[]{41, 256, 5000}) {
+				Mp3FileOptions options = new Mp3FileOptions(bufferLength, true);
+				Mp3File mp3File = new Mp3File(file, options);
+				for (ByteBuffer source : new ByteBuffer[]{ByteBuffer.wrap(bytes), direct, slice}) {
+					Mp3File bufferMp3File = new Mp3File(source, options);
+					checkSameResultsAndTags(mp3File, bufferMp3File);
+					assertEquals(bytes.length, bufferMp3File.getLength());
+					assertEquals(0, source.position());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void shouldSaveMp3FromByteBufferToInMemorySink() throws Exception {
+		File savedFile = new File(temporaryFolder.getRoot(), "saved-from-file.mp3");
+		Mp3File mp3File = new Mp3File(MP3_WITH_ID3V1_AND_ID3V23_AND_CUSTOM_TAGS);
+		mp3File.getId3v2Tag().setTitle("Saved");
+		mp3File.save(savedFile.getPath());
+		Mp3File bufferMp3File = new Mp3File(ByteBuffer.wrap(TestHelper.loadFile(MP3_WITH_ID3V1_AND_ID3V23_AND_CUSTOM_TAGS)).asReadOnlyBuffer(), new Mp3FileOptions());
+		bufferMp3File.getId3v2Tag().setTitle("Saved");
+		ByteArrayOutputStream sink = new ByteArrayOutputStream();
+		bufferMp3File.save(Channels.newChannel(sink));
+		assertArrayEquals(Files.readAllBytes(savedFile.toPath()), sink.toByteArray());
+		Mp3File savedMp3File = new Mp3File(ByteBuffer.wrap(sink.toByteArray()), new Mp3FileOptions());
+		assertEquals("Saved", savedMp3File.getId3v2Tag().getTitle());
+		assertEquals(mp3File.getFrameCount(), savedMp3File.getFrameCount());
+		assertArrayEquals(mp3File.getCustomTag(), savedMp3File.getCustomTag());
+	}
+
+	@Test
+	public void shouldSaveFramesOfFileUnchangedToFileAndToOtherChannel() throws Exception {
+		String savedFilename = "target" + fs + "saved-frames.mp3";
+		for (String file : new String[]{MP3_WITH_NO_TAGS, MP3_WITH_ID3V1_AND_ID3V23_AND_CUSTOM_TAGS, MP3_WITH_DUMMY_START_AND_END_FRAMES}) {
+			byte[] bytes = TestHelper.loadFile(file);
+			Mp3File mp3File = new Mp3File(file);
+			try {
+				mp3File.save(savedFilename);
+				byte[] savedBytes = Files.readAllBytes(Paths.get(savedFilename));
+				// a channel that is not a file channel, so that the frames cannot be transferred directly
+				ByteArrayOutputStream sink = new ByteArrayOutputStream();
+				mp3File.save(Channels.newChannel(sink));
+				assertArrayEquals(savedBytes, sink.toByteArray());
+				int framesOffset = (int) (mp3File.hasXingFrame() ? mp3File.getXingOffset() : mp3File.getStartOffset());
+				int framesLength = (int) mp3File.getEndOffset() + 1 - framesOffset;
+				int savedFramesOffset = mp3File.hasId3v2Tag() ? mp3File.getId3v2Tag().toBytes().length : 0;
+				assertArrayEquals(Arrays.copyOfRange(bytes, framesOffset, framesOffset + framesLength), Arrays.copyOfRange(savedBytes, savedFramesOffset, savedFramesOffset + framesLength));
+			} finally {
+				TestHelper.deleteFile(savedFilename);
+			}
+		}
+	}
+
+	@Test
+	public void shouldUpdateTagsInPlaceWhenTheyFitAndRewriteWhenNot() throws Exception {
+		String filename = "target" + fs + "updated.mp3";
+		byte[] originalBytes = TestHelper.loadFile(MP3_WITH_ID3V1_AND_ID3V23_AND_CUSTOM_TAGS);
+		Files.write(Paths.get(filename), originalBytes);
+		try {
+			Mp3FileOptions options = new Mp3FileOptions();
+			options.setBuildFrameIndex(true);
+			Mp3File mp3File = new Mp3File(filename, options);
+			long startOffset = mp3File.getStartOffset();
+			mp3File.getId3v2Tag().setTitle("Short");
+			mp3File.getId3v1Tag().setTitle("Short");
+			mp3File.setCustomTag(new byte[]{1, 2, 3});
+			assertTrue(mp3File.update());
+			byte[] updatedBytes = Files.readAllBytes(Paths.get(filename));
+			// the frames are left where they were
+			assertArrayEquals(Arrays.copyOfRange(originalBytes, (int) startOffset, (int) mp3File.getEndOffset() + 1), Arrays.copyOfRange(updatedBytes, (int) startOffset, (int) mp3File.getEndOffset() + 1));
+			Mp3File updatedMp3File = new Mp3File(filename, options);
+			checkSameResultsAndTags(mp3File, updatedMp3File);
+			assertEquals("Short", updatedMp3File.getId3v2Tag().getTitle());
+			assertEquals(updatedBytes.length, mp3File.getLength());
+
+			char[] title = new char[5000];
+			Arrays.fill(title, 'x');
+			mp3File.getId3v2Tag().setTitle(new String(title));
+			assertFalse(mp3File.update());
+			updatedMp3File = new Mp3File(filename, options);
+			checkSameResultsAndTags(mp3File, updatedMp3File);
+			assertEquals(mp3File.getFrameIndex().getFrameOffset(5), updatedMp3File.getFrameIndex().getFrameOffset(5));
+			assertEquals(new String(title), updatedMp3File.getId3v2Tag().getTitle());
+			assertEquals(Files.size(Paths.get(filename)), mp3File.getLength());
+
+			// a tag no longer than the rewritten one is back to being updated in place
+			mp3File.getId3v2Tag().setTitle("Short again");
+			assertTrue(mp3File.update());
+			checkSameResultsAndTags(mp3File, new Mp3File(filename, options));
+		} finally {
+			TestHelper.deleteFile(filename);
+		}
+	}
+
+	@Test
+	public void shouldUpdateInPlaceWithinPaddingLeftByPaddingPolicy() throws Exception {
+		String filename = "target" + fs + "padded.mp3";
+		Files.write(Paths.get(filename), TestHelper.loadFile(MP3_WITH_ID3V1_AND_ID3V23_AND_CUSTOM_TAGS));
+		try {
+			Mp3File mp3File = new Mp3File(filename);
+			AbstractID3v2Tag id3v2Tag = (AbstractID3v2Tag) mp3File.getId3v2Tag();
+			id3v2Tag.setPaddingPolicy(PaddingPolicy.pageAligned());
+			char[] title = new char[3000];
+			Arrays.fill(title, 'x');
+			id3v2Tag.setTitle(new String(title));
+			assertFalse(mp3File.update());
+			assertEquals(0, mp3File.getXingOffset() % PaddingPolicy.PAGE_LENGTH);
+			// a tag that grows into its padding is written in place, giving up padding to fit
+			id3v2Tag.setTitle(new String(title) + "yyyy");
+			assertTrue(mp3File.update());
+			Mp3File updatedMp3File = new Mp3File(filename);
+			checkSameResultsAndTags(mp3File, updatedMp3File);
+			assertEquals(0, updatedMp3File.getXingOffset() % PaddingPolicy.PAGE_LENGTH);
+		} finally {
+			TestHelper.deleteFile(filename);
+		}
+	}
+
+	@Test
+	public void shouldPreservePaddingWrittenByLastUpdate() throws Exception {
+		String filename = "target" + fs + "preserved.mp3";
+		Files.write(Paths.get(filename), TestHelper.loadFile(MP3_WITH_ID3V1_AND_ID3V23_AND_CUSTOM_TAGS));
+		try {
+			Mp3File mp3File = new Mp3File(filename);
+			AbstractID3v2Tag id3v2Tag = (AbstractID3v2Tag) mp3File.getId3v2Tag();
+			id3v2Tag.setPaddingPolicy(PaddingPolicy.preserve());
+			long framesOffset = mp3File.getXingOffset();
+			id3v2Tag.setTitle("T");
+			assertTrue(mp3File.update());
+			// the bytes the title gave up became padding
+			assertEquals(framesOffset - id3v2Tag.getUnpaddedLength(), id3v2Tag.getPreviousPaddingLength());
+			assertEquals(framesOffset, id3v2Tag.toBytes().length);
+			id3v2Tag.setArtist("A");
+			assertTrue(mp3File.update());
+			assertEquals(framesOffset, id3v2Tag.toBytes().length);
+			checkSameResultsAndTags(mp3File, new Mp3File(filename));
+		} finally {
+			TestHelper.deleteFile(filename);
+		}
+	}
+
+	@Test
+	public void shouldSaveOverSourceFileAtomically() throws Exception {
+		Path directory = Paths.get("target", "atomic-save");
+		Path path = directory.resolve("saved.mp3");
+		Files.createDirectories(directory);
+		Files.write(path, TestHelper.loadFile(MP3_WITH_ID3V1_AND_ID3V23_AND_CUSTOM_TAGS));
+		boolean posix = Files.getFileStore(path).supportsFileAttributeView(PosixFileAttributeView.class);
+		if (posix) Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-r-----"));
+		try {
+			Mp3File mp3File = new Mp3File(path);
+			long startOffset = mp3File.getStartOffset();
+			mp3File.getId3v2Tag().setTitle("Saved over source");
+			mp3File.save(path.toString(), DurabilityPolicy.sync());
+			Mp3File savedMp3File = new Mp3File(path);
+			checkSameResultsAndTags(mp3File, savedMp3File);
+			assertEquals("Saved over source", savedMp3File.getId3v2Tag().getTitle());
+			assertNotEquals(startOffset, mp3File.getStartOffset());
+			assertEquals(Files.size(path), mp3File.getLength());
+			if (posix) assertEquals(PosixFilePermissions.fromString("rw-r-----"), Files.getPosixFilePermissions(path));
+			DurabilityPolicy durabilityPolicy = DurabilityPolicy.grouped(10);
+			mp3File.getId3v2Tag().setTitle("Saved again");
+			mp3File.save(path.toString(), durabilityPolicy);
+			assertEquals(1, durabilityPolicy.getPendingFileCount());
+			durabilityPolicy.commit();
+			checkSameResultsAndTags(mp3File, new Mp3File(path));
+			// the temporary files are gone
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+				int count = 0;
+				for (Path file : files) count++;
+				assertEquals(1, count);
+			}
+		} finally {
+			Files.deleteIfExists(path);
+			Files.deleteIfExists(directory);
+		}
+	}
+
+	@Test(expected = NotSupportedException.class)
+	public void shouldNotUpdateMp3ParsedFromByteBuffer() throws Exception {
+		Mp3File mp3File = new Mp3File(ByteBuffer.wrap(TestHelper.loadFile(MP3_WITH_NO_TAGS)), new Mp3FileOptions());
+		mp3File.update();
+	}
+
+	@Test(expected = IOException.class)
+	public void shouldNotUpdateFileChangedSinceItWasRead() throws Exception {
+		String filename = "target" + fs + "changed.mp3";
+		Files.write(Paths.get(filename), TestHelper.loadFile(MP3_WITH_NO_TAGS));
+		try {
+			Mp3File mp3File = new Mp3File(filename);
+			Files.write(Paths.get(filename), new byte[1], StandardOpenOption.APPEND);
+			mp3File.update();
+		} finally {
+			TestHelper.deleteFile(filename);
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void shouldNotUpdateFileRewrittenToSameLengthSinceItWasRead() throws Exception {
+		Path path = Paths.get("target", "rewritten.mp3");
+		Files.write(path, TestHelper.loadFile(MP3_WITH_ID3V1_AND_ID3V23_AND_CUSTOM_TAGS));
+		try {
+			Mp3File mp3File = new Mp3File(path);
+			Files.write(path, new byte[(int) mp3File.getLength()]);
+			Files.setLastModifiedTime(path, FileTime.fromMillis(mp3File.getLastModified() + 2000));
+			mp3File.update();
+		} finally {
+			Files.deleteIfExists(path);
+		}
+	}
+
+	@Test
+	public void shouldParseByteSourceWithSameResultsAsFile() throws Exception {
+		for (String file : new String[]{MP3_WITH_NO_TAGS, MP3_WITH_ID3V1_AND_ID3V23_AND_CUSTOM_TAGS, MP3_WITH_DUMMY_START_AND_END_FRAMES, MP3_WITH_INFO_HEADER}) {
+			byte[] bytes = TestHelper.loadFile(file);
+			for (int bufferLength : new int[]{41, 256, 5000}) {
+				Mp3FileOptions options = new Mp3FileOptions(bufferLength, true);
+				Mp3File mp3File = new Mp3File(file, options);
+				try (ByteSource source = new SimulatedRangeRequestSource(bytes, 0)) {
+					checkSameResultsAndTags(mp3File, new Mp3File(source, options));
+				}
+				try (ByteSource source = new FileByteSource(Paths.get(file))) {
+					checkSameResultsAndTags(mp3File, new Mp3File(source, options));
+					options.setMemoryMapped(true);
+					checkSameResultsAndTags(mp3File, new Mp3File(source, options));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void shouldReadByteSourceInFewRequestsAndSaveFromIt() throws Exception {
+		String filename = "target" + fs + "bytesource.mp3";
+		String savedFilename = "target" + fs + "bytesource-saved.mp3";
+		try (OutputStream outputStream = Files.newOutputStream(Paths.get(filename))) {
+			outputStream.write(TestHelper.loadFile(MP3_WITH_ID3V1_AND_ID3V23_AND_CUSTOM_TAGS), 0, 0x5EC);
+			outputStream.write(TestHelper.createMpegFrames(5000, 9, 11, 14, 5, 1));
+			outputStream.write(new ID3v1Tag().toBytes());
+		}
+		try {
+			Mp3FileOptions options = new Mp3FileOptions(5000, true);
+			Mp3File mp3File = new Mp3File(filename, options);
+			mp3File.save(savedFilename);
+			SimulatedRangeRequestSource source = new SimulatedRangeRequestSource(TestHelper.loadFile(filename), 5);
+			options.setNanoClock(source::nanoTime);
+			Mp3File sourceMp3File = new Mp3File(source, options);
+			checkSameResultsAndTags(mp3File, sourceMp3File);
+			// reading block by block would be several hundred requests
+			assertTrue(source.getRequestLengths().size() < 10);
+			ByteArrayOutputStream sink = new ByteArrayOutputStream();
+			sourceMp3File.save(Channels.newChannel(sink));
+			assertArrayEquals(Files.readAllBytes(Paths.get(savedFilename)), sink.toByteArray());
+		} finally {
+			TestHelper.deleteFile(filename);
+			TestHelper.deleteFile(savedFilename);
+		}
+	}
+
+	@Test
+	public void shouldParseFilesThroughOneParseContextWithSameResults() throws Exception {
+		String[] files = {MP3_WITH_ID3V1_AND_ID3V23_AND_CUSTOM_TAGS, MP3_WITH_NO_TAGS, MP3_WITH_DUMMY_START_AND_END_FRAMES, MP3_WITH_INFO_HEADER, MP3_WITH_ID3V23_UNICODE_TAGS};
+		for (boolean direct : new boolean[]{false, true}) {
+			ParseContext parseContext = new ParseContext(direct);
+			// the larger buffers first, so that later files read into buffers longer than they need
+			for (int bufferLength : new int[]{5000, 256, 41}) {
+				Mp3FileOptions options = new Mp3FileOptions(bufferLength, true);
+				for (String file : files) {
+					checkSameResultsAndTags(new Mp3File(file, options), new Mp3File(Paths.get(file), options, parseContext));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void shouldReleaseParseContextAfterFailedParse() throws Exception {
+		ParseContext parseContext = new ParseContext();
+		try {
+			new Mp3File(NOT_AN_MP3, new Mp3FileOptions(), parseContext);
+			fail("InvalidDataException expected but not thrown");
+		} catch (InvalidDataException e) {
+			assertEquals("No mpegs frames found", e.getMessage());
+		}
+		checkSameResultsAndTags(new Mp3File(MP3_WITH_NO_TAGS), new Mp3File(MP3_WITH_NO_TAGS, new Mp3FileOptions(), parseContext));
+	}
+
+	@Test
+	public void shouldReuseBuffersOfParseContextForNextFile() throws Exception {
+		ParseContext parseContext = new ParseContext();
+		Mp3FileOptions options = new Mp3FileOptions(256, true);
+		new Mp3File(Paths.get(MP3_WITH_ID3V1_AND_ID3V23_AND_CUSTOM_TAGS), options, parseContext);
+		// asking for no more than the buffers hold hands back the same buffers
+		ByteBuffer headBuffer = parseContext.headBuffer(0);
+		ByteBuffer tailBuffer = parseContext.tailBuffer(0);
+		ByteBuffer scanBuffer = parseContext.scanBuffer(0);
+		byte[] id3v1TagBytes = parseContext.id3v1TagBytes();
+		Mp3File mp3File = new Mp3File(Paths.get(MP3_WITH_ID3V1_AND_ID3V23_TAGS), options, parseContext);
+		checkSameResultsAndTags(new Mp3File(MP3_WITH_ID3V1_AND_ID3V23_TAGS, options), mp3File);
+		assertSame(headBuffer, parseContext.headBuffer(0));
+		assertSame(tailBuffer, parseContext.tailBuffer(0));
+		assertSame(scanBuffer, parseContext.scanBuffer(0));
+		assertSame(id3v1TagBytes, parseContext.id3v1TagBytes());
+		assertEquals(256, headBuffer.capacity());
+		assertEquals(256, scanBuffer.capacity());
+	}
+
+	@Test
+	public void shouldNotKeepParseContextBuffersLongerThanMaximum() throws Exception {
+		ParseContext parseContext = new ParseContext(true);
+		ByteBuffer largerHeadBuffer = parseContext.largerHeadBuffer(ParseContext.MAXIMUM_KEPT_LENGTH);
+		ByteBuffer oversizedBuffer = parseContext.largerHeadBuffer(ParseContext.MAXIMUM_KEPT_LENGTH + 1);
+		assertEquals(ParseContext.MAXIMUM_KEPT_LENGTH + 1, oversizedBuffer.limit());
+		assertNotSame(largerHeadBuffer, oversizedBuffer);
+		assertSame(largerHeadBuffer, parseContext.largerHeadBuffer(0));
+		assertNotSame(oversizedBuffer, parseContext.largerHeadBuffer(ParseContext.MAXIMUM_KEPT_LENGTH + 1));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void shouldRejectParseContextAlreadyInUse() throws Exception {
+		ParseContext parseContext = new ParseContext();
+		parseContext.acquire();
+		new Mp3File(new File(MP3_WITH_NO_TAGS), new Mp3FileOptions(), parseContext);
+	}
+
+	private void checkSameResultsAndTags(Mp3File expected, Mp3File actual) {
+		checkSameScanResults(expected, actual);
+		assertEquals(expected.getXingOffset(), actual.getXingOffset());
+		assertEquals(expected.hasId3v1Tag(), actual.hasId3v1Tag());
+		assertEquals(expected.hasId3v2Tag(), actual.hasId3v2Tag());
+		if (expected.hasId3v2Tag()) {
+			assertEquals(expected.getId3v2Tag().getTitle(), actual.getId3v2Tag().getTitle());
+		}
+		assertArrayEquals(expected.getCustomTag(), actual.getCustomTag());
+	}
+
+	private void checkSameScanResults(Mp3File expected, Mp3File actual) {
+		assertEquals(expected.getStartOffset(), actual.getStartOffset());
+		assertEquals(expected.getEndOffset(), actual.getEndOffset());
+		assertEquals(expected.getFrameCount(), actual.getFrameCount());
+		assertEquals(expected.getBitrates(), actual.getBitrates());
+		assertEquals(expected.getBitrate(), actual.getBitrate());
+		assertEquals(expected.getLengthInMilliseconds(), actual.getLengthInMilliseconds());
+		assertEquals(expected.isVbr(), actual.isVbr());
+	}
+
+	@Test
+	public void shouldUseLongOffsetsForFramesBeyondTwoGigabytes() throws Exception {
+		long prefixLength = Integer.MAX_VALUE + 1001L;
+		byte[] frames = TestHelper.createMpegFrames(50, 9);
+		try (ByteSource source = new FramesAfterZerosSource(prefixLength, frames)) {
+			Mp3File mp3File = new Mp3File(source, new Mp3FileOptions());
+			assertEquals(prefixLength, mp3File.getStartOffset());
+			assertEquals(prefixLength + frames.length - 1, mp3File.getEndOffset());
+			assertEquals(50, mp3File.getFrameCount());
+			assertEquals(1303, mp3File.getLengthInMilliseconds());
+			ByteArrayOutputStream sink = new ByteArrayOutputStream();
+			mp3File.save(Channels.newChannel(sink));
+			assertArrayEquals(frames, sink.toByteArray());
+		}
+	}
+
+	/**
+	 * Writes a real file of over 2GB, which takes no disk space only on file systems with sparse
+	 * files, so it is run only with mvn test -DargLine=-Dmp3agic.largeFileTests=true.
+	 */
+	@Test
+	public void shouldUseLongOffsetsForFramesBeyondTwoGigabytesOfFile() throws Exception {
+		assumeTrue(Boolean.getBoolean("mp3agic.largeFileTests"));
+		long prefixLength = Integer.MAX_VALUE + 1001L;
+		byte[] frames = TestHelper.createMpegFrames(50, 9);
+		String filename = "target" + fs + "largefile.mp3";
+		String savedFilename = "target" + fs + "largefile-saved.mp3";
+		try (RandomAccessFile file = new RandomAccessFile(filename, "rw")) {
+			file.setLength(prefixLength);
+			file.seek(prefixLength);
+			file.write(frames);
+		}
+		try {
+			Mp3FileOptions options = new Mp3FileOptions();
+			options.setMemoryMapped(true);
+			Mp3File mp3File = new Mp3File(filename, options);
+			assertEquals(prefixLength, mp3File.getStartOffset());
+			assertEquals(prefixLength + frames.length - 1, mp3File.getEndOffset());
+			assertEquals(50, mp3File.getFrameCount());
+			mp3File.save(savedFilename);
+			assertArrayEquals(frames, Files.readAllBytes(Paths.get(savedFilename)));
+		} finally {
+			TestHelper.deleteFile(filename);
+			TestHelper.deleteFile(savedFilename);
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void shouldThrowExceptionSeekingWithoutFrameIndex() throws Exception {
+		new Mp3File(MP3_WITH_ID3V1_AND_ID3V23_TAGS).offsetForTimeMillis(0);
+	}
+
 	@Test
 	public void shouldThrowExceptionForFileThatIsNotAnMp3() throws Exception {
 		try {
@@ -204,6 +944,59 @@ public class Mp3FileTest {
 		assertTrue(mp3File.hasId3v2Tag());
 	}
 
+	@Test
+	public void shouldTakeFrameCountAndLengthFromVbrHeaderWhenRequested() throws Exception {
+		Mp3FileOptions options = new Mp3FileOptions();
+		options.setUseVbrHeader(true);
+		Mp3File mp3File = new Mp3File(MP3_WITH_ID3V1_AND_ID3V23_TAGS, options);
+		assertTrue(mp3File.isVbrHeaderUsed());
+		assertEquals(VbrHeader.TYPE_XING, mp3File.getVbrHeader().getType());
+		assertEquals(0x44B, mp3File.getXingOffset());
+		assertEquals(0x5EC, mp3File.getStartOffset());
+		assertEquals(0xF7F, mp3File.getEndOffset());
+		assertEquals(6, mp3File.getFrameCount());
+		assertEquals(157, mp3File.getLengthInMilliseconds());
+		assertTrue(mp3File.isVbr());
+		assertTrue(mp3File.hasId3v1Tag());
+		assertTrue(mp3File.hasId3v2Tag());
+		assertFalse(mp3File.hasCustomTag());
+	}
+
+	@Test
+	public void shouldTakeFrameCountFromInfoHeaderMatchingScannedFrames() throws Exception {
+		Mp3FileOptions options = new Mp3FileOptions();
+		options.setUseVbrHeader(true);
+		Mp3File mp3File = new Mp3File(MP3_WITH_INFO_HEADER, options);
+		Mp3File scannedMp3File = new Mp3File(MP3_WITH_INFO_HEADER);
+		assertTrue(mp3File.isVbrHeaderUsed());
+		assertFalse(mp3File.isVbr());
+		assertEquals(scannedMp3File.getFrameCount(), mp3File.getFrameCount());
+		assertEquals(scannedMp3File.getEndOffset(), mp3File.getEndOffset());
+		assertEquals(scannedMp3File.getBitrate(), mp3File.getBitrate());
+		assertEquals(scannedMp3File.getLengthInSeconds(), mp3File.getLengthInSeconds());
+	}
+
+	@Test
+	public void shouldScanFileWhenVbrHeaderDoesNotMatchFileSize() throws Exception {
+		Mp3FileOptions options = new Mp3FileOptions();
+		options.setUseVbrHeader(true);
+		Mp3File mp3File = new Mp3File(MP3_WITH_MISMATCHED_XING_HEADER, options);
+		Mp3File scannedMp3File = new Mp3File(MP3_WITH_MISMATCHED_XING_HEADER);
+		assertTrue(mp3File.hasVbrHeader());
+		assertFalse(mp3File.isVbrHeaderUsed());
+		assertEquals(scannedMp3File.getFrameCount(), mp3File.getFrameCount());
+		assertEquals(scannedMp3File.getEndOffset(), mp3File.getEndOffset());
+		assertEquals(scannedMp3File.getLengthInMilliseconds(), mp3File.getLengthInMilliseconds());
+	}
+
+	@Test
+	public void shouldNotUseVbrHeaderByDefault() throws Exception {
+		Mp3File mp3File = new Mp3File(MP3_WITH_ID3V1_AND_ID3V23_TAGS);
+		assertTrue(mp3File.hasVbrHeader());
+		assertFalse(mp3File.isVbrHeaderUsed());
+		assertEquals(156, mp3File.getLengthInMilliseconds());
+	}
+
 	@Test
 	public void shouldRemoveId3v1Tag() throws Exception {
 		String filename = MP3_WITH_ID3V1_AND_ID3V23_AND_CUSTOM_TAGS;
@@ -446,6 +1239,14 @@ public class Mp3FileTest {
 		return loadAndCheckTestMp3(mp3File);
 	}
 
+	private Mp3File loadAndCheckMemoryMappedTestMp3(String filename, int mappedWindowLength) throws IOException, UnsupportedTagException, InvalidDataException {
+		Mp3FileOptions options = new Mp3FileOptions();
+		options.setMemoryMapped(true);
+		options.setMappedWindowLength(mappedWindowLength);
+		Mp3File mp3File = new Mp3File(filename, options);
+		return loadAndCheckTestMp3(mp3File);
+	}
+
 	private Mp3File loadAndCheckTestMp3(Mp3File mp3File) {
 		assertTrue(mp3File.hasXingFrame());
 		assertEquals(6, mp3File.getFrameCount());
@@ -467,6 +1268,55 @@ public class Mp3FileTest {
 		return mp3File;
 	}
 
+	/**
+	 * A source of zeros followed by frames, served from memory, so that offsets past 2GB are tested
+	 * without a file that large.
+	 */
+	private static class FramesAfterZerosSource implements ByteSource {
+
+		private static final byte[] ZEROS = new byte[65536];
+
+		private final long prefixLength;
+		private final byte[] frames;
+
+		FramesAfterZerosSource(long prefixLength, byte[] frames) {
+			this.prefixLength = prefixLength;
+			this.frames = frames;
+		}
+
+		@Override
+		public long size() {
+			return prefixLength + frames.length;
+		}
+
+		@Override
+		public int read(ByteBuffer bytes, long position) {
+			if (position >= size()) return -1;
+			int length = (int) Math.min(bytes.remaining(), size() - position);
+			long end = position + length;
+			while (position < Math.min(end, prefixLength)) {
+				int zeros = (int) Math.min(ZEROS.length, Math.min(end, prefixLength) - position);
+				bytes.put(ZEROS, 0, zeros);
+				position += zeros;
+			}
+			if (position < end) {
+				bytes.put(frames, (int) (position - prefixLength), (int) (end - position));
+			}
+			return length;
+		}
+
+		@Override
+		public ByteBuffer map(long position, int length) {
+			return null;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	// tests preScanFile for as long as it is kept, deprecated
+	@SuppressWarnings("deprecation")
 	private class Mp3FileForTesting extends Mp3File {
 
 		int preScanResult;
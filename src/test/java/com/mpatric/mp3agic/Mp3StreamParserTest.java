@@ -0,0 +1,129 @@
+package com.mpatric.mp3agic;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class Mp3StreamParserTest {
+
+	private static final int FRAME_LENGTH = TestHelper.mpegFrameLength(9);
+
+	@Test
+	public void shouldParseFramesAndTagsFedInChunksOfAnySize() throws Exception {
+		byte[] junk = new byte[3000];
+		new Random(0).nextBytes(junk);
+		byte[] tag = createTag("First");
+		byte[] secondTag = createTag("Second");
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		stream.write(tag);
+		stream.write(TestHelper.createMpegFrames(100, 9));
+		stream.write(secondTag);
+		stream.write(TestHelper.createMpegFrames(100, 9));
+		stream.write(junk);
+		stream.write(TestHelper.createMpegFrames(100, 9));
+		byte[] bytes = stream.toByteArray();
+		long secondTagOffset = tag.length + 100 * FRAME_LENGTH;
+		long junkOffset = secondTagOffset + secondTag.length + 100 * FRAME_LENGTH;
+
+		for (int chunkLength : new int[]{1, 7, 100, 1000, 5000, bytes.length}) {
+			for (boolean direct : new boolean[]{false, true}) {
+				RecordingListener listener = new RecordingListener();
+				Mp3StreamParser parser = new Mp3StreamParser(listener);
+				for (int offset = 0; offset < bytes.length; offset += chunkLength) {
+					int length = Math.min(chunkLength, bytes.length - offset);
+					ByteBuffer chunk = direct ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+					chunk.order(ByteOrder.LITTLE_ENDIAN);
+					chunk.put(bytes, offset, length).flip();
+					parser.feed(chunk);
+					assertFalse(chunk.hasRemaining());
+					assertTrue(parser.getPendingByteCount() < 8192);
+				}
+				assertEquals(300, parser.getFrameCount());
+				assertEquals(300, listener.frameOffsets.size());
+				assertEquals(tag.length, (long) listener.frameOffsets.get(0));
+				assertEquals(secondTagOffset + secondTag.length, (long) listener.frameOffsets.get(100));
+				assertEquals(junkOffset + junk.length, (long) listener.frameOffsets.get(200));
+				assertEquals(junkOffset + junk.length + 99 * FRAME_LENGTH, (long) listener.frameOffsets.get(299));
+				assertEquals(2, parser.getTagCount());
+				assertEquals(0L, (long) listener.tagOffsets.get(0));
+				assertEquals(secondTagOffset, (long) listener.tagOffsets.get(1));
+				assertEquals("First", listener.tags.get(0).getTitle());
+				assertEquals("Second", listener.tags.get(1).getTitle());
+				assertEquals(junk.length, parser.getSkippedByteCount());
+				assertEquals(0, parser.getPendingByteCount());
+				assertEquals(bytes.length, parser.getPosition());
+				assertTrue(parser.isSynced());
+			}
+		}
+	}
+
+	@Test
+	public void shouldSkipTagsLongerThanMaximum() throws Exception {
+		byte[] tag = createTag("Skipped");
+		byte[] frames = TestHelper.createMpegFrames(10, 9);
+		RecordingListener listener = new RecordingListener();
+		Mp3StreamParser parser = new Mp3StreamParser(listener, tag.length - 1);
+		parser.feed(ByteBuffer.wrap(tag));
+		parser.feed(ByteBuffer.wrap(frames));
+		assertEquals(0, parser.getTagCount());
+		assertEquals(tag.length, parser.getSkippedByteCount());
+		assertEquals(10, parser.getFrameCount());
+		assertEquals(tag.length, (long) listener.frameOffsets.get(0));
+	}
+
+	@Test
+	public void shouldCarryOnFromNewConnectionAfterReset() throws Exception {
+		byte[] frames = TestHelper.createMpegFrames(10, 9);
+		RecordingListener listener = new RecordingListener();
+		Mp3StreamParser parser = new Mp3StreamParser(listener);
+		parser.feed(ByteBuffer.wrap(frames, 0, frames.length - 100));
+		// the frame cut short is dropped by the reset
+		assertEquals(9, parser.getFrameCount());
+		parser.reset();
+		assertFalse(parser.isSynced());
+		assertEquals(0, parser.getPendingByteCount());
+		assertEquals(frames.length - 100, parser.getPosition());
+		parser.feed(ByteBuffer.wrap(frames));
+		assertEquals(19, parser.getFrameCount());
+		assertEquals(frames.length - 100, (long) listener.frameOffsets.get(9));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectMissingListener() {
+		new Mp3StreamParser(null);
+	}
+
+	private byte[] createTag(String title) throws Exception {
+		ID3v2 id3v2Tag = new ID3v24Tag();
+		id3v2Tag.setTitle(title);
+		return id3v2Tag.toBytes();
+	}
+
+	private static class RecordingListener implements Mp3StreamListener {
+
+		private final List<Long> frameOffsets = new ArrayList<>();
+		private final List<Long> tagOffsets = new ArrayList<>();
+		private final List<ID3v2> tags = new ArrayList<>();
+
+		@Override
+		public void frame(long streamOffset, int frameHeader, ByteBuffer bytes, int index, int length) {
+			assertEquals(MpegFrame.lengthInBytes(frameHeader), length);
+			assertEquals((byte) (frameHeader >>> 24), bytes.get(index));
+			assertEquals((byte) frameHeader, bytes.get(index + 3));
+			frameOffsets.add(streamOffset);
+		}
+
+		@Override
+		public void id3v2Tag(long streamOffset, ID3v2 tag) {
+			tagOffsets.add(streamOffset);
+			tags.add(tag);
+		}
+	}
+}
@@ -3,6 +3,8 @@ package com.mpatric.mp3agic;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class MpegFrameTest {
@@ -169,6 +171,53 @@ public class MpegFrameTest {
 		}
 	}
 
+	@Test
+	public void shouldDecodeHeaderFromTableAsMpegFrameDoes() {
+		for (int bits = 0; bits < 0x4000; bits++) {
+			int frameHeader = 0xFFE00000 | ((bits >> 2) << 9) | 0x40 | (bits & 0x3);
+			try {
+				MpegFrame mpegFrame = new MpegFrame(frameHeader);
+				assertTrue(MpegFrame.isValidHeader(frameHeader));
+				assertEquals(mpegFrame.getLengthInBytes(), MpegFrame.lengthInBytes(frameHeader));
+				assertEquals(mpegFrame.getBitrate(), MpegFrame.bitrate(frameHeader));
+				assertEquals(mpegFrame.getSampleRate(), MpegFrame.sampleRate(frameHeader));
+			} catch (InvalidDataException e) {
+				assertFalse(MpegFrame.isValidHeader(frameHeader));
+				assertEquals(0, MpegFrame.lengthInBytes(frameHeader));
+				assertEquals(0, MpegFrame.bitrate(frameHeader));
+			}
+		}
+	}
+
+	@Test
+	public void shouldRejectHeaderWithoutFrameSyncFromTable() {
+		assertEquals(523, MpegFrame.lengthInBytes(0xFFFBA240));
+		assertEquals(0, MpegFrame.lengthInBytes(0xFFDBA240));
+		assertEquals(0, MpegFrame.lengthInBytes(0x7FFBA240));
+	}
+
+	@Test
+	public void shouldCompareOnlyVersionLayerAndSampleRateForConsistency() {
+		assertTrue(MpegFrame.isConsistentHeader(0xFFFBA240, 0xFFFB1044));
+		assertTrue(MpegFrame.isConsistentHeader(0xFFFBA240, 0xFFFAA2C7));
+		assertFalse(MpegFrame.isConsistentHeader(0xFFFBA240, 0xFFF3A240));
+		assertFalse(MpegFrame.isConsistentHeader(0xFFFBA240, 0xFFFDA240));
+		assertFalse(MpegFrame.isConsistentHeader(0xFFFBA240, 0xFFFBA640));
+	}
+
+	@Test
+	public void shouldReturnHeaderStatusForFirstInvalidField() {
+		assertEquals(MpegFrame.HEADER_VALID, MpegFrame.checkHeader(0xFFFBA240));
+		assertEquals(MpegFrame.HEADER_FRAME_SYNC_MISSING, MpegFrame.checkHeader(0xFFDBA240));
+		assertEquals(MpegFrame.HEADER_INVALID_VERSION, MpegFrame.checkHeader(0xFFEBA240));
+		assertEquals(MpegFrame.HEADER_INVALID_LAYER, MpegFrame.checkHeader(0xFFF9A240));
+		assertEquals(MpegFrame.HEADER_INVALID_BITRATE, MpegFrame.checkHeader(0xFFFB0240));
+		assertEquals(MpegFrame.HEADER_INVALID_BITRATE, MpegFrame.checkHeader(0xFFFBF240));
+		assertEquals(MpegFrame.HEADER_INVALID_SAMPLE_RATE, MpegFrame.checkHeader(0xFFFBAE40));
+		assertEquals(MpegFrame.HEADER_INVALID_EMPHASIS, MpegFrame.checkHeader(0xFFFBA242));
+		assertEquals(MpegFrame.HEADER_INVALID_VERSION, MpegFrame.checkHeader(0xFFE9F2FE));
+	}
+
 	class MpegFrameForTesting extends MpegFrame {
 
 		public MpegFrameForTesting() {
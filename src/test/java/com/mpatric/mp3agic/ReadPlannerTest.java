@@ -0,0 +1,143 @@
+package com.mpatric.mp3agic;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ReadPlannerTest {
+
+	private static final int TAIL_LENGTH = 8192;
+
+	@Test
+	public void shouldReadSourceNoLongerThanReadAheadInOneRequest() throws Exception {
+		byte[] bytes = randomBytes(50000);
+		SimulatedRangeRequestSource source = new SimulatedRangeRequestSource(bytes, 0);
+		try (ReadPlanner readPlanner = new ReadPlanner(source, bytes.length, 5000, Mp3FileOptions.DEFAULT_MAXIMUM_READ_AHEAD_LENGTH)) {
+			checkRead(readPlanner, bytes, bytes.length - TAIL_LENGTH, TAIL_LENGTH);
+			checkSequentialReads(readPlanner, bytes, 0, 5000);
+		}
+		assertEquals(1, source.getRequestLengths().size());
+	}
+
+	@Test
+	public void shouldCarryHeadRequestOnToTailWhenGapIsShorterThanReadAhead() throws Exception {
+		byte[] bytes = randomBytes(150000);
+		SimulatedRangeRequestSource source = new SimulatedRangeRequestSource(bytes, 0);
+		try (ReadPlanner readPlanner = new ReadPlanner(source, bytes.length, 5000, Mp3FileOptions.DEFAULT_MAXIMUM_READ_AHEAD_LENGTH)) {
+			checkRead(readPlanner, bytes, bytes.length - TAIL_LENGTH, TAIL_LENGTH);
+			checkSequentialReads(readPlanner, bytes, 0, 5000);
+			checkRead(readPlanner, bytes, 100000, 200);
+		}
+		List<Integer> requestLengths = source.getRequestLengths();
+		assertEquals(2, requestLengths.size());
+		assertEquals(ReadPlanner.MINIMUM_READ_AHEAD_LENGTH, (int) requestLengths.get(0));
+		assertEquals(bytes.length - ReadPlanner.MINIMUM_READ_AHEAD_LENGTH, (int) requestLengths.get(1));
+	}
+
+	@Test
+	public void shouldGrowReadAheadWhileLargerRequestsRaiseThroughput() throws Exception {
+		byte[] bytes = randomBytes(8 * 1024 * 1024);
+		SimulatedRangeRequestSource source = new SimulatedRangeRequestSource(bytes, 20);
+		try (ReadPlanner readPlanner = new ReadPlanner(source, bytes.length, 5000, 2 * 1024 * 1024, source::nanoTime)) {
+			checkRead(readPlanner, bytes, bytes.length - TAIL_LENGTH, TAIL_LENGTH);
+			checkSequentialReads(readPlanner, bytes, 0, 5000);
+		}
+		List<Integer> requestLengths = source.getRequestLengths();
+		assertEquals(ReadPlanner.MINIMUM_READ_AHEAD_LENGTH * 2, (int) requestLengths.get(2));
+		assertTrue(requestLengths.contains(2 * 1024 * 1024));
+		for (int length : requestLengths) {
+			assertTrue(length <= 4 * 1024 * 1024);
+		}
+		assertTrue(requestLengths.size() < 12);
+	}
+
+	@Test
+	public void shouldStopGrowingReadAheadOnceThroughputLevelsOff() throws Exception {
+		byte[] bytes = randomBytes(16 * 1024 * 1024);
+		// at 20ms a request and 10MB/s, doubling from 1MB to 2MB raises the throughput by under 10%
+		SimulatedRangeRequestSource source = new SimulatedRangeRequestSource(bytes, 20, 10000);
+		try (ReadPlanner readPlanner = new ReadPlanner(source, bytes.length, 5000, Mp3FileOptions.DEFAULT_MAXIMUM_READ_AHEAD_LENGTH, source::nanoTime)) {
+			checkRead(readPlanner, bytes, bytes.length - TAIL_LENGTH, TAIL_LENGTH);
+			checkSequentialReads(readPlanner, bytes, 0, 5000);
+		}
+		List<Integer> requestLengths = source.getRequestLengths();
+		assertTrue(requestLengths.contains(2 * 1024 * 1024));
+		for (int length : requestLengths.subList(0, requestLengths.size() - 1)) {
+			assertTrue(length <= 2 * 1024 * 1024);
+		}
+	}
+
+	@Test
+	public void shouldReadNextWindowIntoBufferOfLastWindow() throws Exception {
+		byte[] bytes = randomBytes(500000);
+		List<byte[]> requestArrays = new ArrayList<>();
+		ByteSource source = new SimulatedRangeRequestSource(bytes, 0) {
+			@Override
+			public synchronized int read(ByteBuffer buffer, long position) {
+				if (buffer.position() == 0) requestArrays.add(buffer.array());
+				return super.read(buffer, position);
+			}
+		};
+		try (ReadPlanner readPlanner = new ReadPlanner(source, bytes.length, 5000, 0)) {
+			checkSequentialReads(readPlanner, bytes, 0, 5000);
+		}
+		assertTrue(requestArrays.size() > 3);
+		assertSame(requestArrays.get(0), requestArrays.get(1));
+		assertSame(requestArrays.get(0), requestArrays.get(2));
+	}
+
+	@Test(expected = IOException.class)
+	public void shouldFailRequestWhenSourceReadsNoBytes() throws Exception {
+		ByteSource source = new SimulatedRangeRequestSource(new byte[100000], 0) {
+			@Override
+			public int read(ByteBuffer buffer, long position) {
+				return 0;
+			}
+		};
+		try (ReadPlanner readPlanner = new ReadPlanner(source, 100000, 5000, 0)) {
+			readPlanner.read(ByteBuffer.allocate(5000));
+		}
+	}
+
+	@Test(expected = java.nio.channels.NonWritableChannelException.class)
+	public void shouldNotBeWritable() throws Exception {
+		try (ReadPlanner readPlanner = new ReadPlanner(new SimulatedRangeRequestSource(new byte[10], 0), 10, 5000, 0)) {
+			readPlanner.write(ByteBuffer.allocate(1));
+		}
+	}
+
+	private void checkSequentialReads(ReadPlanner readPlanner, byte[] bytes, int position, int length) throws Exception {
+		readPlanner.position(position);
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		int bytesRead;
+		while ((bytesRead = readPlanner.read(buffer)) > 0) {
+			for (int i = 0; i < bytesRead; i++) {
+				assertEquals(bytes[position + i], buffer.get(i));
+			}
+			position += bytesRead;
+			buffer.clear();
+		}
+		assertEquals(bytes.length, position);
+	}
+
+	private void checkRead(ReadPlanner readPlanner, byte[] bytes, int position, int length) throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		readPlanner.position(position);
+		assertEquals(length, readPlanner.read(buffer));
+		for (int i = 0; i < length; i++) {
+			assertEquals(bytes[position + i], buffer.get(i));
+		}
+	}
+
+	private static byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		new Random(0).nextBytes(bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,69 @@
+package com.mpatric.mp3agic;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stands in for an object store that serves range requests, with a fixed latency per request and
+ * optionally a limited bandwidth, and records the length of each request. Requests take no real
+ * time: they advance a simulated clock, {@link #nanoTime()}, for the reader to time them against.
+ */
+public class SimulatedRangeRequestSource implements ByteSource {
+
+	private final byte[] bytes;
+	private final long latencyNanos;
+	private final long bytesPerMillisecond;
+	private final List<Integer> requestLengths = new ArrayList<>();
+	private long nanoTime;
+	private boolean closed;
+
+	public SimulatedRangeRequestSource(byte[] bytes, long latencyMillis) {
+		this(bytes, latencyMillis, 0);
+	}
+
+	/**
+	 * @param bytesPerMillisecond the bandwidth, or 0 for no limit
+	 */
+	public SimulatedRangeRequestSource(byte[] bytes, long latencyMillis, long bytesPerMillisecond) {
+		this.bytes = bytes;
+		this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+		this.bytesPerMillisecond = bytesPerMillisecond;
+	}
+
+	@Override
+	public long size() {
+		return bytes.length;
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer buffer, long position) {
+		if (closed) throw new IllegalStateException("Closed");
+		if (position >= bytes.length) return -1;
+		int length = (int) Math.min(buffer.remaining(), bytes.length - position);
+		nanoTime += latencyNanos;
+		if (bytesPerMillisecond > 0) nanoTime += TimeUnit.MILLISECONDS.toNanos(1) * length / bytesPerMillisecond;
+		buffer.put(bytes, (int) position, length);
+		requestLengths.add(length);
+		return length;
+	}
+
+	@Override
+	public ByteBuffer map(long position, int length) {
+		return null;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+	}
+
+	public synchronized long nanoTime() {
+		return nanoTime;
+	}
+
+	public synchronized List<Integer> getRequestLengths() {
+		return new ArrayList<>(requestLengths);
+	}
+}
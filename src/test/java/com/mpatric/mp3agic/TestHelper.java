@@ -2,7 +2,11 @@ package com.mpatric.mp3agic;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -59,6 +63,83 @@ public class TestHelper {
 		}
 	}
 
+	private static final int[] MPEG1_LAYER3_BITRATES = {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320};
+
+	private static final byte[] FALSE_FRAME_HEADER = {(byte) 0xFF, (byte) 0xFB, (byte) 0x90, (byte) 0x44};
+
+	public static int mpegFrameLength(int bitrateIndex) {
+		return 144000 * MPEG1_LAYER3_BITRATES[bitrateIndex] / 44100;
+	}
+
+	// mpeg 1 layer III, 44100Hz, joint stereo frames with random audio data, cycling through the given bitrate indexes
+	public static byte[] createMpegFrames(int frameCount, int... bitrateIndexes) {
+		int length = 0;
+		for (int i = 0; i < frameCount; i++) {
+			length += mpegFrameLength(bitrateIndexes[i % bitrateIndexes.length]);
+		}
+		byte[] bytes = new byte[length];
+		new Random(frameCount).nextBytes(bytes);
+		int offset = 0;
+		for (int i = 0; i < frameCount; i++) {
+			int bitrateIndex = bitrateIndexes[i % bitrateIndexes.length];
+			bytes[offset] = (byte) 0xFF;
+			bytes[offset + 1] = (byte) 0xFB;
+			bytes[offset + 2] = (byte) (bitrateIndex << 4);
+			bytes[offset + 3] = (byte) 0x44;
+			offset += mpegFrameLength(bitrateIndex);
+		}
+		return bytes;
+	}
+
+	// mpeg 1 layer III, 44100Hz, joint stereo frames at one bitrate, padded whenever the fractional bytes per frame add up to a whole byte as encoders do
+	public static byte[] createPaddedMpegFrames(int frameCount, int bitrateIndex) {
+		int remainder = 144000 * MPEG1_LAYER3_BITRATES[bitrateIndex] % 44100;
+		int length = 0;
+		for (int i = 0, accumulated = 0; i < frameCount; i++) {
+			accumulated += remainder;
+			length += mpegFrameLength(bitrateIndex) + (accumulated >= 44100 ? 1 : 0);
+			if (accumulated >= 44100) accumulated -= 44100;
+		}
+		byte[] bytes = new byte[length];
+		new Random(frameCount).nextBytes(bytes);
+		for (int i = 0, offset = 0, accumulated = 0; i < frameCount; i++) {
+			accumulated += remainder;
+			boolean padded = accumulated >= 44100;
+			if (padded) accumulated -= 44100;
+			bytes[offset] = (byte) 0xFF;
+			bytes[offset + 1] = (byte) 0xFB;
+			bytes[offset + 2] = (byte) (bitrateIndex << 4 | (padded ? 0x02 : 0));
+			bytes[offset + 3] = (byte) 0x44;
+			offset += mpegFrameLength(bitrateIndex) + (padded ? 1 : 0);
+		}
+		return bytes;
+	}
+
+	// repeated 128kbps frame headers spaced closer together than the frame length, so none of them is followed by another frame
+	public static byte[] createFalseMpegFrameHeaders(int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = FALSE_FRAME_HEADER[i % FALSE_FRAME_HEADER.length];
+		}
+		return bytes;
+	}
+
+	public static final int MIXED_MP3_FRAME_COUNT = 2500;
+
+	// 3000 bytes of junk, 1000 padded frames at one bitrate, 1500 frames cycling through bitrates, the custom tag and an ID3v1 tag
+	public static Path writeMixedMp3(Path path, byte[] customTag) throws IOException {
+		byte[] junk = new byte[3000];
+		new Random(0).nextBytes(junk);
+		try (OutputStream outputStream = Files.newOutputStream(path)) {
+			outputStream.write(junk);
+			outputStream.write(createPaddedMpegFrames(1000, 9));
+			outputStream.write(createMpegFrames(1500, 9, 11, 14, 5, 1));
+			outputStream.write(customTag);
+			outputStream.write(new ID3v1Tag().toBytes());
+		}
+		return path;
+	}
+
 	// self tests
 	@Test
 	public void shouldConvertBytesToHexAndBack() throws Exception {
@@ -0,0 +1,79 @@
+package com.mpatric.mp3agic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class VbrHeaderTest {
+
+	private static final String MPEG_HEADER = "ff fb 90 64";
+	private static final String MPEG1_STEREO_SIDE_INFO = "00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00";
+	private static final String MPEG1_MONO_SIDE_INFO = "00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00";
+
+	@Test
+	public void shouldParseXingHeaderWithAllFields() {
+		byte[] bytes = TestHelper.hexStringToBytes(MPEG_HEADER + " " + MPEG1_STEREO_SIDE_INFO + " 58 69 6e 67 00 00 00 0f 00 00 01 a2 00 01 61 88 " + toc() + " 00 00 00 3c");
+		VbrHeader header = VbrHeader.parse(bytes, 0, bytes.length);
+		assertEquals(VbrHeader.TYPE_XING, header.getType());
+		assertTrue(header.isVbr());
+		assertEquals(418, header.getFrameCount());
+		assertEquals(90504, header.getByteCount());
+		assertEquals(60, header.getQuality());
+		assertEquals(100, header.getToc().length);
+		assertEquals(99, header.getToc()[99]);
+	}
+
+	@Test
+	public void shouldParseInfoHeaderWithOnlySomeFields() {
+		byte[] bytes = TestHelper.hexStringToBytes(MPEG_HEADER + " " + MPEG1_MONO_SIDE_INFO + " 49 6e 66 6f 00 00 00 03 00 00 00 06 00 00 0b 35");
+		VbrHeader header = VbrHeader.parse(bytes, 0, bytes.length);
+		assertEquals(VbrHeader.TYPE_INFO, header.getType());
+		assertFalse(header.isVbr());
+		assertEquals(6, header.getFrameCount());
+		assertEquals(2869, header.getByteCount());
+		assertFalse(header.hasQuality());
+		assertNull(header.getToc());
+	}
+
+	@Test
+	public void shouldParseVbriHeader() {
+		byte[] bytes = TestHelper.hexStringToBytes(MPEG_HEADER + " " + MPEG1_STEREO_SIDE_INFO + " 56 42 52 49 00 01 04 40 00 4b 00 51 ee ec 00 00 1c 79 00 00 00 01 00 02 00 01");
+		VbrHeader header = VbrHeader.parse(bytes, 0, bytes.length);
+		assertEquals(VbrHeader.TYPE_VBRI, header.getType());
+		assertTrue(header.isVbr());
+		assertEquals(7289, header.getFrameCount());
+		assertEquals(5369580, header.getByteCount());
+		assertEquals(75, header.getQuality());
+	}
+
+	@Test
+	public void shouldDetectHeaderFrameAtOffset() {
+		byte[] bytes = TestHelper.hexStringToBytes("00 00 " + MPEG_HEADER + " " + MPEG1_MONO_SIDE_INFO + " 49 6e 66 6f 00 00 00 01 00 00 00 06");
+		assertTrue(VbrHeader.isVbrHeaderFrame(bytes, 2, bytes.length));
+		assertFalse(VbrHeader.isVbrHeaderFrame(bytes, 0, bytes.length));
+		assertEquals(6, VbrHeader.parse(bytes, 2, bytes.length).getFrameCount());
+	}
+
+	@Test
+	public void shouldReturnNullForTruncatedHeader() {
+		byte[] bytes = TestHelper.hexStringToBytes(MPEG_HEADER + " " + MPEG1_MONO_SIDE_INFO + " 58 69 6e 67 00 00 00 03 00 00 00 06");
+		assertTrue(VbrHeader.isVbrHeaderFrame(bytes, 0, bytes.length));
+		assertNull(VbrHeader.parse(bytes, 0, bytes.length));
+	}
+
+	@Test
+	public void shouldReturnNullWhenThereIsNoHeader() {
+		byte[] bytes = TestHelper.hexStringToBytes(MPEG_HEADER + " " + MPEG1_STEREO_SIDE_INFO + " 00 00 00 00 00 00 00 00 00 00 00 00");
+		assertFalse(VbrHeader.isVbrHeaderFrame(bytes, 0, bytes.length));
+		assertNull(VbrHeader.parse(bytes, 0, bytes.length));
+	}
+
+	private String toc() {
+		StringBuilder toc = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			if (i > 0) toc.append(' ');
+			toc.append(String.format("%02x", i));
+		}
+		return toc.toString();
+	}
+}